@@ -0,0 +1,297 @@
+package enerj.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import enerj.lang.Approx;
+import enerj.lang.Approx16;
+import enerj.lang.Approx8;
+
+/**
+ * JUnit tests for the load-time instrumentation. The nested classes below
+ * are instrumented as the agent would, then inspected or run; running them
+ * needs the runtime, which reads the class info written by setUp from the
+ * working directory.
+ */
+public class AgentTests {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore jc = new org.junit.runner.JUnitCore();
+        Result run = jc.run(AgentTests.class);
+
+        if( run.wasSuccessful() ) {
+            System.out.println("Run was successful with " + run.getRunCount() + " test(s)!");
+        } else {
+            System.out.println("Run had " + run.getFailureCount() + " failure(s) out of " +
+                    run.getRunCount() + " run(s)!");
+
+            for( Failure f : run.getFailures() ) {
+                System.out.println(f.toString());
+            }
+            System.exit(1);
+        }
+    }
+
+    public static class Point {
+        @Approx int x;
+        int y;
+
+        public Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    public static class Fixture {
+        public static int precise(int n) {
+            int s = 0;
+            for (int i = 0; i < n; i++)
+                s += i * 2;
+            return s;
+        }
+
+        public static int approx(int n) {
+            @Approx8 int s = 0;
+            for (int i = 0; i < n; i++)
+                s += i;
+            return s;
+        }
+
+        public static int point() {
+            Point p = new Point(1, 2);
+            return p.y + p.y;
+        }
+
+        public static double locals(double x) {
+            @Approx16 double d = x;
+            @Approx float f = (float) (d * 2);
+            return d + f;
+        }
+
+        public static int array(int n) {
+            @Approx int[] a = new @Approx int[n];
+            a[1] = n;
+            long[][] l = new long[2][n];
+            l[1][1] = 3;
+            return a.length + (int) l[1][1];
+        }
+    }
+
+    private static final String PREFIX = AgentTests.class.getName() + "$";
+
+    private static PrecisionTransformer transformer;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        FileWriter out = new FileWriter(PrecisionAgent.DEFAULT_CLASS_INFO);
+        try {
+            out.write("{\"" + Point.class.getCanonicalName() + "\": {"
+                      + "\"x\": {\"annotation\": \"Approx\", \"static\": false, "
+                      + "\"final\": false, \"type\": \"int\"}, "
+                      + "\"y\": {\"annotation\": \"Precise\", \"static\": false, "
+                      + "\"final\": false, \"type\": \"int\"}}}");
+        } finally {
+            out.close();
+        }
+        // The nested classes are in a package the agent leaves alone
+        transformer = new PrecisionTransformer(
+            ClassInfo.read(PrecisionAgent.DEFAULT_CLASS_INFO), new String[]{"java/"});
+    }
+
+    static byte[] classFile(String name) throws IOException {
+        InputStream in = AgentTests.class.getClassLoader()
+            .getResourceAsStream(name.replace('.', '/') + ".class");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        for (int n; (n = in.read(buf)) > 0; )
+            out.write(buf, 0, n);
+        in.close();
+        return out.toByteArray();
+    }
+
+    static ClassNode instrumented(Class<?> c) throws IOException {
+        byte[] b = transformer.instrument(AgentTests.class.getClassLoader(),
+                                          classFile(c.getName()));
+        assertNotNull(c.getName() + " not instrumented", b);
+        ClassNode node = new ClassNode();
+        new ClassReader(b).accept(node, 0);
+        return node;
+    }
+
+    static MethodNode method(ClassNode c, String name) {
+        for (MethodNode m : c.methods)
+            if (m.name.equals(name))
+                return m;
+        throw new AssertionError("no method " + name);
+    }
+
+    /**
+     * The hooks a method calls, each with the int constant pushed right
+     * before the call (the approximative bits, or precision), if any.
+     */
+    static List<String> hooks(MethodNode m) {
+        List<String> hooks = new ArrayList<String>();
+        for (AbstractInsnNode insn : m.instructions.toArray()) {
+            if (insn instanceof MethodInsnNode
+                && ((MethodInsnNode) insn).owner.equals("enerj/rt/AgentHooks")) {
+                String hook = ((MethodInsnNode) insn).name;
+                int prev = insn.getPrevious().getOpcode();
+                if (prev >= Opcodes.ICONST_0 && prev <= Opcodes.ICONST_5)
+                    hook += " " + (prev - Opcodes.ICONST_0);
+                else if (prev == Opcodes.BIPUSH)
+                    hook += " " + ((IntInsnNode) insn.getPrevious()).operand;
+                hooks.add(hook);
+            }
+        }
+        return hooks;
+    }
+
+    /**
+     * A class loader instrumenting the nested classes.
+     */
+    static class InstrumentingLoader extends ClassLoader {
+        InstrumentingLoader() {
+            super(AgentTests.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(PREFIX))
+                return super.loadClass(name, resolve);
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    try {
+                        byte[] b = classFile(name);
+                        byte[] instrumented = transformer.instrument(this, b);
+                        if (instrumented != null)
+                            b = instrumented;
+                        c = defineClass(name, b, 0, b.length);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                return c;
+            }
+        }
+    }
+
+    static Object run(String method, Object... args) throws Exception {
+        Class<?>[] types = new Class<?>[args.length];
+        for (int i = 0; i < args.length; i++)
+            types[i] = args[i] instanceof Double ? double.class : int.class;
+        Class<?> c = new InstrumentingLoader().loadClass(Fixture.class.getName());
+        return c.getMethod(method, types).invoke(null, args);
+    }
+
+    @Test
+    public void arithmeticPrecision() throws Exception {
+        ClassNode c = instrumented(Fixture.class);
+        // s += i * 2 and i++
+        List<String> precise = hooks(method(c, "precise"));
+        assertEquals(3, precise.size());
+        for (String hook : precise)
+            assertEquals("binaryInt 0", hook);
+        // s += i is approximate with the bits of s, and so are the register
+        // accesses of s; i++ is not
+        List<String> approx = hooks(method(c, "approx"));
+        assertTrue(approx.toString(), approx.contains("binaryInt 8"));
+        assertTrue(approx.toString(), approx.contains("binaryInt 0"));
+        assertTrue(approx.toString(), approx.contains("loadLocalInt 8"));
+        assertTrue(approx.toString(), approx.contains("storeLocalInt 8"));
+        assertEquals(approx.toString(), 2, approx.size() - count(approx, "LocalInt 8"));
+    }
+
+    @Test
+    public void approximateLocals() throws Exception {
+        List<String> locals = hooks(method(instrumented(Fixture.class), "locals"));
+        // Initialization of d, d * 2 (load of d), return of d + f, and the
+        // store and load of f
+        assertEquals(locals.toString(), 2, count(locals, "storeLocal"));
+        assertEquals(locals.toString(), 3, count(locals, "loadLocal"));
+        assertTrue(locals.toString(), locals.contains("storeLocalDouble 16"));
+        assertTrue(locals.toString(), locals.contains("loadLocalFloat 32"));
+        // No Reference boxes
+        for (AbstractInsnNode insn : method(instrumented(Fixture.class), "locals").instructions.toArray())
+            assertTrue(!(insn instanceof TypeInsnNode));
+        assertEquals(Fixture.locals(1.5), run("locals", 1.5));
+    }
+
+    static int count(List<String> hooks, String part) {
+        int n = 0;
+        for (String hook : hooks)
+            if (hook.contains(part))
+                n++;
+        return n;
+    }
+
+    @Test
+    public void fieldsAndCreation() throws Exception {
+        List<String> point = hooks(method(instrumented(Fixture.class), "point"));
+        assertEquals("beforeCreation 0", point.get(0));
+        assertEquals("afterCreation", point.get(1));
+        // p.y + p.y: precise field loads (precision 0) and addition
+        assertEquals(2, point.subList(2, point.size()).indexOf("binaryInt 0"));
+
+        List<String> init = hooks(method(instrumented(Point.class), "<init>"));
+        assertEquals("enterConstructor", init.get(0));
+        assertTrue(init.toString(), init.contains("storeFieldInt 1"));
+        assertTrue(init.toString(), init.contains("storeFieldInt 0"));
+    }
+
+    @Test
+    public void arrays() throws Exception {
+        List<String> array = hooks(method(instrumented(Fixture.class), "array"));
+        // new @Approx int[n] and new long[2][n]
+        assertEquals("newArray 32", array.get(0));
+        assertTrue(array.toString(), array.contains("newArray 0"));
+        assertTrue(array.toString(), array.contains("storeArrayInt 1"));
+        assertTrue(array.toString(), array.contains("storeArrayLong 0"));
+        assertTrue(array.toString(), array.contains("loadArrayLong 0"));
+    }
+
+    @Test
+    public void instrumentedCodeRuns() throws Exception {
+        assertEquals(Fixture.precise(10), run("precise", 10));
+        assertEquals(Fixture.point(), run("point"));
+        assertEquals(Fixture.array(5), run("array", 5));
+        run("approx", 10);
+    }
+
+    @Test
+    public void commonSuperClass() {
+        ClassHierarchy h = new ClassHierarchy(AgentTests.class.getClassLoader());
+        assertEquals("java/lang/Number",
+                     h.commonSuperClass("java/lang/Integer", "java/lang/Double"));
+        assertEquals("java/lang/Object",
+                     h.commonSuperClass("java/lang/Integer", "java/util/List"));
+        assertEquals("java/lang/Object",
+                     h.commonSuperClass("java/lang/Integer", "no/such/Class"));
+    }
+
+    @Test
+    public void sourceNames() {
+        assertEquals("a.b.C.D", ClassInfo.sourceName("a/b/C$D"));
+        assertEquals("a.b.C", ClassInfo.sourceName("a.b.C<java.lang.String>"));
+    }
+}
@@ -0,0 +1,116 @@
+package enerj.agent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Superclasses of the classes an instrumented class refers to. A class
+ * being transformed can't load the classes it uses (they may not even be
+ * loadable yet), so their class files are read as resources of the loader
+ * instead, like the class loader itself would.
+ */
+class ClassHierarchy {
+    /**
+     * Superclass and interface flag of a class file.
+     */
+    private static class Header {
+        final String superName;
+        final boolean isInterface;
+
+        Header(String superName, boolean isInterface) {
+            this.superName = superName;
+            this.isInterface = isInterface;
+        }
+    }
+
+    private static final Header MISSING = new Header(null, false);
+
+    private final ClassLoader loader;
+
+    /**
+     * Internal class name -> header, MISSING if there is no class file
+     */
+    private final HashMap<String, Header> headers = new HashMap<String, Header>();
+
+    /**
+     * @param loader Loader of the instrumented class; null for the boot loader
+     */
+    ClassHierarchy(ClassLoader loader) {
+        this.loader = loader;
+    }
+
+    private Header header(String className) {
+        Header header = headers.get(className);
+        if (header == null) {
+            header = MISSING;
+            InputStream in = loader == null
+                ? ClassLoader.getSystemResourceAsStream(className + ".class")
+                : loader.getResourceAsStream(className + ".class");
+            if (in != null) {
+                try {
+                    ClassReader reader = new ClassReader(in);
+                    header = new Header(reader.getSuperName(),
+                                        (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+                } catch (IOException e) {
+                    // Treated like a missing class
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // Nothing left to read
+                    }
+                }
+            }
+            headers.put(className, header);
+        }
+        return header;
+    }
+
+    /**
+     * @param className Internal class name
+     * @return Internal name of the superclass; null for java/lang/Object
+     * and for classes whose class file can't be found
+     */
+    String superName(String className) {
+        return header(className).superName;
+    }
+
+    /**
+     * Nearest common superclass of two classes, for the stack map frames
+     * of the instrumented code.
+     */
+    String commonSuperClass(String type1, String type2) {
+        if (type1.equals(type2))
+            return type1;
+        if (header(type1).isInterface || header(type2).isInterface)
+            return "java/lang/Object";
+        List<String> supers1 = new ArrayList<String>();
+        for (String c = type1; c != null; c = superName(c))
+            supers1.add(c);
+        for (String c = type2; c != null; c = superName(c))
+            if (supers1.contains(c))
+                return c;
+        return "java/lang/Object";
+    }
+
+    /**
+     * A ClassWriter computing frames from this hierarchy instead of by
+     * loading classes.
+     * @param flags ClassWriter flags
+     */
+    ClassWriter writer(int flags) {
+        return new ClassWriter(flags) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return commonSuperClass(type1, type2);
+            }
+        };
+    }
+}
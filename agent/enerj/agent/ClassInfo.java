@@ -0,0 +1,201 @@
+package enerj.agent;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONReader;
+
+import enerj.AnnotationType;
+import enerj.FieldInfoContainer;
+
+/**
+ * The field annotations the checker wrote to object_field_info.json. The
+ * runtime lays out objects from the same file, so the agent takes the
+ * precision of fields from it rather than from the class files.
+ */
+class ClassInfo {
+    private static final int POINTER_SIZE = 8; // as in PrecisionChecker
+    private static final int LINE_SIZE = 64;
+
+    /**
+     * Class name, as the checker writes it -> field name -> field info
+     */
+    private final HashMap<String, Map<String, FieldInfoContainer>> classes =
+        new HashMap<String, Map<String, FieldInfoContainer>>();
+
+    /**
+     * Read a class info file.
+     * @param fileName Name of the JSON file
+     * @throws IOException The file can't be read or parsed
+     */
+    static ClassInfo read(String fileName) throws IOException {
+        ClassInfo info = new ClassInfo();
+        try {
+            JSONReader json = new JSONReader(new FileReader(fileName));
+            json.require(JSONReader.START_OBJECT);
+            while (json.next() == JSONReader.KEY) {
+                String keyClass = json.getString();
+                HashMap<String, FieldInfoContainer> fieldsInfo =
+                    new HashMap<String, FieldInfoContainer>();
+                json.require(JSONReader.START_OBJECT);
+                while (json.next() == JSONReader.KEY) {
+                    FieldInfoContainer fic = new FieldInfoContainer();
+                    String keyField = json.getString();
+                    String annotation = null;
+                    json.require(JSONReader.START_OBJECT);
+                    while (json.next() == JSONReader.KEY) {
+                        String property = json.getString();
+                        json.require(JSONReader.VALUE);
+                        switch (property) {
+                        case "annotation":
+                            annotation = json.getString();
+                            break;
+                        case "static":
+                            fic.isStatic = json.getBoolean();
+                            break;
+                        case "final":
+                            fic.isFinal = json.getBoolean();
+                            break;
+                        case "type":
+                            fic.fieldType = json.getString();
+                            break;
+                        }
+                    }
+                    if (annotation == null || fic.fieldType == null)
+                        throw json.syntaxError("Incomplete field " + keyClass + "." + keyField);
+                    try {
+                        fic.annotation = AnnotationType.valueOf(annotation);
+                    } catch (IllegalArgumentException e) {
+                        throw json.syntaxError("Unknown annotation " + annotation);
+                    }
+                    fieldsInfo.put(keyField, fic);
+                }
+                info.classes.put(sourceName(keyClass), fieldsInfo);
+            }
+            json.close();
+        } catch (JSONException e) {
+            throw new IOException(fileName + ": " + e.getMessage());
+        }
+        return info;
+    }
+
+    /**
+     * The checker names classes by their source type: nested classes are
+     * separated by '.', and generic classes may carry type arguments.
+     * @param name Internal or source class name
+     */
+    static String sourceName(String name) {
+        int generic = name.indexOf('<');
+        if (generic >= 0)
+            name = name.substring(0, generic);
+        return name.replace('/', '.').replace('$', '.');
+    }
+
+    /**
+     * Whether the checker saw a class being instantiated.
+     * @param className Internal class name
+     */
+    boolean contains(String className) {
+        return classes.containsKey(sourceName(className));
+    }
+
+    /**
+     * Look up a field declared by a class.
+     * @param className Internal name of the declaring class
+     * @param fieldName Field name
+     * @return The field, or null if the class or field is unknown
+     */
+    FieldInfoContainer field(String className, String fieldName) {
+        Map<String, FieldInfoContainer> fields = classes.get(sourceName(className));
+        return fields == null ? null : fields.get(fieldName);
+    }
+
+    /**
+     * Whether an annotation makes a value approximate.
+     */
+    static boolean isApprox(AnnotationType annotation) {
+        return annotation != AnnotationType.Precise && annotation != AnnotationType.Context;
+    }
+
+    /**
+     * Number of approximative bits of an annotation, as the translator
+     * passes them to the runtime.
+     */
+    static int approximativeBits(AnnotationType annotation) {
+        switch (annotation) {
+        case Approx0:
+            return 0;
+        case Approx8:
+            return 8;
+        case Approx16:
+            return 16;
+        case Approx24:
+            return 24;
+        case Approx:
+        case Approx32:
+            return 32;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Size in bytes of a value of a primitive type, 0 for other types.
+     * @param type Source type name, e.g. "int"
+     */
+    static int primitiveSize(String type) {
+        switch (type) {
+        case "boolean":
+        case "byte":
+            return 1;
+        case "char":
+        case "short":
+            return 2;
+        case "int":
+        case "float":
+            return 4;
+        case "long":
+        case "double":
+            return 8;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Precise and approximate sizes of an object, computed from the fields
+     * the class declares like PrecisionChecker.objectSizes does.
+     * @param className Internal class name
+     * @param approx Whether the object is approximate
+     * @return {preciseSize, approxSize}
+     */
+    int[] objectSizes(String className, boolean approx) {
+        int preciseSize = 0;
+        int approxSize = 0;
+        Map<String, FieldInfoContainer> fields = classes.get(sourceName(className));
+        if (fields != null) {
+            for (FieldInfoContainer field : fields.values()) {
+                int size = primitiveSize(field.fieldType);
+                if (size == 0) {
+                    // References are always precise; arrays are not counted
+                    if (!field.fieldType.endsWith("[]"))
+                        preciseSize += POINTER_SIZE;
+                } else if (isApprox(field.annotation)
+                           || (approx && field.annotation == AnnotationType.Context)) {
+                    approxSize += size;
+                } else {
+                    preciseSize += size;
+                }
+            }
+        }
+        preciseSize += POINTER_SIZE; // vtable
+
+        int wastedApprox = Math.min(LINE_SIZE - (preciseSize % LINE_SIZE), approxSize);
+        preciseSize += wastedApprox;
+        approxSize -= wastedApprox;
+        return new int[]{preciseSize, approxSize};
+    }
+}
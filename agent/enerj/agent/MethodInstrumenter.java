@@ -0,0 +1,1076 @@
+package enerj.agent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.TypePath;
+import org.objectweb.asm.TypeReference;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LocalVariableAnnotationNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeAnnotationNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import enerj.AnnotationType;
+import enerj.FieldInfoContainer;
+import enerj.rt.AgentHooks;
+
+/**
+ * Rewrites one method the way the source translator rewrites its tree:
+ * object and array creations, field and array element accesses, and
+ * arithmetic go through the runtime (enerj.rt.AgentHooks). Approximate
+ * primitive locals stay unboxed, unlike the translator's References; only
+ * their loads and stores call the runtime, for register errors.
+ *
+ * Bytecode has no types on operands, so the precision of every value on
+ * the operand stack is worked out first, by running the method on tags
+ * instead of values: approximate locals (from their type annotations),
+ * fields (from the class info) and array elements are approximate, and so
+ * is the result of an operation on an approximate operand.
+ */
+class MethodInstrumenter implements Opcodes {
+    private static final String HOOKS = "enerj/rt/AgentHooks";
+    private static final String OPERATOR = "enerj/rt/PrecisionRuntime$ArithOperator";
+    private static final String OPERATOR_DESC = "L" + OPERATOR + ";";
+
+    /**
+     * Tag of a precise value; tags of approximate values are their number
+     * of approximative bits.
+     */
+    static final int PRECISE = -1;
+
+    private final ClassNode owner;
+    private final MethodNode method;
+    private final PrecisionTransformer transformer;
+    private final ClassInfo info;
+    private final ClassHierarchy hierarchy;
+    private final InsnList insns;
+
+    /**
+     * Tags of the operand stack words before each instruction; null for
+     * unreachable instructions
+     */
+    private int[][] frames;
+
+    /**
+     * Local variable annotations and formal parameters
+     */
+    private final List<LocalTag> localTags = new ArrayList<LocalTag>();
+
+    /**
+     * Fields of the class info, by field instruction; null if unknown
+     */
+    private final HashMap<FieldInsnNode, FieldInfoContainer> fields =
+        new HashMap<FieldInsnNode, FieldInfoContainer>();
+
+    /**
+     * Annotations of object and array creations, by instruction
+     */
+    private final HashMap<AbstractInsnNode, List<TypeAnnotationNode>> creations =
+        new HashMap<AbstractInsnNode, List<TypeAnnotationNode>>();
+
+    /**
+     * The tag of an approximate local over a range of instructions.
+     */
+    private static class LocalTag {
+        final int index;
+        final int start;
+        final int end;
+        final int tag;
+        /** Declared type; null if unknown (no local variable table) */
+        final Type type;
+
+        LocalTag(int index, int start, int end, int tag, Type type) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.tag = tag;
+            this.type = type;
+        }
+    }
+
+    MethodInstrumenter(ClassNode owner, MethodNode method,
+                       PrecisionTransformer transformer, ClassHierarchy hierarchy) {
+        this.owner = owner;
+        this.method = method;
+        this.transformer = transformer;
+        this.info = transformer.info;
+        this.hierarchy = hierarchy;
+        this.insns = method.instructions;
+    }
+
+    /**
+     * Instrument the method.
+     * @return Whether the method was changed
+     */
+    boolean instrument() {
+        if (insns.size() == 0)
+            return false;
+        for (AbstractInsnNode insn = insns.getFirst(); insn != null; insn = insn.getNext()) {
+            // Subroutines (class files before Java 6) share their frames
+            // between callers; they are left alone
+            if (insn.getOpcode() == JSR || insn.getOpcode() == RET)
+                return false;
+        }
+        collectLocalTags();
+        collectCreationAnnotations();
+        resolveFields();
+        analyze();
+        return rewrite();
+    }
+
+    // Precision of values.
+
+    /**
+     * Tag of a type annotation, if it is an approximation annotation.
+     * Context locals get the precision of the object only at run time, so
+     * they count as precise here.
+     */
+    static int tag(String desc) {
+        switch (desc) {
+        case "Lenerj/lang/Approx;":
+            return 32;
+        case "Lenerj/lang/Approx0;":
+            return 0;
+        case "Lenerj/lang/Approx8;":
+            return 8;
+        case "Lenerj/lang/Approx16;":
+            return 16;
+        case "Lenerj/lang/Approx24;":
+            return 24;
+        default:
+            return PRECISE;
+        }
+    }
+
+    /**
+     * Where a type annotation applies: to a variable or created value
+     * itself, or to the elements of an array.
+     * @return Number of array dimensions descended, -1 if the annotation
+     * applies to something else (e.g. a type argument)
+     */
+    private static int pathDepth(TypePath path) {
+        if (path == null)
+            return 0;
+        for (int i = 0; i < path.getLength(); i++)
+            if (path.getStep(i) != TypePath.ARRAY_ELEMENT)
+                return -1;
+        return path.getLength();
+    }
+
+    /**
+     * Tag of a field from the class info.
+     */
+    private static int tag(FieldInfoContainer field) {
+        if (field == null || !ClassInfo.isApprox(field.annotation))
+            return PRECISE;
+        return ClassInfo.approximativeBits(field.annotation);
+    }
+
+    private static List<TypeAnnotationNode> concat(List<TypeAnnotationNode> a,
+                                                   List<TypeAnnotationNode> b) {
+        List<TypeAnnotationNode> all = new ArrayList<TypeAnnotationNode>();
+        if (a != null)
+            all.addAll(a);
+        if (b != null)
+            all.addAll(b);
+        return all;
+    }
+
+    private void collectLocalTags() {
+        // Formal parameters hold their value through the whole method
+        Type[] args = Type.getArgumentTypes(method.desc);
+        int[] slots = new int[args.length];
+        int slot = (method.access & ACC_STATIC) != 0 ? 0 : 1;
+        for (int i = 0; i < args.length; i++) {
+            slots[i] = slot;
+            slot += args[i].getSize();
+        }
+        int[] paramTags = new int[args.length];
+        int[] paramDepths = new int[args.length];
+        Arrays.fill(paramTags, PRECISE);
+        for (TypeAnnotationNode a : concat(method.visibleTypeAnnotations,
+                                           method.invisibleTypeAnnotations)) {
+            TypeReference ref = new TypeReference(a.typeRef);
+            if (ref.getSort() != TypeReference.METHOD_FORMAL_PARAMETER)
+                continue;
+            int i = ref.getFormalParameterIndex();
+            int depth = pathDepth(a.typePath);
+            if (i < args.length && tag(a.desc) != PRECISE && depth >= paramDepths[i]) {
+                paramTags[i] = tag(a.desc);
+                paramDepths[i] = depth;
+            }
+        }
+        for (int i = 0; i < args.length; i++)
+            if (paramTags[i] != PRECISE)
+                localTags.add(new LocalTag(slots[i], 0, insns.size(), paramTags[i], args[i]));
+
+        // Other locals over their ranges. javac starts the range after the
+        // store initializing the variable, so it is extended back to it
+        List<LocalVariableAnnotationNode> locals = new ArrayList<LocalVariableAnnotationNode>();
+        if (method.visibleLocalVariableAnnotations != null)
+            locals.addAll(method.visibleLocalVariableAnnotations);
+        if (method.invisibleLocalVariableAnnotations != null)
+            locals.addAll(method.invisibleLocalVariableAnnotations);
+        for (LocalVariableAnnotationNode a : locals) {
+            int tag = tag(a.desc);
+            if (tag == PRECISE || pathDepth(a.typePath) < 0)
+                continue;
+            for (int r = 0; r < a.index.size(); r++) {
+                int start = insns.indexOf(a.start.get(r));
+                AbstractInsnNode prev = a.start.get(r).getPrevious();
+                while (prev != null && prev.getOpcode() < 0)
+                    prev = prev.getPrevious();
+                if (prev instanceof VarInsnNode && ((VarInsnNode) prev).var == a.index.get(r))
+                    start = insns.indexOf(prev);
+                localTags.add(new LocalTag(a.index.get(r), start,
+                                           insns.indexOf(a.end.get(r)), tag,
+                                           declaredType(a.index.get(r), a.start.get(r))));
+            }
+        }
+    }
+
+    /**
+     * Declared type of a local variable starting at a label, from the local
+     * variable table.
+     */
+    private Type declaredType(int var, LabelNode start) {
+        if (method.localVariables != null)
+            for (LocalVariableNode local : method.localVariables)
+                if (local.index == var && local.start == start)
+                    return Type.getType(local.desc);
+        return null;
+    }
+
+    /**
+     * Tag of a local variable at an instruction.
+     */
+    private int localTag(int var, int at) {
+        int tag = PRECISE;
+        for (LocalTag local : localTags)
+            if (local.index == var && local.start <= at && at < local.end)
+                tag = Math.max(tag, local.tag);
+        return tag;
+    }
+
+    /**
+     * Type of an approximate local at a load, store or iinc instruction:
+     * the declared type, or else the type the instruction works on.
+     */
+    private Type localType(int var, int at, int op) {
+        for (LocalTag local : localTags)
+            if (local.index == var && local.start <= at && at < local.end
+                && local.type != null && local.type.getSort() <= Type.DOUBLE) // primitive
+                return local.type;
+        switch (op) {
+        case LLOAD: case LSTORE:
+            return Type.LONG_TYPE;
+        case FLOAD: case FSTORE:
+            return Type.FLOAT_TYPE;
+        case DLOAD: case DSTORE:
+            return Type.DOUBLE_TYPE;
+        default:
+            return Type.INT_TYPE;
+        }
+    }
+
+    /**
+     * Find the class info of every accessed field, looking in the
+     * superclasses of the class named by the instruction.
+     */
+    private void resolveFields() {
+        for (AbstractInsnNode insn = insns.getFirst(); insn != null; insn = insn.getNext()) {
+            if (!(insn instanceof FieldInsnNode))
+                continue;
+            FieldInsnNode f = (FieldInsnNode) insn;
+            FieldInfoContainer field = null;
+            for (String c = f.owner; c != null && field == null; c = hierarchy.superName(c)) {
+                if (transformer.isExcluded(c))
+                    break;
+                field = info.field(c, f.name);
+            }
+            fields.put(f, field);
+        }
+    }
+
+    // Tags of the operand stack.
+
+    /**
+     * Run the method on tags, merging the stacks where control flow joins,
+     * until the tags are stable. Tags only grow, so this terminates.
+     */
+    private void analyze() {
+        frames = new int[insns.size()][];
+        ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+        merge(0, new int[0], work);
+        for (TryCatchBlockNode tcb : method.tryCatchBlocks)
+            merge(insns.indexOf(tcb.handler), new int[]{PRECISE}, work);
+
+        while (!work.isEmpty()) {
+            int i = work.pop();
+            AbstractInsnNode insn = insns.get(i);
+            int[] out = execute(insn, i, frames[i]);
+            if (insn instanceof JumpInsnNode)
+                merge(insns.indexOf(((JumpInsnNode) insn).label), out, work);
+            if (insn instanceof TableSwitchInsnNode) {
+                TableSwitchInsnNode s = (TableSwitchInsnNode) insn;
+                merge(insns.indexOf(s.dflt), out, work);
+                for (LabelNode l : s.labels)
+                    merge(insns.indexOf(l), out, work);
+            }
+            if (insn instanceof LookupSwitchInsnNode) {
+                LookupSwitchInsnNode s = (LookupSwitchInsnNode) insn;
+                merge(insns.indexOf(s.dflt), out, work);
+                for (LabelNode l : s.labels)
+                    merge(insns.indexOf(l), out, work);
+            }
+            if (fallsThrough(insn) && i + 1 < insns.size())
+                merge(i + 1, out, work);
+        }
+    }
+
+    private static boolean fallsThrough(AbstractInsnNode insn) {
+        switch (insn.getOpcode()) {
+        case GOTO:
+        case TABLESWITCH:
+        case LOOKUPSWITCH:
+        case IRETURN:
+        case LRETURN:
+        case FRETURN:
+        case DRETURN:
+        case ARETURN:
+        case RETURN:
+        case ATHROW:
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    private void merge(int i, int[] stack, ArrayDeque<Integer> work) {
+        int[] old = frames[i];
+        if (old == null) {
+            frames[i] = stack.clone();
+            work.push(i);
+            return;
+        }
+        if (old.length != stack.length)
+            return; // not valid bytecode
+        boolean changed = false;
+        for (int w = 0; w < old.length; w++) {
+            if (stack[w] > old[w]) {
+                old[w] = stack[w];
+                changed = true;
+            }
+        }
+        if (changed)
+            work.push(i);
+    }
+
+    /**
+     * The operand stack, one tag per word.
+     */
+    private static class Stack {
+        int[] words;
+        int size;
+
+        Stack(int[] words) {
+            this.words = Arrays.copyOf(words, words.length + 4);
+            this.size = words.length;
+        }
+
+        /** Pop some words, returning the largest tag */
+        int pop(int n) {
+            int tag = PRECISE;
+            for (int i = 0; i < n; i++)
+                tag = Math.max(tag, words[--size]);
+            return tag;
+        }
+
+        void push(int tag, int n) {
+            for (int i = 0; i < n; i++) {
+                if (size == words.length)
+                    words = Arrays.copyOf(words, size * 2 + 4);
+                words[size++] = tag;
+            }
+        }
+
+        /** Tag of a word, counting from the top (0) */
+        int peek(int depth) {
+            return words[size - 1 - depth];
+        }
+
+        /** Duplicate n words and insert the copies below the top n+skip */
+        void dup(int n, int skip) {
+            int[] top = Arrays.copyOfRange(words, size - n - skip, size);
+            size -= n + skip;
+            for (int i = 0; i < n; i++)
+                push(top[skip + i], 1);
+            for (int t : top)
+                push(t, 1);
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(words, size);
+        }
+    }
+
+    private static int argumentWords(String desc) {
+        return (Type.getArgumentsAndReturnSizes(desc) >> 2) - 1;
+    }
+
+    private static int returnWords(String desc) {
+        return Type.getArgumentsAndReturnSizes(desc) & 3;
+    }
+
+    /**
+     * Tags of the operand stack after an instruction.
+     */
+    private int[] execute(AbstractInsnNode insn, int at, int[] in) {
+        Stack s = new Stack(in);
+        int op = insn.getOpcode();
+        int t;
+        switch (op) {
+        case ACONST_NULL: case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+        case ICONST_3: case ICONST_4: case ICONST_5: case FCONST_0: case FCONST_1:
+        case FCONST_2: case BIPUSH: case SIPUSH: case NEW:
+            s.push(PRECISE, 1);
+            break;
+        case LCONST_0: case LCONST_1: case DCONST_0: case DCONST_1:
+            s.push(PRECISE, 2);
+            break;
+        case LDC: {
+            Object cst = ((LdcInsnNode) insn).cst;
+            s.push(PRECISE, cst instanceof Long || cst instanceof Double ? 2 : 1);
+            break;
+        }
+        case ILOAD: case FLOAD: case ALOAD:
+            s.push(localTag(((VarInsnNode) insn).var, at), 1);
+            break;
+        case LLOAD: case DLOAD:
+            s.push(localTag(((VarInsnNode) insn).var, at), 2);
+            break;
+        case ISTORE: case FSTORE: case ASTORE:
+            s.pop(1);
+            break;
+        case LSTORE: case DSTORE:
+            s.pop(2);
+            break;
+        case IALOAD: case FALOAD: case AALOAD: case BALOAD: case CALOAD: case SALOAD:
+            s.pop(1);
+            s.push(s.pop(1), 1);
+            break;
+        case LALOAD: case DALOAD:
+            s.pop(1);
+            s.push(s.pop(1), 2);
+            break;
+        case IASTORE: case FASTORE: case AASTORE: case BASTORE: case CASTORE: case SASTORE:
+            s.pop(3);
+            break;
+        case LASTORE: case DASTORE:
+            s.pop(4);
+            break;
+        case POP: case MONITORENTER: case MONITOREXIT:
+        case IFEQ: case IFNE: case IFLT: case IFGE: case IFGT: case IFLE:
+        case IFNULL: case IFNONNULL: case TABLESWITCH: case LOOKUPSWITCH:
+            s.pop(1);
+            break;
+        case POP2: case IF_ICMPEQ: case IF_ICMPNE: case IF_ICMPLT: case IF_ICMPGE:
+        case IF_ICMPGT: case IF_ICMPLE: case IF_ACMPEQ: case IF_ACMPNE:
+            s.pop(2);
+            break;
+        case DUP:
+            s.dup(1, 0);
+            break;
+        case DUP_X1:
+            s.dup(1, 1);
+            break;
+        case DUP_X2:
+            s.dup(1, 2);
+            break;
+        case DUP2:
+            s.dup(2, 0);
+            break;
+        case DUP2_X1:
+            s.dup(2, 1);
+            break;
+        case DUP2_X2:
+            s.dup(2, 2);
+            break;
+        case SWAP: {
+            int a = s.pop(1);
+            int b = s.pop(1);
+            s.push(a, 1);
+            s.push(b, 1);
+            break;
+        }
+        case IADD: case ISUB: case IMUL: case IDIV: case IREM: case ISHL: case ISHR:
+        case IUSHR: case IAND: case IOR: case IXOR:
+        case FADD: case FSUB: case FMUL: case FDIV: case FREM:
+            s.push(s.pop(2), 1);
+            break;
+        case LADD: case LSUB: case LMUL: case LDIV: case LREM: case LAND: case LOR: case LXOR:
+        case DADD: case DSUB: case DMUL: case DDIV: case DREM:
+            s.push(s.pop(4), 2);
+            break;
+        case LSHL: case LSHR: case LUSHR:
+            s.push(s.pop(3), 2);
+            break;
+        case ARRAYLENGTH: case INSTANCEOF:
+            s.pop(1);
+            s.push(PRECISE, 1);
+            break;
+        case I2L: case I2D: case F2L: case F2D:
+            s.push(s.pop(1), 2);
+            break;
+        case L2I: case L2F: case D2I: case D2F:
+            s.push(s.pop(2), 1);
+            break;
+        case LCMP: case DCMPL: case DCMPG:
+            s.pop(4);
+            s.push(PRECISE, 1);
+            break;
+        case FCMPL: case FCMPG:
+            s.pop(2);
+            s.push(PRECISE, 1);
+            break;
+        case IRETURN: case FRETURN: case ARETURN: case ATHROW:
+            s.pop(1);
+            break;
+        case LRETURN: case DRETURN:
+            s.pop(2);
+            break;
+        case GETSTATIC: {
+            FieldInsnNode f = (FieldInsnNode) insn;
+            s.push(tag(fields.get(f)), Type.getType(f.desc).getSize());
+            break;
+        }
+        case PUTSTATIC:
+            s.pop(Type.getType(((FieldInsnNode) insn).desc).getSize());
+            break;
+        case GETFIELD: {
+            FieldInsnNode f = (FieldInsnNode) insn;
+            s.pop(1);
+            s.push(tag(fields.get(f)), Type.getType(f.desc).getSize());
+            break;
+        }
+        case PUTFIELD:
+            s.pop(Type.getType(((FieldInsnNode) insn).desc).getSize() + 1);
+            break;
+        case INVOKEVIRTUAL: case INVOKESPECIAL: case INVOKESTATIC: case INVOKEINTERFACE: {
+            MethodInsnNode m = (MethodInsnNode) insn;
+            s.pop(argumentWords(m.desc) + (op == INVOKESTATIC ? 0 : 1));
+            s.push(PRECISE, returnWords(m.desc));
+            break;
+        }
+        case INVOKEDYNAMIC: {
+            String desc = ((InvokeDynamicInsnNode) insn).desc;
+            s.pop(argumentWords(desc));
+            s.push(PRECISE, returnWords(desc));
+            break;
+        }
+        case NEWARRAY: case ANEWARRAY:
+            s.pop(1);
+            s.push(newArrayTag(insn), 1);
+            break;
+        case MULTIANEWARRAY: {
+            MultiANewArrayInsnNode m = (MultiANewArrayInsnNode) insn;
+            s.pop(m.dims);
+            s.push(newArrayTag(insn), 1);
+            break;
+        }
+        default:
+            // The stack is unchanged or changed in place (negation and
+            // conversions between types of the same size, checkcast, iinc),
+            // or the instruction is a label, line number or frame
+            break;
+        }
+        return s.toArray();
+    }
+
+    // Rewriting.
+
+    /**
+     * Whether `this` is initialized at an instruction: in constructors,
+     * not before the call to the superclass constructor.
+     */
+    private boolean thisReady(int at, int superCall) {
+        if ((method.access & ACC_STATIC) != 0)
+            return false;
+        return !"<init>".equals(method.name) || at > superCall;
+    }
+
+    /**
+     * Index of the call to this() or super() in a constructor, -1 if none.
+     */
+    private int superCall() {
+        if (!"<init>".equals(method.name))
+            return -1;
+        int pending = 0;
+        for (int i = 0; i < insns.size(); i++) {
+            AbstractInsnNode insn = insns.get(i);
+            if (insn.getOpcode() == NEW) {
+                pending++;
+            } else if (insn.getOpcode() == INVOKESPECIAL
+                       && "<init>".equals(((MethodInsnNode) insn).name)) {
+                if (pending == 0)
+                    return i;
+                pending--;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the annotations of every creation. javac gives an annotated
+     * array creation the offset of the first instruction of the expression,
+     * i.e. of the code computing its dimensions, so the annotations of other
+     * instructions belong to the next creation.
+     */
+    private void collectCreationAnnotations() {
+        List<TypeAnnotationNode> pending = new ArrayList<TypeAnnotationNode>();
+        for (AbstractInsnNode insn = insns.getFirst(); insn != null; insn = insn.getNext()) {
+            for (TypeAnnotationNode a : concat(insn.visibleTypeAnnotations,
+                                               insn.invisibleTypeAnnotations))
+                if (new TypeReference(a.typeRef).getSort() == TypeReference.NEW)
+                    pending.add(a);
+            switch (insn.getOpcode()) {
+            case NEW:
+            case NEWARRAY:
+            case ANEWARRAY:
+            case MULTIANEWARRAY:
+                if (!pending.isEmpty()) {
+                    creations.put(insn, pending);
+                    pending = new ArrayList<TypeAnnotationNode>();
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Precision tag of the annotation on a creation, applying to the
+     * created object or to the innermost elements of a created array.
+     */
+    private int creationTag(AbstractInsnNode insn, int depth) {
+        int tag = PRECISE;
+        List<TypeAnnotationNode> annotations = creations.get(insn);
+        if (annotations != null)
+            for (TypeAnnotationNode a : annotations)
+                if (pathDepth(a.typePath) == depth)
+                    tag = Math.max(tag, tag(a.desc));
+        return tag;
+    }
+
+    private boolean isContext(AbstractInsnNode insn, int depth) {
+        List<TypeAnnotationNode> annotations = creations.get(insn);
+        if (annotations != null)
+            for (TypeAnnotationNode a : annotations)
+                if ("Lenerj/lang/Context;".equals(a.desc) && pathDepth(a.typePath) == depth)
+                    return true;
+        return false;
+    }
+
+    /**
+     * Descriptor of the array created by an instruction.
+     */
+    private static String arrayDesc(AbstractInsnNode insn) {
+        switch (insn.getOpcode()) {
+        case NEWARRAY:
+            return "[" + "ZCFDBSIJ".charAt(((IntInsnNode) insn).operand - T_BOOLEAN);
+        case ANEWARRAY: {
+            String desc = ((TypeInsnNode) insn).desc;
+            return desc.startsWith("[") ? "[" + desc : "[L" + desc + ";";
+        }
+        default:
+            return ((MultiANewArrayInsnNode) insn).desc;
+        }
+    }
+
+    /**
+     * Tag of a created array: that of its innermost elements, which is the
+     * precision loads from the array get.
+     */
+    private int newArrayTag(AbstractInsnNode insn) {
+        String desc = arrayDesc(insn);
+        int depth = 0;
+        while (desc.charAt(depth) == '[')
+            depth++;
+        return creationTag(insn, depth);
+    }
+
+    private static AbstractInsnNode intConst(int value) {
+        if (value >= -1 && value <= 5)
+            return new InsnNode(ICONST_0 + value);
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+            return new IntInsnNode(BIPUSH, value);
+        if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+            return new IntInsnNode(SIPUSH, value);
+        return new LdcInsnNode(value);
+    }
+
+    private static AbstractInsnNode hook(String name, String desc) {
+        return new MethodInsnNode(INVOKESTATIC, HOOKS, name, desc, false);
+    }
+
+    /**
+     * Push whether something of some precision is approximate: Context
+     * follows the precision of `this`, if there is one.
+     */
+    private static void pushApprox(InsnList list, int tag, boolean context, boolean hasThis) {
+        if (tag != PRECISE) {
+            list.add(new InsnNode(ICONST_1));
+        } else if (context && hasThis) {
+            list.add(new VarInsnNode(ALOAD, 0));
+            list.add(hook("isApproximate", "(Ljava/lang/Object;)Z"));
+        } else {
+            list.add(new InsnNode(ICONST_0));
+        }
+    }
+
+    private static void pushCreator(InsnList list, boolean hasThis) {
+        if (hasThis)
+            list.add(new VarInsnNode(ALOAD, 0));
+        else
+            list.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Thread", "currentThread",
+                                        "()Ljava/lang/Thread;", false));
+    }
+
+    /**
+     * Name of the hook suffix and its value type descriptor for a type.
+     */
+    private static String kind(Type type) {
+        switch (type.getSort()) {
+        case Type.BOOLEAN:
+            return "Boolean";
+        case Type.BYTE:
+            return "Byte";
+        case Type.CHAR:
+            return "Char";
+        case Type.SHORT:
+            return "Short";
+        case Type.INT:
+            return "Int";
+        case Type.LONG:
+            return "Long";
+        case Type.FLOAT:
+            return "Float";
+        case Type.DOUBLE:
+            return "Double";
+        default:
+            return "Object";
+        }
+    }
+
+    private static String valueDesc(Type type) {
+        return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY
+            ? "Ljava/lang/Object;" : type.getDescriptor();
+    }
+
+    private static String arithmetic(int op) {
+        switch (op) {
+        case IADD: case LADD: case FADD: case DADD:
+            return "PLUS";
+        case ISUB: case LSUB: case FSUB: case DSUB:
+            return "MINUS";
+        case IMUL: case LMUL: case FMUL: case DMUL:
+            return "MULTIPLY";
+        case IDIV: case LDIV: case FDIV: case DDIV:
+            return "DIVIDE";
+        default:
+            return null;
+        }
+    }
+
+    private static InsnList binaryOp(String operator, Type type, int tag) {
+        InsnList list = new InsnList();
+        String t = type.getDescriptor();
+        list.add(new FieldInsnNode(GETSTATIC, OPERATOR, operator, OPERATOR_DESC));
+        list.add(new InsnNode(tag != PRECISE ? ICONST_1 : ICONST_0));
+        list.add(intConst(tag != PRECISE ? tag : 0));
+        list.add(hook("binary" + kind(type),
+                      "(" + t + t + OPERATOR_DESC + "ZI)" + t));
+        return list;
+    }
+
+    /**
+     * Register read or write of an approximate local, on the value on top
+     * of the stack.
+     * @param access "load" or "store"
+     */
+    private static InsnList localAccess(String access, Type type, int tag) {
+        InsnList list = new InsnList();
+        String t = type.getDescriptor();
+        list.add(intConst(tag));
+        list.add(hook(access + "Local" + kind(type), "(" + t + "I)" + t));
+        return list;
+    }
+
+    private static Type arithmeticType(int op) {
+        switch (op) {
+        case IADD: case ISUB: case IMUL: case IDIV:
+            return Type.INT_TYPE;
+        case LADD: case LSUB: case LMUL: case LDIV:
+            return Type.LONG_TYPE;
+        case FADD: case FSUB: case FMUL: case FDIV:
+            return Type.FLOAT_TYPE;
+        default:
+            return Type.DOUBLE_TYPE;
+        }
+    }
+
+    private static Type arrayElementType(int op) {
+        switch (op) {
+        case BALOAD: case BASTORE:
+            return Type.BYTE_TYPE;
+        case CALOAD: case CASTORE:
+            return Type.CHAR_TYPE;
+        case SALOAD: case SASTORE:
+            return Type.SHORT_TYPE;
+        case IALOAD: case IASTORE:
+            return Type.INT_TYPE;
+        case LALOAD: case LASTORE:
+            return Type.LONG_TYPE;
+        case FALOAD: case FASTORE:
+            return Type.FLOAT_TYPE;
+        case DALOAD: case DASTORE:
+            return Type.DOUBLE_TYPE;
+        default:
+            return null; // reference arrays
+        }
+    }
+
+    /**
+     * Whether objects of a class are laid out by the runtime.
+     */
+    private boolean isSimulated(String className) {
+        return info.contains(className) && !transformer.isExcluded(className)
+            && !"java/lang/Enum".equals(hierarchy.superName(className));
+    }
+
+    private boolean rewrite() {
+        int superCall = superCall();
+        boolean changed = false;
+        boolean ldcClass = (owner.version & 0xFFFF) >= V1_5;
+        AbstractInsnNode[] all = insns.toArray();
+        // NEW instructions waiting for their constructor call: the created
+        // type, or null if the creation isn't simulated, and the creator
+        ArrayDeque<Object[]> pendingNews = new ArrayDeque<Object[]>();
+
+        for (int i = 0; i < all.length; i++) {
+            AbstractInsnNode insn = all[i];
+            int[] frame = frames[i];
+            int op = insn.getOpcode();
+            boolean hasThis = thisReady(i, superCall);
+            InsnList list = new InsnList();
+
+            if (op == NEW) {
+                String type = ((TypeInsnNode) insn).desc;
+                AbstractInsnNode next = insn.getNext();
+                boolean simulated = frame != null && isSimulated(type)
+                    && next != null && next.getOpcode() == DUP;
+                pendingNews.push(new Object[]{simulated ? type : null, hasThis});
+                if (simulated) {
+                    int tag = creationTag(insn, 0);
+                    boolean context = isContext(insn, 0);
+                    int[] sizes = info.objectSizes(type, tag != PRECISE);
+                    pushCreator(list, hasThis);
+                    pushApprox(list, tag, context, hasThis);
+                    list.add(intConst(sizes[0]));
+                    list.add(intConst(sizes[1]));
+                    list.add(intConst(tag != PRECISE ? tag : 0));
+                    list.add(hook("beforeCreation", "(Ljava/lang/Object;ZIII)V"));
+                    insns.insertBefore(insn, list);
+                    changed = true;
+                }
+                continue;
+            }
+
+            if (op == INVOKESPECIAL && "<init>".equals(((MethodInsnNode) insn).name)) {
+                if (i == superCall) {
+                    // The translator enters the constructor right after the
+                    // call to super(); this() leaves that to the callee
+                    if (((MethodInsnNode) insn).owner.equals(owner.superName)
+                        && isSimulated(owner.name)) {
+                        list.add(new VarInsnNode(ALOAD, 0));
+                        list.add(hook("enterConstructor", "(Ljava/lang/Object;)V"));
+                        insns.insert(insn, list);
+                        changed = true;
+                    }
+                } else if (!pendingNews.isEmpty()) {
+                    Object[] creation = pendingNews.pop();
+                    if (creation[0] != null) {
+                        list.add(new InsnNode(DUP));
+                        pushCreator(list, (Boolean) creation[1]);
+                        list.add(hook("afterCreation", "(Ljava/lang/Object;Ljava/lang/Object;)V"));
+                        insns.insert(insn, list);
+                        changed = true;
+                    }
+                }
+                continue;
+            }
+
+            if (frame == null)
+                continue; // unreachable
+
+            if (insn instanceof FieldInsnNode) {
+                FieldInsnNode f = (FieldInsnNode) insn;
+                FieldInfoContainer field = fields.get(f);
+                boolean isStatic = op == GETSTATIC || op == PUTSTATIC;
+                // Fields of `this` can't be passed on before super(), static
+                // finals can't be set by reflection, and neither can the
+                // fields of records
+                if (field == null || (!hasThis && "<init>".equals(method.name))
+                    || (isStatic && (!ldcClass || (op == PUTSTATIC && field.isFinal)))
+                    || (op == PUTFIELD && field.isFinal
+                        && "java/lang/Record".equals(hierarchy.superName(f.owner))))
+                    continue;
+                int precision = ClassInfo.isApprox(field.annotation) ? AgentHooks.APPROX
+                    : field.annotation == AnnotationType.Context ? AgentHooks.CONTEXT
+                    : AgentHooks.PRECISE;
+                Type type = Type.getType(f.desc);
+                String value = valueDesc(type);
+                if (op == PUTSTATIC || op == GETSTATIC)
+                    list.add(new LdcInsnNode(Type.getObjectType(f.owner)));
+                list.add(new LdcInsnNode(f.name));
+                list.add(intConst(precision));
+                switch (op) {
+                case GETFIELD:
+                case GETSTATIC:
+                    list.add(hook("loadField" + kind(type),
+                                  "(Ljava/lang/Object;Ljava/lang/String;I)" + value));
+                    if (!value.equals(type.getDescriptor()) && !f.desc.equals("Ljava/lang/Object;"))
+                        list.add(new TypeInsnNode(CHECKCAST, type.getInternalName()));
+                    break;
+                case PUTFIELD:
+                    list.add(hook("storeField" + kind(type),
+                                  "(Ljava/lang/Object;" + value + "Ljava/lang/String;I)V"));
+                    break;
+                default:
+                    list.add(hook("storeStatic" + kind(type),
+                                  "(" + value + "Ljava/lang/Object;Ljava/lang/String;I)V"));
+                    break;
+                }
+                insns.insert(insn, list);
+                insns.remove(insn);
+                changed = true;
+                continue;
+            }
+
+            switch (op) {
+            case IALOAD: case LALOAD: case FALOAD: case DALOAD:
+            case BALOAD: case CALOAD: case SALOAD: {
+                Type type = arrayElementType(op);
+                String array = op == BALOAD ? "Ljava/lang/Object;" : "[" + type.getDescriptor();
+                list.add(new InsnNode(frame[frame.length - 2] != PRECISE ? ICONST_1 : ICONST_0));
+                list.add(hook("loadArray" + kind(type),
+                              "(" + array + "IZ)" + type.getDescriptor()));
+                break;
+            }
+            case IASTORE: case LASTORE: case FASTORE: case DASTORE:
+            case BASTORE: case CASTORE: case SASTORE: {
+                Type type = arrayElementType(op);
+                String array = op == BASTORE ? "Ljava/lang/Object;" : "[" + type.getDescriptor();
+                int arrayTag = frame[frame.length - 2 - type.getSize()];
+                list.add(new InsnNode(arrayTag != PRECISE ? ICONST_1 : ICONST_0));
+                list.add(hook("storeArray" + kind(type),
+                              "(" + array + "I" + type.getDescriptor() + "Z)V"));
+                break;
+            }
+            case NEWARRAY: case ANEWARRAY: case MULTIANEWARRAY: {
+                String desc = arrayDesc(insn);
+                int dims = op == MULTIANEWARRAY ? ((MultiANewArrayInsnNode) insn).dims : 1;
+                Type element = Type.getType(desc.substring(dims));
+                int tag = creationTag(insn, dims);
+                boolean context = isContext(insn, dims);
+                int size = element.getSort() == Type.ARRAY ? 0
+                    : element.getSort() == Type.OBJECT ? 8
+                    : ClassInfo.primitiveSize(element.getClassName());
+                boolean approxSize = element.getSort() != Type.OBJECT
+                    && (tag != PRECISE || context);
+                InsnList after = new InsnList();
+                after.add(intConst(dims));
+                pushApprox(after, tag, context, hasThis);
+                after.add(intConst(approxSize ? 0 : size));
+                after.add(intConst(approxSize ? size : 0));
+                after.add(intConst(tag != PRECISE ? tag : 0));
+                after.add(hook("newArray", "(Ljava/lang/Object;IZIII)Ljava/lang/Object;"));
+                after.add(new TypeInsnNode(CHECKCAST, desc));
+                insns.insert(insn, after);
+                changed = true;
+                continue;
+            }
+            case IADD: case ISUB: case IMUL: case IDIV:
+            case LADD: case LSUB: case LMUL: case LDIV:
+            case FADD: case FSUB: case FMUL: case FDIV:
+            case DADD: case DSUB: case DMUL: case DDIV: {
+                Type type = arithmeticType(op);
+                int n = type.getSize();
+                int tag = Math.max(frame[frame.length - 1], frame[frame.length - 1 - n]);
+                list.add(binaryOp(arithmetic(op), type, tag));
+                break;
+            }
+            case ILOAD: case LLOAD: case FLOAD: case DLOAD: {
+                int var = ((VarInsnNode) insn).var;
+                int tag = localTag(var, i);
+                if (tag == PRECISE)
+                    continue;
+                insns.insert(insn, localAccess("load", localType(var, i, op), tag));
+                changed = true;
+                continue;
+            }
+            case ISTORE: case LSTORE: case FSTORE: case DSTORE: {
+                int var = ((VarInsnNode) insn).var;
+                int tag = localTag(var, i);
+                if (tag == PRECISE)
+                    continue;
+                insns.insertBefore(insn, localAccess("store", localType(var, i, op), tag));
+                changed = true;
+                continue;
+            }
+            case IINC: {
+                IincInsnNode inc = (IincInsnNode) insn;
+                int tag = localTag(inc.var, i);
+                Type type = Type.INT_TYPE; // javac only increments ints
+                list.add(new VarInsnNode(ILOAD, inc.var));
+                if (tag != PRECISE)
+                    list.add(localAccess("load", type, tag));
+                list.add(intConst(inc.incr));
+                list.add(binaryOp("PLUS", Type.INT_TYPE, tag));
+                if (tag != PRECISE)
+                    list.add(localAccess("store", type, tag));
+                list.add(new VarInsnNode(ISTORE, inc.var));
+                break;
+            }
+            default:
+                continue;
+            }
+            insns.insert(insn, list);
+            insns.remove(insn);
+            changed = true;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,30 @@
+package enerj.agent;
+
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+
+/**
+ * Load-time alternative to compiling with the source translator: the
+ * program is compiled with the checker (which writes the class info) and
+ * any Java compiler, and instrumented by this agent when run with
+ * -javaagent:enerj-agent.jar[=classInfoFile].
+ */
+public class PrecisionAgent {
+    /**
+     * Class info file read when none is given, the runtime's default
+     */
+    public static final String DEFAULT_CLASS_INFO = "object_field_info.json";
+
+    public static void premain(String args, Instrumentation inst) {
+        String fileName = args == null || args.isEmpty() ? DEFAULT_CLASS_INFO : args;
+        ClassInfo info;
+        try {
+            info = ClassInfo.read(fileName);
+        } catch (IOException e) {
+            System.err.println("EnerJ agent: can't read class info: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        inst.addTransformer(new PrecisionTransformer(info));
+    }
+}
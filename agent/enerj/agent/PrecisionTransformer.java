@@ -0,0 +1,113 @@
+package enerj.agent;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * Instruments the classes of an EnerJ program as they are loaded: the
+ * classes the checker collected class info for, and any other class using
+ * the enerj.lang annotations.
+ */
+class PrecisionTransformer implements ClassFileTransformer {
+    /**
+     * Packages of the runtime, the agent and the JDK, which are never
+     * instrumented
+     */
+    static final String[] EXCLUDED = {
+        "enerj/", "java/", "javax/", "jdk/", "sun/", "com/sun/",
+        "org/json/", "plume/", "checkers/", "org/objectweb/asm/"
+    };
+
+    final ClassInfo info;
+    private final String[] excluded;
+
+    PrecisionTransformer(ClassInfo info) {
+        this(info, EXCLUDED);
+    }
+
+    /**
+     * @param info Class info
+     * @param excluded Prefixes of the classes left alone
+     */
+    PrecisionTransformer(ClassInfo info, String[] excluded) {
+        this.info = info;
+        this.excluded = excluded;
+    }
+
+    boolean isExcluded(String className) {
+        for (String prefix : excluded)
+            if (className.startsWith(prefix))
+                return true;
+        return false;
+    }
+
+    private static final byte[] ANNOTATIONS = "Lenerj/lang/".getBytes();
+
+    /**
+     * Whether a class file mentions the enerj.lang annotations, which only
+     * show up in its constant pool as descriptors.
+     */
+    private static boolean usesAnnotations(byte[] classFile) {
+        search:
+        for (int i = 0; i + ANNOTATIONS.length <= classFile.length; i++) {
+            for (int j = 0; j < ANNOTATIONS.length; j++)
+                if (classFile[i + j] != ANNOTATIONS[j])
+                    continue search;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className,
+                            Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain,
+                            byte[] classfileBuffer) {
+        // The runtime is on the boot class path, and so is everything the
+        // program can't be compiled against
+        if (loader == null || className == null || isExcluded(className))
+            return null;
+        try {
+            if (!info.contains(className) && !usesAnnotations(classfileBuffer))
+                return null;
+            return instrument(loader, classfileBuffer);
+        } catch (Throwable t) {
+            // An exception would be swallowed by the JVM, leaving the class
+            // uninstrumented without a word
+            System.err.println("EnerJ agent: can't instrument " + className + ": " + t);
+            return null;
+        }
+    }
+
+    /**
+     * Instrument a class.
+     * @param loader Loader of the class
+     * @param classFile The class file
+     * @return The instrumented class file, or null if nothing changed
+     */
+    byte[] instrument(ClassLoader loader, byte[] classFile) {
+        ClassReader reader = new ClassReader(classFile);
+        ClassNode node = new ClassNode();
+        reader.accept(node, ClassReader.SKIP_FRAMES);
+
+        ClassHierarchy hierarchy = new ClassHierarchy(loader);
+        boolean changed = false;
+        for (MethodNode method : node.methods)
+            changed |= new MethodInstrumenter(node, method, this, hierarchy).instrument();
+        if (!changed)
+            return null;
+
+        // Class files before Java 6 have no stack map frames
+        ClassWriter writer = hierarchy.writer(
+            (node.version & 0xFFFF) >= Opcodes.V1_6
+            ? ClassWriter.COMPUTE_FRAMES : ClassWriter.COMPUTE_MAXS);
+        node.accept(writer);
+        return writer.toByteArray();
+    }
+}
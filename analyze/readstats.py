@@ -41,6 +41,24 @@ def showstats(stats):
     print 'Footprint:'
     showstatblock(footprint, 'byte-ms')
 
+    sampling = stats.get('footprintSampling', 1)
+    if sampling > 1:
+        print '  (sampled 1 in %i allocations per site; standard errors:)' % \
+                    sampling
+        for name, (precise, approx) in sorted(stats['footprintError'].items()):
+            if name.endswith('-bytes'):
+                print '    %s: %i precise, %i approx byte-ms' % \
+                            (name.split('-')[0], precise, approx)
+
+    if 'livePeak' in stats:
+        peak = stats['livePeak']
+        print
+        print 'Peak live heap:'
+        print '  %i precise, %i approx bytes' % \
+                    (peak['preciseBytes'], peak['approxBytes'])
+        print '  %i precise, %i approx objects' % \
+                    (peak['preciseObjects'], peak['approxObjects'])
+
 if __name__ == '__main__':
     args = sys.argv[1:]
     if args:
@@ -0,0 +1,17 @@
+package enerj.rt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Placing new approximate arrays of increasing size in simulated memory.
+ */
+public class AllocationBenchmark extends RuntimeBenchmark {
+    @Param({"1024", "65536"})
+    public int length;
+
+    @Benchmark
+    public int[] newArray() {
+        return newApproxInts(length);
+    }
+}
@@ -0,0 +1,70 @@
+package enerj.rt;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import enerj.rt.PrecisionRuntime.ArithOperator;
+import enerj.rt.PrecisionRuntime.NumberKind;
+
+/**
+ * Binary operations of every NumberKind, approximate (with the ALU and FPU
+ * errors the runtime is configured for) and precise.
+ */
+public class ArithmeticBenchmark extends RuntimeBenchmark {
+    private static final int N_OPERANDS = 256; // Power of 2
+
+    @Param
+    public NumberKind kind;
+
+    @Param({"PLUS", "MULTIPLY"})
+    public ArithOperator op;
+
+    private Number[] lhs;
+    private Number[] rhs;
+    private int next;
+
+    @Override
+    protected void populate() {
+        Random random = new Random(42);
+        lhs = new Number[N_OPERANDS];
+        rhs = new Number[N_OPERANDS];
+        for (int i = 0; i < N_OPERANDS; i++) {
+            lhs[i] = operand(random);
+            rhs[i] = operand(random);
+        }
+    }
+
+    /**
+     * @return A nonzero operand of the benchmarked kind
+     */
+    private Number operand(Random random) {
+        switch (kind) {
+        case BYTE:
+            return Byte.valueOf((byte)(random.nextInt(Byte.MAX_VALUE) + 1));
+        case SHORT:
+            return Short.valueOf((short)(random.nextInt(Short.MAX_VALUE) + 1));
+        case LONG:
+            return Long.valueOf(random.nextLong() | 1);
+        case FLOAT:
+            return Float.valueOf(random.nextFloat() + 1);
+        case DOUBLE:
+            return Double.valueOf(random.nextDouble() + 1);
+        default:
+            return Integer.valueOf(random.nextInt() | 1);
+        }
+    }
+
+    @Benchmark
+    public Number approx() {
+        int i = next = (next + 1) & (N_OPERANDS - 1);
+        return rt.binaryOp(lhs[i], rhs[i], op, kind, true, 32);
+    }
+
+    @Benchmark
+    public Number precise() {
+        int i = next = (next + 1) & (N_OPERANDS - 1);
+        return rt.binaryOp(lhs[i], rhs[i], op, kind, false, 0);
+    }
+}
@@ -0,0 +1,14 @@
+package enerj.rt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Creating objects through beforeCreation, enterConstructor and
+ * afterCreation, which place their fields in simulated memory.
+ */
+public class ConstructionBenchmark extends RuntimeBenchmark {
+    @Benchmark
+    public Object newObject() {
+        return newPoint();
+    }
+}
@@ -0,0 +1,90 @@
+package enerj.rt;
+
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Bit error injection of a single value: register upsets and the error
+ * models of the memory levels, PCM drift included. Neither depends on the
+ * caches, so these run once per error rate instead of per cache
+ * configuration. The runtime's former bitError and bitErrorPCM paths are
+ * BitFlips.upset and the ErrorModels implementations now, so those are
+ * what is measured.
+ */
+@State(Scope.Thread)
+public class ErrorBenchmark {
+    private static final int N_VALUES = 256; // Power of 2
+    private static final long AGE = 60000; // ms since the value was written
+
+    @Param({"1000", "100000000"})
+    public long invProb;
+
+    private final RunInfo runInfo = new RunInfo();
+    private ErrorModel staticModel;
+    private ErrorModel decayModel;
+    private ErrorModel pcmModel;
+    private long[] values;
+    private int next;
+
+    /**
+     * Cells of a single value; cleared before every use, as if the value
+     * had just been written
+     */
+    private static final class Cells implements MemoryCell {
+        long flipped;
+
+        @Override
+        public boolean isFlipped(int pos) {
+            return (flipped & (1L << pos)) != 0;
+        }
+
+        @Override
+        public void setFlipped(int pos) {
+            flipped |= 1L << pos;
+        }
+    }
+
+    private final Cells cells = new Cells();
+
+    @Setup
+    public void setUp() {
+        staticModel = new ErrorModels.Static(invProb);
+        decayModel = new ErrorModels.Decay(invProb);
+        pcmModel = new ErrorModels.PCMDrift();
+        Random random = new Random(42);
+        values = new long[N_VALUES];
+        for (int i = 0; i < N_VALUES; i++)
+            values[i] = random.nextLong();
+    }
+
+    private long nextValue() {
+        next = (next + 1) & (N_VALUES - 1);
+        return values[next];
+    }
+
+    @Benchmark
+    public long registerUpset() {
+        return BitFlips.upset(runInfo, nextValue(), 32, invProb, 32);
+    }
+
+    @Benchmark
+    public long staticModel() {
+        return staticModel.apply(nextValue(), 32, 32, AGE, cells);
+    }
+
+    @Benchmark
+    public long decayModel() {
+        return decayModel.apply(nextValue(), 32, 32, AGE, cells);
+    }
+
+    @Benchmark
+    public long pcmDrift() {
+        cells.flipped = 0;
+        return pcmModel.apply(nextValue(), 64, 32, AGE, cells);
+    }
+}
@@ -0,0 +1,101 @@
+package enerj.rt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Array element and field accesses through the simulated memory hierarchy.
+ * The hit-heavy variants walk a working set that fits in any of the cache
+ * configurations; the miss-heavy variants stride through one far larger
+ * than the largest, so nearly every access fills a cache line.
+ */
+public class MemoryBenchmark extends RuntimeBenchmark {
+    private static final int HIT_ELEMENTS = 16;
+    private static final int MISS_ELEMENTS = 1 << 16; // Power of 2
+    private static final int HIT_OBJECTS = 4;
+    private static final int MISS_OBJECTS = 1 << 14; // Power of 2
+
+    /* Odd, so a walk covers the whole working set; larger than a cache line */
+    private static final int ELEMENT_STRIDE = 4099;
+    private static final int OBJECT_STRIDE = 1031;
+
+    private int[] hitArray;
+    private int[] missArray;
+    private Point[] hitPoints;
+    private Point[] missPoints;
+
+    private int hitIndex;
+    private int missIndex;
+    private int hitObject;
+    private int missObject;
+    private int value;
+
+    @Override
+    protected void populate() {
+        hitArray = newApproxInts(HIT_ELEMENTS);
+        missArray = newApproxInts(MISS_ELEMENTS);
+        hitPoints = new Point[HIT_OBJECTS];
+        for (int i = 0; i < hitPoints.length; i++)
+            hitPoints[i] = newPoint();
+        missPoints = new Point[MISS_OBJECTS];
+        for (int i = 0; i < missPoints.length; i++)
+            missPoints[i] = newPoint();
+    }
+
+    private int nextHitIndex() {
+        return hitIndex = (hitIndex + 1) & (HIT_ELEMENTS - 1);
+    }
+
+    private int nextMissIndex() {
+        return missIndex = (missIndex + ELEMENT_STRIDE) & (MISS_ELEMENTS - 1);
+    }
+
+    private Point nextHitPoint() {
+        hitObject = (hitObject + 1) & (HIT_OBJECTS - 1);
+        return hitPoints[hitObject];
+    }
+
+    private Point nextMissPoint() {
+        missObject = (missObject + OBJECT_STRIDE) & (MISS_OBJECTS - 1);
+        return missPoints[missObject];
+    }
+
+    @Benchmark
+    public Integer loadArrayHit() {
+        return rt.<Integer>loadArray(hitArray, nextHitIndex(), true);
+    }
+
+    @Benchmark
+    public Integer loadArrayMiss() {
+        return rt.<Integer>loadArray(missArray, nextMissIndex(), true);
+    }
+
+    @Benchmark
+    public Integer storeArrayHit() {
+        return rt.storeArray(hitArray, nextHitIndex(), true, Integer.valueOf(value++));
+    }
+
+    @Benchmark
+    public Integer storeArrayMiss() {
+        return rt.storeArray(missArray, nextMissIndex(), true, Integer.valueOf(value++));
+    }
+
+    @Benchmark
+    public Integer loadFieldHit() {
+        return rt.<Integer>loadField(nextHitPoint(), "x", true);
+    }
+
+    @Benchmark
+    public Integer loadFieldMiss() {
+        return rt.<Integer>loadField(nextMissPoint(), "x", true);
+    }
+
+    @Benchmark
+    public Integer storeFieldHit() {
+        return rt.storeField(nextHitPoint(), "x", true, Integer.valueOf(value++));
+    }
+
+    @Benchmark
+    public Integer storeFieldMiss() {
+        return rt.storeField(nextMissPoint(), "x", true, Integer.valueOf(value++));
+    }
+}
@@ -0,0 +1,116 @@
+package enerj.rt;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.json.JSONException;
+import org.json.JSONWriter;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Base of the benchmarks that drive a PrecisionRuntimeTolop directly. Every
+ * benchmark runs once per cache configuration, given as
+ * "CacheSize:CacheLineSize:CacheAssociativity" (the units of the system
+ * properties with those names). Other settings of the runtime are read from
+ * system properties as usual; pass them with -jvmArgsAppend.
+ *
+ * The runtime needs class info for the objects it places in memory, so the
+ * setup writes it for Point to a temporary file.
+ */
+@State(Scope.Benchmark)
+public abstract class RuntimeBenchmark {
+    @Param({"2048:16:4", "512:16:1", "8192:16:8", "32768:16:4"})
+    public String cache;
+
+    PrecisionRuntimeTolop rt;
+
+    /* Sizes in bytes as given by the instrumentation */
+    static final int POINT_PRECISE_SIZE = 8;
+    static final int POINT_APPROX_SIZE = 8;
+
+    /**
+     * An object as created by instrumented code: two approximate ints and a
+     * precise double.
+     */
+    static final class Point {
+        int x;
+        int y;
+        double weight;
+
+        Point(PrecisionRuntimeTolop rt) {
+            rt.enterConstructor(this); // Inserted first in every constructor
+        }
+    }
+
+    @Setup
+    public final void setUpRuntime() throws IOException, JSONException {
+        String[] config = cache.split(":");
+        if (config.length != 3) {
+            System.err.println("Cache configuration must be size:linesize:associativity");
+            System.exit(1);
+        }
+        rt = new PrecisionRuntimeTolop(Integer.parseInt(config[0]),
+                                       Integer.parseInt(config[1]),
+                                       Integer.parseInt(config[2]),
+                                       writeClassInfo().getPath(),
+                                       null, null);
+        populate();
+    }
+
+    /**
+     * Create the data of a benchmark, once the runtime is set up.
+     */
+    protected void populate() {
+    }
+
+    /**
+     * Create a Point the way instrumented code does.
+     */
+    Point newPoint() {
+        return rt.wrappedNew(rt.beforeCreation(this, false, POINT_PRECISE_SIZE,
+                                               POINT_APPROX_SIZE, 32),
+                             new Point(rt), this);
+    }
+
+    /**
+     * Create an approximate int array the way instrumented code does.
+     */
+    int[] newApproxInts(int length) {
+        return rt.newArray(new int[length], 1, true, 0, 4, 32);
+    }
+
+    private static File writeClassInfo() throws IOException, JSONException {
+        File dir = Files.createTempDirectory("enerj-bench").toFile();
+        File file = new File(dir, PrecisionRuntimeTolop.JSON_INPUT_FILE_NAME);
+        dir.deleteOnExit();
+        file.deleteOnExit();
+
+        FileWriter out = new FileWriter(file);
+        try {
+            JSONWriter json = new JSONWriter(out);
+            json.object().key(Point.class.getName().replace('$', '.')).object();
+            field(json, "x", "Approx", "int");
+            field(json, "y", "Approx", "int");
+            field(json, "weight", "Precise", "double");
+            json.endObject().endObject();
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void field(JSONWriter json, String name, String annotation, String type)
+        throws JSONException {
+        json.key(name).object()
+            .key("annotation").value(annotation)
+            .key("static").value(false)
+            .key("final").value(false)
+            .key("type").value(type)
+            .endObject();
+    }
+}
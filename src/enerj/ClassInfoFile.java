@@ -0,0 +1,280 @@
+package enerj;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compact binary version of the class info file written by the checker.
+ * The file starts with an index of all class names, so the runtime can map
+ * it into memory at startup and only decode the classes it actually
+ * instantiates.
+ *
+ * Layout (big endian):
+ *   int MAGIC, int VERSION, int number of classes
+ *   index, sorted by class name: name, int offset of class data, byte flags
+ *   class data: int number of fields, then per field:
+ *     name, byte annotation ordinal, byte flags, type name
+ * Names are stored as an unsigned short length followed by UTF-8 bytes.
+ */
+public class ClassInfoFile {
+    public static final String FILE_NAME = "object_field_info.bin";
+
+    private static final int MAGIC = 0x454a4349; // "EJCI"
+    private static final int VERSION = 1;
+
+    // Index flags
+    private static final int HAS_STATIC = 1;
+
+    // Field flags
+    private static final int IS_STATIC = 1;
+    private static final int IS_FINAL = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final AnnotationType[] ANNOTATIONS = AnnotationType.values();
+
+    private final ByteBuffer data;
+    private final Map<String, Integer> offsets;
+    private final List<String> staticClasses;
+
+    private ClassInfoFile(ByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.getInt() != MAGIC || data.getInt() != VERSION)
+            throw new IOException("Not a class info file of version " + VERSION);
+        int nClasses = data.getInt();
+        offsets = new HashMap<String, Integer>(nClasses * 2);
+        staticClasses = new ArrayList<String>();
+        for (int i = 0; i < nClasses; i++) {
+            String name = readString(data);
+            offsets.put(name, data.getInt());
+            if ((data.get() & HAS_STATIC) != 0)
+                staticClasses.add(name);
+        }
+    }
+
+    /**
+     * Map a class info file into memory. Only the index is read.
+     * @param fileName Name of the binary class info file
+     * @return The opened class info file
+     */
+    public static ClassInfoFile open(String fileName) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ClassInfoFile(buf);
+        } finally {
+            raf.close(); // The mapping stays valid after closing
+        }
+    }
+
+    public boolean contains(String className) {
+        return offsets.containsKey(className);
+    }
+
+    public int size() {
+        return offsets.size();
+    }
+
+    /**
+     * @return Names of all classes that declare at least one static field
+     */
+    public List<String> classesWithStaticFields() {
+        return Collections.unmodifiableList(staticClasses);
+    }
+
+    /**
+     * Decode the fields of one class.
+     * @param className Fully qualified (source) name of the class
+     * @return Map from field name to field info, or null if the class is unknown
+     */
+    public HashMap<String, FieldInfoContainer> get(String className) {
+        Integer offset = offsets.get(className);
+        if (offset == null)
+            return null;
+        ByteBuffer buf = data.duplicate(); // Private position, safe for concurrent readers
+        buf.position(offset);
+        int nFields = buf.getInt();
+        HashMap<String, FieldInfoContainer> fields =
+            new HashMap<String, FieldInfoContainer>(nFields * 2);
+        for (int i = 0; i < nFields; i++) {
+            String fieldName = readString(buf);
+            FieldInfoContainer fic = new FieldInfoContainer();
+            fic.annotation = ANNOTATIONS[buf.get()];
+            int flags = buf.get();
+            fic.isStatic = (flags & IS_STATIC) != 0;
+            fic.isFinal = (flags & IS_FINAL) != 0;
+            fic.fieldType = readString(buf);
+            fields.put(fieldName, fic);
+        }
+        return fields;
+    }
+
+    /**
+     * Write a complete class info file.
+     * @param fileName Name of the file to (over)write
+     * @param classes Map from class name to its fields
+     */
+    public static void write(String fileName,
+                             Map<String, ? extends Map<String, FieldInfoContainer>> classes)
+        throws IOException {
+        List<String> names = new ArrayList<String>(classes.keySet());
+        Collections.sort(names);
+
+        // Size of the header and index decides where class data starts
+        int offset = 3 * 4;
+        for (String name : names)
+            offset += 2 + name.getBytes(UTF8).length + 4 + 1;
+
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(fileName)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.size());
+            for (String name : names) {
+                Map<String, FieldInfoContainer> fields = classes.get(name);
+                boolean hasStatic = false;
+                int size = 4;
+                for (Map.Entry<String, FieldInfoContainer> entry : fields.entrySet()) {
+                    hasStatic |= entry.getValue().isStatic;
+                    size += 2 + entry.getKey().getBytes(UTF8).length + 1 + 1
+                        + 2 + entry.getValue().fieldType.getBytes(UTF8).length;
+                }
+                writeString(out, name);
+                out.writeInt(offset);
+                out.writeByte(hasStatic ? HAS_STATIC : 0);
+                offset += size;
+            }
+            for (String name : names) {
+                Map<String, FieldInfoContainer> fields = classes.get(name);
+                out.writeInt(fields.size());
+                for (Map.Entry<String, FieldInfoContainer> entry : fields.entrySet()) {
+                    FieldInfoContainer fic = entry.getValue();
+                    writeString(out, entry.getKey());
+                    out.writeByte(fic.annotation.ordinal());
+                    out.writeByte((fic.isStatic ? IS_STATIC : 0) | (fic.isFinal ? IS_FINAL : 0));
+                    writeString(out, fic.fieldType);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Merge classes into a json class info file, and rebuild the binary
+     * file from the merged json data so both files always agree. Classes
+     * that were written by earlier (incremental) builds and are not given
+     * again are kept as they are; given classes are replaced. Each file is
+     * written to a temporary file first, so that a compiler that is killed
+     * half-way through never leaves a truncated file behind.
+     * @param jsonFileName Name of the json file, which may not exist yet
+     * @param binaryFileName Name of the binary file to (over)write
+     * @param classes Map from class name to its fields
+     */
+    public static void merge(String jsonFileName, String binaryFileName,
+                             Map<String, ? extends Map<String, FieldInfoContainer>> classes)
+        throws IOException {
+        try {
+            // Import previously written file
+            File f = new File(jsonFileName);
+            StringBuffer sb = new StringBuffer();
+            if (f.exists()) {
+                BufferedReader br = new BufferedReader(new FileReader(f));
+                for(String line; (line = br.readLine()) != null; ) {
+                    sb.append(line);
+                }
+                br.close();
+            }
+            JSONObject jsonObject = sb.toString().isEmpty() ? new JSONObject() :
+                new JSONObject(sb.toString());
+
+            for (Map.Entry<String, ? extends Map<String, FieldInfoContainer>> c : classes.entrySet()) {
+                JSONObject jsonClass = new JSONObject();
+                for (Map.Entry<String, FieldInfoContainer> entry : c.getValue().entrySet()) {
+                    FieldInfoContainer fic = entry.getValue();
+                    JSONObject jsonField = new JSONObject();
+                    jsonField.put("annotation", fic.annotation);
+                    jsonField.put("type", fic.fieldType);
+                    jsonField.put("static", fic.isStatic);
+                    jsonField.put("final", fic.isFinal);
+                    jsonClass.put(entry.getKey(), jsonField);
+                }
+                jsonObject.put(c.getKey(), jsonClass);
+            }
+
+            File tmp = new File(jsonFileName + ".tmp");
+            FileWriter fstream = new FileWriter(tmp);
+            try {
+                fstream.write(jsonObject.toString());
+                fstream.write("\n");
+            } finally {
+                fstream.close();
+            }
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            Map<String, Map<String, FieldInfoContainer>> allClasses =
+                new HashMap<String, Map<String, FieldInfoContainer>>();
+            for (Iterator<?> itClasses = jsonObject.keys(); itClasses.hasNext();) {
+                String objectName = (String)itClasses.next();
+                JSONObject jsonClass = jsonObject.getJSONObject(objectName);
+                Map<String, FieldInfoContainer> fields = new HashMap<String, FieldInfoContainer>();
+                for (Iterator<?> itFields = jsonClass.keys(); itFields.hasNext();) {
+                    String fieldName = (String)itFields.next();
+                    JSONObject jsonField = jsonClass.getJSONObject(fieldName);
+                    FieldInfoContainer fic = new FieldInfoContainer();
+                    fic.annotation = AnnotationType.valueOf(jsonField.getString("annotation"));
+                    fic.fieldType = jsonField.getString("type");
+                    fic.isStatic = jsonField.getBoolean("static");
+                    fic.isFinal = jsonField.getBoolean("final");
+                    fields.put(fieldName, fic);
+                }
+                allClasses.put(objectName, fields);
+            }
+            tmp = new File(binaryFileName + ".tmp");
+            write(tmp.getPath(), allClasses);
+            Files.move(tmp.toPath(), new File(binaryFileName).toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (JSONException e) {
+            throw new IOException(jsonFileName + ": " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(jsonFileName + ": " + e.getMessage()); // Unknown annotation
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -47,8 +47,12 @@ import java.io.File;
 
 import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.util.TreePath;
+import com.sun.tools.javac.comp.Todo;
+import com.sun.tools.javac.processing.JavacProcessingEnvironment;
 import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.util.Context;
 
+import enerj.instrument.ClassInfoTranslator;
 import enerj.instrument.MethodBindingTranslator;
 import enerj.instrument.RuntimePrecisionTranslator;
 import enerj.instrument.SimulationTranslator;
@@ -62,7 +66,7 @@ import enerj.rt.Reference;
 @TypeQualifiers({Approx.class, Approx0.class, Approx8.class, Approx16.class, Approx24.class, Precise.class, Top.class, Context.class})
 @SupportedLintOptions( { PrecisionChecker.STRELAXED,
 	PrecisionChecker.MBSTATIC, PrecisionChecker.MBDYNAMIC,
-	PrecisionChecker.SIMULATION } )
+	PrecisionChecker.SIMULATION, PrecisionChecker.CLASSINFO } )
 /* A note about how to pass these options:
  * Do not use:
  *   -Alint=strelaxed -Alint=mbdynamic
@@ -99,6 +103,10 @@ public class PrecisionChecker extends InstrumentingChecker {
 	public static final boolean SIMULATION_DEFAULT = false;
 	public static final String SIMULATION = "simulation";
 
+	// Whether to only write the class info, for the load-time agent
+	public static final boolean CLASSINFO_DEFAULT = false;
+	public static final String CLASSINFO = "classinfo";
+
 
 	// The method name post-fixes that are used for approximate/precise methods
 	public static final String MB_APPROX_POST = "_APPROX";
@@ -165,12 +173,22 @@ public class PrecisionChecker extends InstrumentingChecker {
 				tree.accept(new SimulationTranslator(this, processingEnv, p));
                 // tree.accept(new ConstructorTranslator(this, processingEnv, p));
 			}
+		} else if (getLintOption(PrecisionChecker.CLASSINFO, PrecisionChecker.CLASSINFO_DEFAULT)) {
+			// the agent does the instrumentation when the program is loaded
+			tree.accept(new ClassInfoTranslator(this, processingEnv, p));
 		}
 
         if (debug()) {
             System.out.println("Translated to:");
             System.out.println(tree);
         }
+
+        // Classes are analyzed in the order of the compiler's to do queue;
+        // once it is empty, this was the last class and the class info is
+        // complete, so it's written now rather than when the compiler exits
+        Context context = ((JavacProcessingEnvironment) processingEnv).getContext();
+        if (Todo.instance(context).isEmpty())
+            flushClassInfo();
     }
 
     @Override
@@ -461,61 +479,47 @@ public class PrecisionChecker extends InstrumentingChecker {
     }
 
     /**
-     * Write the collected object, its fields, etc to the json file.
+     * Remember that the collected object has to be written to the json file.
+     * The file is written once, after the last class has been analyzed (see
+     * typeProcess), instead of once per collected class (which re-read and
+     * re-wrote the whole file every time). A shutdown hook writes whatever
+     * is still pending if the compiler exits before that, e.g. because the
+     * last class of the queue had already been analyzed out of order.
      * @param objectName Name of the collected object about to be written
      */
-    private static void writeToJSONFile(String objectName) {
-        // Import previously written file
-        Map<String, FieldInfoContainer> fields = classMap.get(objectName);
-        JSONObject jsonObject = null;
-        try {
-            File f = new File(JSON_OUTPUT_FILE_NAME); // Create new file if not exists
-            if(!f.exists())
-                f.createNewFile();
-
-            BufferedReader br = new BufferedReader(new FileReader(JSON_OUTPUT_FILE_NAME));
-            
-            StringBuffer sb = new StringBuffer();
-            for(String line; (line = br.readLine()) != null; ) {
-                sb.append(line);
-            }
-            jsonObject = sb.toString().isEmpty() ? new JSONObject() : // Imported JSON data, to be appended to 
-                new JSONObject(sb.toString());
-                
-            JSONObject newJSONField, newJsonClass = new JSONObject();
-            FieldInfoContainer fic;
-            for (Map.Entry<String, FieldInfoContainer> entry : fields.entrySet()) {
-                fic = entry.getValue();
-                newJSONField = new JSONObject();
-                newJSONField.put("annotation", fic.annotation);
-                newJSONField.put("type", fic.fieldType);
-                newJSONField.put("static", fic.isStatic);
-                newJSONField.put("final", fic.isFinal);
-                newJsonClass.put(entry.getKey(), newJSONField);
-            }
-            jsonObject.put(objectName, newJsonClass);
-
-            br.close();
-        }
-        catch (IOException e) {
-            System.err.println("Error while opening file!");
-            e.printStackTrace();
-            System.exit(1); // No idea to continue
-        }
-        catch (JSONException e) {
-            System.err.println("Error when writing stats file!");
-            e.printStackTrace();
-            System.exit(1); // No idea to continue
+    private static synchronized void writeToJSONFile(String objectName) {
+        if (!flushOnExit) {
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    flushClassInfo();
+                }
+            });
+            flushOnExit = true;
         }
-        
+        pendingClasses.add(objectName);
+    }
+
+    /**
+     * Merge all classes collected during this compilation into the json file.
+     * Classes that were written by earlier (incremental) builds and were not
+     * seen again are kept as they are, recompiled classes are replaced.
+     */
+    public static synchronized void flushClassInfo() {
+        if (pendingClasses.isEmpty())
+            return;
+
+        Map<String, Map<String, FieldInfoContainer>> classes =
+            new HashMap<String, Map<String, FieldInfoContainer>>();
+        for (String objectName : pendingClasses)
+            classes.put(objectName, classMap.get(objectName));
         try {
-            FileWriter fstream = new FileWriter(JSON_OUTPUT_FILE_NAME);
-            fstream.write(jsonObject.toString());
-            fstream.write("\n");
-            fstream.close();
+            ClassInfoFile.merge(JSON_OUTPUT_FILE_NAME, ClassInfoFile.FILE_NAME, classes);
         } catch (IOException e) {
-            System.err.println("Error when writing stats file!");
+            System.err.println("Error when writing class info file!");
+            e.printStackTrace();
+            return;
         }
+        pendingClasses.clear();
     }
 
     private static void putIntoClassInfoMap(List<? extends Element> inheritedMemberList,
@@ -637,7 +641,7 @@ public class PrecisionChecker extends InstrumentingChecker {
             
             // Put the info into the "global" info map        
             classMap.put(inheritedMemberNameList.x, classInfo);
-            // Write the gathered data to a JSON output file
+            // Queue the gathered data for the JSON output file
             writeToJSONFile(inheritedMemberNameList.x);
         }
 
@@ -710,4 +714,14 @@ public class PrecisionChecker extends InstrumentingChecker {
     // (This could maybe have be done with a simple set, but I may be find a
     // less nasty way of gatherign this data in the future - this map may become
     // handy if so
+
+    /**
+     * Classes in classMap that have not been written to the json file yet
+     */
+    private static final Set<String> pendingClasses = new HashSet<String>();
+
+    /**
+     * Whether the shutdown hook writing pendingClasses is registered
+     */
+    private static boolean flushOnExit = false;
 }
@@ -0,0 +1,41 @@
+package enerj.instrument;
+
+import javax.annotation.processing.ProcessingEnvironment;
+
+import checkers.runtime.instrument.HelpfulTreeTranslator;
+
+import com.sun.source.util.TreePath;
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.JCTree.JCNewClass;
+
+import enerj.PrecisionChecker;
+
+// Collects the class info of each instantiated class, like
+// RuntimePrecisionTranslator does, without changing the tree. The load-time
+// agent instruments the compiled classes from that class info instead.
+public class ClassInfoTranslator extends HelpfulTreeTranslator<PrecisionChecker> {
+    public ClassInfoTranslator(PrecisionChecker checker,
+                               ProcessingEnvironment env,
+                               TreePath p) {
+        super(checker, env, p);
+    }
+
+    @Override
+    public void visitNewClass(JCNewClass tree) {
+        super.visitNewClass(tree);
+
+        if (tree.clazz instanceof JCTree.JCIdent) {
+            Symbol sym = ((JCTree.JCIdent)tree.clazz).sym;
+            if ((sym.flags() & Flags.ENUM) != 0) {
+                // Instantiating an enum; not simulated.
+                return;
+            }
+        }
+
+        PrecisionChecker.objectSizes(
+            atypeFactory.getAnnotatedType(tree), atypeFactory, typeutils, checker
+        );
+    }
+}
@@ -1,13 +1,13 @@
 package enerj.rt;
 
-//import java.lang.ref.WeakReference;
+import java.lang.ref.WeakReference;
 
 /**
  * Information related to specific data blocks and their time of operation
  * TODO #general: merge Approx- with AddressInformation to get rid of 'approx'
  * field in favor of putting approximation bit in address instead.
  */
-class AddressInformation extends ApproximationInformation {
+class AddressInformation extends ApproximationInformation implements MemoryCell {
     
     /**
      * Address in simulated address space.
@@ -19,12 +19,11 @@ class AddressInformation extends ApproximationInformation {
      */
     private long timeStamp;
 
-    // If weird NullPointerException exceptions turn up, switch to Object.
     /**
-     * May be an array- or some class object.
+     * May be an array- or some class object. Only weakly referenced, so that
+     * the simulator doesn't keep the objects it tracks alive.
      */
-    //private WeakReference<Object> obj = null;
-    private Object obj = null;
+    private WeakReference<Object> obj = null;
 
     /**
      * If obj is a class object, field name is != null.
@@ -127,40 +126,57 @@ class AddressInformation extends ApproximationInformation {
         return this.timeStamp;
     }
 
-    // If weird NullPointerException exceptions turn up, switch to Object.
     /**
      * Save the array object + the index to the array value.
-     * @param obj The array object
+     * @param obj Weak reference to the array object
      * @param index Index in the array
      */
-    public void setType(Object obj, int index) {
+    public void setType(WeakReference<Object> obj, int index) {
         this.obj = obj;
-        //this.obj = new WeakReference(obj);
         this.index = index;
     }
 
-    // If weird NullPointerException exceptions turn up, switch to Object.
     /**
      * Save the class object + the name of the field.
-     * @param obj The array object
+     * @param obj Weak reference to the class object
      * @param fieldname Name of the field in the class
      */
-    public void setType(Object obj, String fieldname) {
+    public void setType(WeakReference<Object> obj, String fieldname) {
         this.obj = obj;
-        //this.obj = new WeakReference(obj);
         this.fieldname = fieldname;
     }
 
-    // If weird NullPointerException exceptions turn up, switch to Object.
+    /**
+     * @return The array or class object, or null if it has been collected
+     * (or this is a static field)
+     */
+    public Object getObject() {
+        return obj == null ? null : obj.get();
+    }
+
+    /**
+     * @return Name of the field, or null if this is an array element
+     */
+    public String getFieldname() {
+        return fieldname;
+    }
+
+    /**
+     * @return Index in the array; only valid if this is an array element
+     */
+    public int getIndex() {
+        return index == null ? -1 : index.intValue();
+    }
+
     /**
      * Get object together with field name OR index, depending on the type.
+     * The object is null if it has been collected.
      */
     public Object[] getObjectAndSpecification() {
+        Object o = obj == null ? null : obj.get();
         return fieldname == null
-            ? new Object[]{obj, index}
-	: new Object[]{obj, fieldname};
-	//? new Object[]{obj.get(), index}
-	//: new Object[]{obj.get(), fieldname};
+            ? new Object[]{o, index}
+	: new Object[]{o, fieldname};
     }
 
     /**
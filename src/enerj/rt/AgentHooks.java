@@ -0,0 +1,361 @@
+package enerj.rt;
+
+import enerj.rt.PrecisionRuntime.ArithOperator;
+import enerj.rt.PrecisionRuntime.NumberKind;
+
+/**
+ * Entry points for classes instrumented at load time by the EnerJ agent
+ * (enerj.agent.PrecisionAgent). Bytecode works on unboxed values with a
+ * fixed stack layout, so every runtime operation gets one static method per
+ * value type here, taking its operands in the order they are on the stack,
+ * and forwarding to PrecisionRuntimeRoot.impl like the source translator's
+ * calls do.
+ */
+public final class AgentHooks {
+    /** Precision of a field access: precise */
+    public static final int PRECISE = 0;
+    /** Precision of a field access: approximate */
+    public static final int APPROX = 1;
+    /** Precision of a field access: that of the object holding the field */
+    public static final int CONTEXT = 2;
+
+    private AgentHooks() {
+    }
+
+    /**
+     * Resolve the precision of a field access.
+     * @param obj The object holding the field, or its Class for static fields
+     * @param precision PRECISE, APPROX or CONTEXT
+     * @return Whether the access is approximate
+     */
+    private static boolean approx(Object obj, int precision) {
+        switch (precision) {
+        case APPROX:
+            return true;
+        case CONTEXT:
+            return !(obj instanceof Class) && PrecisionRuntimeRoot.impl.isApproximate(obj);
+        default:
+            return false;
+        }
+    }
+
+    // Object creation.
+
+    public static void beforeCreation(Object creator, boolean approx,
+                                      int preciseSize, int approxSize,
+                                      int approximativeBits) {
+        PrecisionRuntimeRoot.impl.beforeCreation(creator, approx, preciseSize,
+                                                 approxSize, approximativeBits);
+    }
+
+    public static void enterConstructor(Object created) {
+        PrecisionRuntimeRoot.impl.enterConstructor(created);
+    }
+
+    public static void afterCreation(Object created, Object creator) {
+        PrecisionRuntimeRoot.impl.afterCreation(creator, created);
+    }
+
+    public static Object newArray(Object created, int dims, boolean approx,
+                                  int preciseElSize, int approxElSize,
+                                  int approximativeBits) {
+        return PrecisionRuntimeRoot.impl.newArray(created, dims, approx, preciseElSize,
+                                                  approxElSize, approximativeBits);
+    }
+
+    public static boolean isApproximate(Object obj) {
+        return PrecisionRuntimeRoot.impl.isApproximate(obj);
+    }
+
+    // Arithmetic. Byte, short and char operations are int operations in
+    // bytecode.
+
+    public static int binaryInt(int lhs, int rhs, ArithOperator op,
+                                boolean approx, int approximativeBits) {
+        return PrecisionRuntimeRoot.impl.binaryOp(lhs, rhs, op, NumberKind.INT,
+                                                  approx, approximativeBits).intValue();
+    }
+
+    public static long binaryLong(long lhs, long rhs, ArithOperator op,
+                                  boolean approx, int approximativeBits) {
+        return PrecisionRuntimeRoot.impl.binaryOp(lhs, rhs, op, NumberKind.LONG,
+                                                  approx, approximativeBits).longValue();
+    }
+
+    public static float binaryFloat(float lhs, float rhs, ArithOperator op,
+                                    boolean approx, int approximativeBits) {
+        return PrecisionRuntimeRoot.impl.binaryOp(lhs, rhs, op, NumberKind.FLOAT,
+                                                  approx, approximativeBits).floatValue();
+    }
+
+    public static double binaryDouble(double lhs, double rhs, ArithOperator op,
+                                      boolean approx, int approximativeBits) {
+        return PrecisionRuntimeRoot.impl.binaryOp(lhs, rhs, op, NumberKind.DOUBLE,
+                                                  approx, approximativeBits).doubleValue();
+    }
+
+    // Field loads. Static fields are passed their Class instead of an object.
+
+    public static boolean loadFieldBoolean(Object obj, String name, int precision) {
+        Boolean value = PrecisionRuntimeRoot.impl.loadField(obj, name, approx(obj, precision));
+        return value;
+    }
+
+    public static byte loadFieldByte(Object obj, String name, int precision) {
+        Byte value = PrecisionRuntimeRoot.impl.loadField(obj, name, approx(obj, precision));
+        return value;
+    }
+
+    public static char loadFieldChar(Object obj, String name, int precision) {
+        Character value = PrecisionRuntimeRoot.impl.loadField(obj, name, approx(obj, precision));
+        return value;
+    }
+
+    public static short loadFieldShort(Object obj, String name, int precision) {
+        Short value = PrecisionRuntimeRoot.impl.loadField(obj, name, approx(obj, precision));
+        return value;
+    }
+
+    public static int loadFieldInt(Object obj, String name, int precision) {
+        Integer value = PrecisionRuntimeRoot.impl.loadField(obj, name, approx(obj, precision));
+        return value;
+    }
+
+    public static long loadFieldLong(Object obj, String name, int precision) {
+        Long value = PrecisionRuntimeRoot.impl.loadField(obj, name, approx(obj, precision));
+        return value;
+    }
+
+    public static float loadFieldFloat(Object obj, String name, int precision) {
+        Float value = PrecisionRuntimeRoot.impl.loadField(obj, name, approx(obj, precision));
+        return value;
+    }
+
+    public static double loadFieldDouble(Object obj, String name, int precision) {
+        Double value = PrecisionRuntimeRoot.impl.loadField(obj, name, approx(obj, precision));
+        return value;
+    }
+
+    public static Object loadFieldObject(Object obj, String name, int precision) {
+        return PrecisionRuntimeRoot.impl.loadField(obj, name, approx(obj, precision));
+    }
+
+    // Instance field stores: the value is on top of the object.
+
+    public static void storeFieldBoolean(Object obj, boolean value, String name, int precision) {
+        PrecisionRuntimeRoot.impl.storeField(obj, name, approx(obj, precision), value);
+    }
+
+    public static void storeFieldByte(Object obj, byte value, String name, int precision) {
+        PrecisionRuntimeRoot.impl.storeField(obj, name, approx(obj, precision), value);
+    }
+
+    public static void storeFieldChar(Object obj, char value, String name, int precision) {
+        PrecisionRuntimeRoot.impl.storeField(obj, name, approx(obj, precision), value);
+    }
+
+    public static void storeFieldShort(Object obj, short value, String name, int precision) {
+        PrecisionRuntimeRoot.impl.storeField(obj, name, approx(obj, precision), value);
+    }
+
+    public static void storeFieldInt(Object obj, int value, String name, int precision) {
+        PrecisionRuntimeRoot.impl.storeField(obj, name, approx(obj, precision), value);
+    }
+
+    public static void storeFieldLong(Object obj, long value, String name, int precision) {
+        PrecisionRuntimeRoot.impl.storeField(obj, name, approx(obj, precision), value);
+    }
+
+    public static void storeFieldFloat(Object obj, float value, String name, int precision) {
+        PrecisionRuntimeRoot.impl.storeField(obj, name, approx(obj, precision), value);
+    }
+
+    public static void storeFieldDouble(Object obj, double value, String name, int precision) {
+        PrecisionRuntimeRoot.impl.storeField(obj, name, approx(obj, precision), value);
+    }
+
+    public static void storeFieldObject(Object obj, Object value, String name, int precision) {
+        PrecisionRuntimeRoot.impl.storeField(obj, name, approx(obj, precision), value);
+    }
+
+    // Static field stores: the value is alone on the stack, so the Class
+    // comes after it.
+
+    public static void storeStaticBoolean(boolean value, Object cls, String name, int precision) {
+        storeFieldBoolean(cls, value, name, precision);
+    }
+
+    public static void storeStaticByte(byte value, Object cls, String name, int precision) {
+        storeFieldByte(cls, value, name, precision);
+    }
+
+    public static void storeStaticChar(char value, Object cls, String name, int precision) {
+        storeFieldChar(cls, value, name, precision);
+    }
+
+    public static void storeStaticShort(short value, Object cls, String name, int precision) {
+        storeFieldShort(cls, value, name, precision);
+    }
+
+    public static void storeStaticInt(int value, Object cls, String name, int precision) {
+        storeFieldInt(cls, value, name, precision);
+    }
+
+    public static void storeStaticLong(long value, Object cls, String name, int precision) {
+        storeFieldLong(cls, value, name, precision);
+    }
+
+    public static void storeStaticFloat(float value, Object cls, String name, int precision) {
+        storeFieldFloat(cls, value, name, precision);
+    }
+
+    public static void storeStaticDouble(double value, Object cls, String name, int precision) {
+        storeFieldDouble(cls, value, name, precision);
+    }
+
+    public static void storeStaticObject(Object value, Object cls, String name, int precision) {
+        storeFieldObject(cls, value, name, precision);
+    }
+
+    // Array elements. baload and bastore work on both byte[] and boolean[].
+
+    public static byte loadArrayByte(Object array, int index, boolean approx) {
+        Object value = PrecisionRuntimeRoot.impl.loadArray(array, index, approx);
+        if (value instanceof Boolean)
+            return (byte) (((Boolean) value) ? 1 : 0);
+        return (Byte) value;
+    }
+
+    public static char loadArrayChar(char[] array, int index, boolean approx) {
+        Character value = PrecisionRuntimeRoot.impl.loadArray(array, index, approx);
+        return value;
+    }
+
+    public static short loadArrayShort(short[] array, int index, boolean approx) {
+        Short value = PrecisionRuntimeRoot.impl.loadArray(array, index, approx);
+        return value;
+    }
+
+    public static int loadArrayInt(int[] array, int index, boolean approx) {
+        Integer value = PrecisionRuntimeRoot.impl.loadArray(array, index, approx);
+        return value;
+    }
+
+    public static long loadArrayLong(long[] array, int index, boolean approx) {
+        Long value = PrecisionRuntimeRoot.impl.loadArray(array, index, approx);
+        return value;
+    }
+
+    public static float loadArrayFloat(float[] array, int index, boolean approx) {
+        Float value = PrecisionRuntimeRoot.impl.loadArray(array, index, approx);
+        return value;
+    }
+
+    public static double loadArrayDouble(double[] array, int index, boolean approx) {
+        Double value = PrecisionRuntimeRoot.impl.loadArray(array, index, approx);
+        return value;
+    }
+
+    public static void storeArrayByte(Object array, int index, byte value, boolean approx) {
+        if (array instanceof boolean[])
+            PrecisionRuntimeRoot.impl.storeArray(array, index, approx, (value & 1) != 0);
+        else
+            PrecisionRuntimeRoot.impl.storeArray(array, index, approx, value);
+    }
+
+    public static void storeArrayChar(char[] array, int index, char value, boolean approx) {
+        PrecisionRuntimeRoot.impl.storeArray(array, index, approx, value);
+    }
+
+    public static void storeArrayShort(short[] array, int index, short value, boolean approx) {
+        PrecisionRuntimeRoot.impl.storeArray(array, index, approx, value);
+    }
+
+    public static void storeArrayInt(int[] array, int index, int value, boolean approx) {
+        PrecisionRuntimeRoot.impl.storeArray(array, index, approx, value);
+    }
+
+    public static void storeArrayLong(long[] array, int index, long value, boolean approx) {
+        PrecisionRuntimeRoot.impl.storeArray(array, index, approx, value);
+    }
+
+    public static void storeArrayFloat(float[] array, int index, float value, boolean approx) {
+        PrecisionRuntimeRoot.impl.storeArray(array, index, approx, value);
+    }
+
+    public static void storeArrayDouble(double[] array, int index, double value, boolean approx) {
+        PrecisionRuntimeRoot.impl.storeArray(array, index, approx, value);
+    }
+
+    // Approximate primitive locals. They stay unboxed; only their register
+    // reads and writes go through the runtime, as raw bits. Booleans are
+    // all ones or zero, like the runtime's own error injection sees them.
+
+    public static boolean loadLocalBoolean(boolean value, int approximativeBits) {
+        return PrecisionRuntimeRoot.impl.loadLocalBits(value ? -1 : 0, 8, approximativeBits) != 0;
+    }
+
+    public static byte loadLocalByte(byte value, int approximativeBits) {
+        return (byte) PrecisionRuntimeRoot.impl.loadLocalBits(value, 8, approximativeBits);
+    }
+
+    public static char loadLocalChar(char value, int approximativeBits) {
+        return (char) PrecisionRuntimeRoot.impl.loadLocalBits(value, 16, approximativeBits);
+    }
+
+    public static short loadLocalShort(short value, int approximativeBits) {
+        return (short) PrecisionRuntimeRoot.impl.loadLocalBits(value, 16, approximativeBits);
+    }
+
+    public static int loadLocalInt(int value, int approximativeBits) {
+        return (int) PrecisionRuntimeRoot.impl.loadLocalBits(value, 32, approximativeBits);
+    }
+
+    public static long loadLocalLong(long value, int approximativeBits) {
+        return PrecisionRuntimeRoot.impl.loadLocalBits(value, 64, approximativeBits);
+    }
+
+    public static float loadLocalFloat(float value, int approximativeBits) {
+        return Float.intBitsToFloat((int) PrecisionRuntimeRoot.impl.loadLocalBits(
+            Float.floatToRawIntBits(value), 32, approximativeBits));
+    }
+
+    public static double loadLocalDouble(double value, int approximativeBits) {
+        return Double.longBitsToDouble(PrecisionRuntimeRoot.impl.loadLocalBits(
+            Double.doubleToRawLongBits(value), 64, approximativeBits));
+    }
+
+    public static boolean storeLocalBoolean(boolean value, int approximativeBits) {
+        return PrecisionRuntimeRoot.impl.storeLocalBits(value ? -1 : 0, 8, approximativeBits) != 0;
+    }
+
+    public static byte storeLocalByte(byte value, int approximativeBits) {
+        return (byte) PrecisionRuntimeRoot.impl.storeLocalBits(value, 8, approximativeBits);
+    }
+
+    public static char storeLocalChar(char value, int approximativeBits) {
+        return (char) PrecisionRuntimeRoot.impl.storeLocalBits(value, 16, approximativeBits);
+    }
+
+    public static short storeLocalShort(short value, int approximativeBits) {
+        return (short) PrecisionRuntimeRoot.impl.storeLocalBits(value, 16, approximativeBits);
+    }
+
+    public static int storeLocalInt(int value, int approximativeBits) {
+        return (int) PrecisionRuntimeRoot.impl.storeLocalBits(value, 32, approximativeBits);
+    }
+
+    public static long storeLocalLong(long value, int approximativeBits) {
+        return PrecisionRuntimeRoot.impl.storeLocalBits(value, 64, approximativeBits);
+    }
+
+    public static float storeLocalFloat(float value, int approximativeBits) {
+        return Float.intBitsToFloat((int) PrecisionRuntimeRoot.impl.storeLocalBits(
+            Float.floatToRawIntBits(value), 32, approximativeBits));
+    }
+
+    public static double storeLocalDouble(double value, int approximativeBits) {
+        return Double.longBitsToDouble(PrecisionRuntimeRoot.impl.storeLocalBits(
+            Double.doubleToRawLongBits(value), 64, approximativeBits));
+    }
+}
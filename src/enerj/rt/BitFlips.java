@@ -0,0 +1,49 @@
+package enerj.rt;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bit error injection on raw bits of a value, and counting of the flipped
+ * bits. Used for register upsets and by the memory error models.
+ */
+final class BitFlips {
+    private BitFlips() {
+    }
+
+    /**
+     * Flip the approximate bits of a value with the given probability. The
+     * bits from position 0 and up to the number of approximative bits are
+     * affected.
+     * @param info Counters for the flipped bits
+     * @param bits Raw bits of the value
+     * @param width Width of the value in bits
+     * @param invProb Inverse probability of a bit flip
+     * @param approximativeBits Number of approximate (low) bits
+     * @return The bits, possibly with errors
+     */
+    static long upset(RunInfo info, long bits, int width,
+                      long invProb, int approximativeBits) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long flipped = 0;
+        for (int bitpos = 0; bitpos < width && bitpos < approximativeBits; ++bitpos) {
+            if ((long)(random.nextDouble() * invProb) == 0)
+                flipped |= 1L << bitpos;
+        }
+        if (flipped != 0)
+            count(info, flipped, approximativeBits);
+        return bits ^ flipped;
+    }
+
+    /**
+     * Count the bit errors of a memory access.
+     * @param info Counters for the flipped bits
+     * @param flipped Mask of the flipped bits
+     * @param approximativeBits Number of approximate (low) bits
+     */
+    static void count(RunInfo info, long flipped, int approximativeBits) {
+        for (long rest = flipped; rest != 0; rest &= rest - 1)
+            info.countError("MemoryError_Bit" + Long.numberOfTrailingZeros(rest),
+                            true, approximativeBits);
+        info.countOperation("MemoryTotalError", true, approximativeBits);
+    }
+}
@@ -0,0 +1,96 @@
+package enerj.rt;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The default allocator: a bump pointer per memory space. Small blocks are
+ * padded so that they don't cross a cache line, and freed blocks are only
+ * reused for blocks of exactly the same size.
+ */
+class BumpAllocator implements SimulatedAllocator {
+    private final int lineSize; // Cache line size in qytes
+    private boolean differentSpaces; // Whether approx/precise lives in different DRAM
+
+    private long addressGeneratorPrecise = 0; // Address counter of precise memory
+    private long addressGeneratorApprox = 0; // Address counter of approximate memory
+
+    /**
+     * Freed addresses of the precise and approximate address spaces, by
+     * block size. Only blocks within a single cache line are kept.
+     */
+    private final Map<Integer, ArrayDeque<Long>> freePrecise =
+        new HashMap<Integer, ArrayDeque<Long>>();
+    private final Map<Integer, ArrayDeque<Long>> freeApprox =
+        new HashMap<Integer, ArrayDeque<Long>>();
+
+    /**
+     * @param lineSize Cache line size in qytes
+     * @param differentSpaces Whether approximate data has its own address space
+     */
+    BumpAllocator(int lineSize, boolean differentSpaces) {
+        this.lineSize = lineSize;
+        this.differentSpaces = differentSpaces;
+    }
+
+    @Override
+    public long allocate(int size, boolean approx) {
+        // Prefer memory freed by collected objects
+        ArrayDeque<Long> free = (approx && differentSpaces ? freeApprox : freePrecise).get(size);
+        if (free != null && !free.isEmpty())
+            return free.pop();
+
+        // Check that we don't span over two cache lines for an object
+        long cacheLineSpaceLeft = lineSize - (peek(approx) % lineSize);
+        // If so, add padding to preserve alignment
+        if (cacheLineSpaceLeft < size)
+            allocateConsecutive(cacheLineSpaceLeft, approx);
+        return allocateConsecutive(size, approx);
+    }
+
+    @Override
+    public long allocateConsecutive(long size, boolean approx) {
+        long address;
+        if (approx && differentSpaces) {
+            address = addressGeneratorApprox;
+            addressGeneratorApprox += size;
+        }
+        else {
+	    // If the same DRAM space is used for precise/approx memory,
+	    // it doesn't matter technically what generator is used - using
+	    // "...Precise" is sufficient.
+            address = addressGeneratorPrecise;
+            addressGeneratorPrecise += size;
+        }
+        return address;
+    }
+
+    @Override
+    public long peek(boolean approx) {
+        return (approx && differentSpaces)
+            ? addressGeneratorApprox
+            : addressGeneratorPrecise;
+    }
+
+    @Override
+    public void free(long address, int size, boolean approx) {
+        // Blocks crossing a cache line (e.g. array elements) would break the
+        // alignment of fields if reused
+        if (size <= 0 || address % lineSize + size > lineSize)
+            return;
+        Map<Integer, ArrayDeque<Long>> freeAddresses =
+            approx && differentSpaces ? freeApprox : freePrecise;
+        ArrayDeque<Long> free = freeAddresses.get(size);
+        if (free == null) {
+            free = new ArrayDeque<Long>();
+            freeAddresses.put(size, free);
+        }
+        free.push(address);
+    }
+
+    @Override
+    public void setDifferentSpaces(boolean differentSpaces) {
+        this.differentSpaces = differentSpaces;
+    }
+}
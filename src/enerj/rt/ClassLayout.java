@@ -0,0 +1,95 @@
+package enerj.rt;
+
+import java.lang.reflect.Field;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import enerj.MyTuple;
+
+/**
+ * Reflection data about an instrumented class, computed once per class
+ * instead of once per created object or field access: the fields of the
+ * whole class hierarchy sorted in decreasing size order (the order in which
+ * they are placed in simulated memory) and an accessible Field per name.
+ */
+final class ClassLayout {
+    /**
+     * Layouts are kept with their class, so they don't keep classes (and
+     * their class loaders) from being unloaded
+     */
+    private static final ClassValue<ClassLayout> layouts = new ClassValue<ClassLayout>() {
+        @Override
+        protected ClassLayout computeValue(Class<?> type) {
+            return new ClassLayout(type);
+        }
+    };
+
+    /**
+     * All accessible declared fields of the class and its superclasses,
+     * sorted in decreasing size order. Each field is paired with the name
+     * of the class declaring it.
+     */
+    final List<Map.Entry<MyTuple<String, Field>, Integer>> sortedFields;
+
+    /**
+     * Field name -> field, as found by searching the class hierarchy upwards
+     */
+    private final HashMap<String, Field> fields = new HashMap<String, Field>();
+
+    private ClassLayout(Class<?> type) {
+        List<Map.Entry<MyTuple<String, Field>, Integer>> sorted =
+            new ArrayList<Map.Entry<MyTuple<String, Field>, Integer>>();
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Field someField : c.getDeclaredFields()) {
+                // Fields added by javac (this$0 of inner classes) are not in
+                // the class info the checker writes
+                if (someField.isSynthetic())
+                    continue;
+                try {
+                    someField.setAccessible(true);
+                } catch (RuntimeException e) {
+                    // Fields of JDK classes are closed to reflection on
+                    // Java 9 and later (InaccessibleObjectException); they
+                    // have no class info anyway
+                    continue;
+                }
+                sorted.add(new AbstractMap.SimpleImmutableEntry<MyTuple<String, Field>, Integer>(
+                               new MyTuple<String, Field>(c.getName(), someField),
+                               PrecisionRuntimeTolop.prioritizeType(someField.getType().getName())));
+                if (!fields.containsKey(someField.getName()))
+                    fields.put(someField.getName(), someField);
+            }
+        }
+        Collections.sort(sorted, new Comparator<Map.Entry<MyTuple<String, Field>, Integer>>() {
+		@Override
+		public int compare(Map.Entry<MyTuple<String, Field>, Integer> obj1,
+				   Map.Entry<MyTuple<String, Field>, Integer> obj2) {
+		    return (obj2.getValue()).compareTo(obj1.getValue());
+		}
+	    });
+        sortedFields = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * Get the (cached) layout of a class.
+     * @param type The class
+     * @return Its layout
+     */
+    static ClassLayout of(Class<?> type) {
+        return layouts.get(type);
+    }
+
+    /**
+     * Look for a field in the class hierarchy.
+     * @param name Field name
+     * @return The accessible field, or null if there is no such field
+     */
+    Field getField(String name) {
+        return fields.get(name);
+    }
+}
@@ -0,0 +1,104 @@
+package enerj.rt;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread safe map with weakly referenced keys that are compared by
+ * identity, without a global lock. Entries of collected keys are removed
+ * lazily by the threads that modify the map.
+ */
+final class ConcurrentWeakIdentityMap<K, V> {
+    private final ConcurrentHashMap<Object, V> map = new ConcurrentHashMap<Object, V>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+    /**
+     * Key as stored in the map.
+     */
+    private static final class WeakKey extends WeakReference<Object> {
+        private final int hash;
+
+        WeakKey(Object key, ReferenceQueue<Object> queue) {
+            super(key, queue);
+            hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            Object key = get();
+            if (key == null)
+                return false;
+            if (o instanceof WeakKey)
+                return ((WeakKey)o).get() == key;
+            if (o instanceof LookupKey)
+                return ((LookupKey)o).key == key;
+            return false;
+        }
+    }
+
+    /**
+     * Short lived key used for lookups, so lookups do not create weak
+     * references.
+     */
+    private static final class LookupKey {
+        private final Object key;
+        private final int hash;
+
+        LookupKey(Object key) {
+            this.key = key;
+            hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof WeakKey)
+                return ((WeakKey)o).get() == key;
+            if (o instanceof LookupKey)
+                return ((LookupKey)o).key == key;
+            return false;
+        }
+    }
+
+    void put(K key, V value) {
+        expunge();
+        map.put(new WeakKey(key, queue), value);
+    }
+
+    V get(Object key) {
+        return key == null ? null : map.get(new LookupKey(key));
+    }
+
+    boolean containsKey(Object key) {
+        return key != null && map.containsKey(new LookupKey(key));
+    }
+
+    V remove(Object key) {
+        expunge();
+        return key == null ? null : map.remove(new LookupKey(key));
+    }
+
+    int size() {
+        expunge();
+        return map.size();
+    }
+
+    private void expunge() {
+        java.lang.ref.Reference<?> ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+}
@@ -38,6 +38,24 @@ class CreationInfo {
      */
     CreationInfo(Object creator, boolean approx, int preciseSize,
                  int approxSize, int approximativeBits) {
+        set(creator, approx, preciseSize, approxSize, approximativeBits);
+    }
+
+    /**
+     * Empty info, to be filled in by set when used.
+     */
+    CreationInfo() {
+    }
+
+    /**
+     * Store given argument values, so that the object can be reused.
+     * @param creator Creator of the object
+     * @param approx Whether or not the created object is approximative
+     * @param preciseSize Precise data size
+     * @param approxSize Approximative data size
+     */
+    void set(Object creator, boolean approx, int preciseSize,
+             int approxSize, int approximativeBits) {
         this.creator = creator;
         this.approx = approx;
         this.preciseSize = preciseSize;
@@ -0,0 +1,65 @@
+package enerj.rt;
+
+import java.util.Arrays;
+
+/**
+ * Stack of the objects being created by one thread, between beforeCreation
+ * and enterConstructor/afterCreation. Not thread safe: every thread has a
+ * stack of its own. The CreationInfo objects are allocated up front and
+ * reused, so pushing doesn't allocate; a popped CreationInfo stays valid
+ * until the next push.
+ */
+final class CreationStack {
+    private static final int INITIAL_DEPTH = 16;
+
+    private CreationInfo[] items = new CreationInfo[INITIAL_DEPTH];
+    private int size = 0;
+
+    CreationStack() {
+        fill(0);
+    }
+
+    private void fill(int from) {
+        for (int i = from; i < items.length; i++)
+            items[i] = new CreationInfo();
+    }
+
+    /**
+     * Push the info of an object about to be created.
+     * @param creator Creator of the object
+     * @param approx Whether or not the created object is approximative
+     * @param preciseSize Precise data size
+     * @param approxSize Approximative data size
+     * @param approximativeBits Number of approximate bits
+     */
+    void push(Object creator, boolean approx, int preciseSize,
+              int approxSize, int approximativeBits) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+            fill(size);
+        }
+        items[size++].set(creator, approx, preciseSize, approxSize, approximativeBits);
+    }
+
+    /**
+     * @return The info on top of the stack
+     */
+    CreationInfo peek() {
+        return items[size - 1];
+    }
+
+    /**
+     * Remove the info on top of the stack. The creator is forgotten, so the
+     * stack doesn't keep it alive.
+     * @return The removed info
+     */
+    CreationInfo pop() {
+        CreationInfo c = items[--size];
+        c.creator = null;
+        return c;
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,203 @@
+package enerj.rt;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decay of approximate primitive arrays kept in refresh-free DRAM, applied
+ * in bulk by a background thread instead of lazily per cache line fill.
+ * Every sweep flips each approximate bit of every registered array with the
+ * probability of a flip during the time since the array's previous sweep.
+ * The flipped bits are found by drawing the distance to the next flip from
+ * the geometric distribution, so a sweep costs time in proportion to the
+ * number of errors rather than to the size of the arrays.
+ *
+ * Registered arrays are left out of the lazy DRAM decay, or their errors
+ * would be counted twice. Likewise, elements whose cache line is in a cache
+ * don't decay; the program works on the cached copy. Sweeps run while
+ * holding the runtime lock, but the program itself may write an array
+ * element while it's being flipped; such a write can be lost, like it could
+ * to a real bit flip.
+ */
+abstract class DRAMScrubber {
+    /**
+     * A registered array
+     */
+    private static final class Region extends WeakReference<Object> {
+        final int approximativeBits;
+        final int nBits; // Bits per element that may flip
+        long lastSweep;
+
+        Region(Object array, int approximativeBits, int nBits, long time) {
+            super(array);
+            this.approximativeBits = approximativeBits;
+            this.nBits = nBits;
+            this.lastSweep = time;
+        }
+    }
+
+    private final Object lock;
+    private final RunInfo runInfo;
+    private final double flipsPerMilli; // Probability of a flip per bit and ms
+    private final long interval;
+
+    private final ArrayList<Region> regions = new ArrayList<Region>();
+    private final ConcurrentWeakIdentityMap<Object, Region> covered =
+        new ConcurrentWeakIdentityMap<Object, Region>();
+
+    /**
+     * @param lock Lock to hold while sweeping, i.e. the runtime
+     * @param runInfo Counters for the flipped bits
+     * @param invProbPerSecond Inverse probability of a bit flip per second,
+     * at least 1
+     * @param interval Time between sweeps in milliseconds, at least 1
+     */
+    DRAMScrubber(Object lock, RunInfo runInfo, long invProbPerSecond, long interval) {
+        this.lock = lock;
+        this.runInfo = runInfo;
+        this.flipsPerMilli = 1.0 / (invProbPerSecond * 1000.0);
+        this.interval = interval;
+    }
+
+    /**
+     * Called while holding the lock.
+     * @return Whether the cache line of an array element is in a cache
+     */
+    protected abstract boolean isCached(Object array, int index);
+
+    /**
+     * Start sweeping in a daemon thread.
+     */
+    void start() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    synchronized (lock) {
+                        sweep(System.currentTimeMillis());
+                    }
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Register an approximate array. Must be called while holding the lock.
+     * @param array Array of some primitive type
+     * @param approximativeBits Number of approximate (low) bits per element
+     * @param time Time of creation
+     */
+    void register(Object array, int approximativeBits, long time) {
+        int nBits = Math.min(width(array), approximativeBits);
+        if (nBits <= 0 || covered.containsKey(array))
+            return;
+        Region region = new Region(array, approximativeBits, nBits, time);
+        regions.add(region);
+        covered.put(array, region);
+    }
+
+    /**
+     * @return Whether an array decays through this scrubber
+     */
+    boolean covers(Object array) {
+        return covered.containsKey(array);
+    }
+
+    /**
+     * Apply the decay since the previous sweep to all registered arrays.
+     * @param now Current time stamp
+     */
+    private void sweep(long now) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int live = 0;
+        for (int r = 0; r < regions.size(); r++) {
+            Region region = regions.get(r);
+            Object array = region.get();
+            if (array == null)
+                continue; // Collected; drop it
+            regions.set(live++, region);
+
+            long age = now - region.lastSweep;
+            region.lastSweep = now;
+            if (age <= 0)
+                continue;
+            runInfo.countOperation("DRAM-Scrub", true, region.approximativeBits);
+            double p = Math.min(age * flipsPerMilli, 1.0);
+            double logq = Math.log1p(-p);
+            long total = (long)Array.getLength(array) * region.nBits;
+
+            // Flips are found in increasing order; collect those of one
+            // element before applying them
+            int element = -1;
+            long mask = 0;
+            long pos = -1;
+            while (true) {
+                if (p >= 1)
+                    pos++;
+                else
+                    pos += (long)Math.floor(Math.log(1.0 - random.nextDouble()) / logq) + 1;
+                if (pos >= total || pos < 0)
+                    break;
+                int e = (int)(pos / region.nBits);
+                if (e != element) {
+                    if (mask != 0)
+                        flip(array, element, mask, region.approximativeBits);
+                    element = e;
+                    mask = 0;
+                }
+                mask |= 1L << (pos % region.nBits);
+            }
+            if (mask != 0)
+                flip(array, element, mask, region.approximativeBits);
+        }
+        regions.subList(live, regions.size()).clear();
+    }
+
+    private void flip(Object array, int i, long mask, int approximativeBits) {
+        if (isCached(array, i))
+            return;
+        if (array instanceof int[]) {
+            ((int[])array)[i] ^= (int)mask;
+        } else if (array instanceof float[]) {
+            float[] a = (float[])array;
+            a[i] = Float.intBitsToFloat(Float.floatToRawIntBits(a[i]) ^ (int)mask);
+        } else if (array instanceof long[]) {
+            ((long[])array)[i] ^= mask;
+        } else if (array instanceof double[]) {
+            double[] a = (double[])array;
+            a[i] = Double.longBitsToDouble(Double.doubleToRawLongBits(a[i]) ^ mask);
+        } else if (array instanceof short[]) {
+            ((short[])array)[i] ^= (short)mask;
+        } else if (array instanceof char[]) {
+            ((char[])array)[i] ^= (char)mask;
+        } else if (array instanceof byte[]) {
+            ((byte[])array)[i] ^= (byte)mask;
+        }
+        BitFlips.count(runInfo, mask, approximativeBits);
+    }
+
+    /**
+     * @return Element width in bits of a primitive array; 0 if it can't
+     * decay
+     */
+    private static int width(Object array) {
+        if (array instanceof int[] || array instanceof float[])
+            return 32;
+        if (array instanceof long[] || array instanceof double[])
+            return 64;
+        if (array instanceof short[] || array instanceof char[])
+            return 16;
+        if (array instanceof byte[])
+            return 8;
+        return 0;
+    }
+}
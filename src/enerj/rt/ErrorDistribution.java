@@ -0,0 +1,392 @@
+package enerj.rt;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.json.XML;
+
+/**
+ * Bitwise error distribution of an arithmetic unit (adder, two's complement
+ * or multiplier) for some operand type (int, long, float or double) and
+ * number of approximate bits: the probability that each raw result bit is
+ * flipped by one operation. Bits are assumed to flip independently.
+ *
+ * Sampling uses the prefix products of the no-error probabilities,
+ * Q[k] = prod_{i<k} (1 - p[i]). One random number decides whether the
+ * operation is error free (probability Q[n]) and, if not, which bit is the
+ * first to flip; the bits after it are drawn the same way from the suffix
+ * Q[k]/Q[first+1]. An error free operation thus costs a single draw.
+ *
+ * Distributions can be stored in a binary file, which is memory mapped
+ * when the runtime starts; the tables of the file are sampled from the
+ * mapping itself rather than copied out of it. The file is big endian:
+ *   int magic ("ENED"), int version, int number of tables
+ * and for every table:
+ *   int kind, int type, int approximate bits, int number of bits n,
+ *   long samples, n doubles p[i], n + 1 doubles Q[k]
+ * Version 1 files have no type; their tables are for ints.
+ * The main method converts the JSON (or XML) files of the circuit
+ * simulations to this format.
+ */
+final class ErrorDistribution {
+    static final int ADDER = 0;
+    static final int TWOCOMP = 1;
+    static final int MULTIPLIER = 2;
+    private static final String[] KIND_NAMES = {"add", "sub", "mul"};
+
+    static final int INT = 0;
+    static final int LONG = 1;
+    static final int FLOAT = 2;
+    static final int DOUBLE = 3;
+    private static final String[] TYPE_NAMES = {"int", "long", "float", "double"};
+    static final int N_TYPES = 4;
+
+    /** Number of approximate bits of the tables: 8, 16, 24 and 32 */
+    static final int N_WIDTHS = 4;
+
+    private static final int MAGIC = 0x454E4544; // "ENED"
+    private static final int VERSION = 2;
+
+    // Flipping a bit for sure would make the suffix products zero
+    private static final double MAX_PROBABILITY = 1 - 1e-12;
+
+    final int kind;
+    final int type;
+    final int approximativeBits;
+    private final long samples; // Number of simulated operations
+    private final DoubleBuffer p; // Probability of a flip per bit
+    private final DoubleBuffer q; // Prefix products of 1 - p
+
+    private ErrorDistribution(int kind, int type, int approximativeBits, long samples,
+                              DoubleBuffer p, DoubleBuffer q) {
+        this.kind = kind;
+        this.type = type;
+        this.approximativeBits = approximativeBits;
+        this.samples = samples;
+        this.p = p;
+        this.q = q;
+    }
+
+    /**
+     * Create a distribution from the error counts of a simulation.
+     * @param kind ADDER, TWOCOMP or MULTIPLIER
+     * @param type INT, LONG, FLOAT or DOUBLE
+     * @param approximativeBits Number of approximate bits of the unit
+     * @param counts Number of errors per bit
+     * @param samples Number of simulated operations
+     */
+    static ErrorDistribution fromCounts(int kind, int type, int approximativeBits,
+                                        long[] counts, long samples) {
+        double[] p = new double[counts.length];
+        for (int i = 0; i < counts.length; i++)
+            p[i] = (double)counts[i] / samples;
+        return new ErrorDistribution(kind, type, approximativeBits, samples,
+                                     DoubleBuffer.wrap(p), prefixProducts(p));
+    }
+
+    private static DoubleBuffer prefixProducts(double[] p) {
+        double[] q = new double[p.length + 1];
+        q[0] = 1.0;
+        for (int i = 0; i < p.length; i++)
+            q[i + 1] = q[i] * (1 - Math.min(p[i], MAX_PROBABILITY));
+        return DoubleBuffer.wrap(q);
+    }
+
+    /**
+     * @return Whether q holds the prefix products of some probabilities:
+     * it starts at 1 and never grows or drops below 0
+     */
+    private static boolean isPrefixProducts(DoubleBuffer q) {
+        if (q.get(0) != 1.0)
+            return false;
+        for (int k = 1; k < q.limit(); k++) {
+            // Written so that NaN fails too
+            if (!(q.get(k) >= 0 && q.get(k) <= q.get(k - 1)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of bits of the distribution
+     */
+    int bits() {
+        return p.limit();
+    }
+
+    /**
+     * @return Probability that a bit is flipped by one operation
+     */
+    double probability(int bit) {
+        return p.get(bit);
+    }
+
+    /**
+     * @param invProb Factor to divide every probability with; at least 1
+     * @return This distribution with every probability divided by invProb
+     */
+    ErrorDistribution scaled(long invProb) {
+        if (invProb < 1)
+            throw new IllegalArgumentException("Error probabilities can't be scaled by " + invProb);
+        if (invProb == 1)
+            return this;
+        double[] scaled = new double[bits()];
+        for (int i = 0; i < scaled.length; i++)
+            scaled[i] = p.get(i) / invProb;
+        return new ErrorDistribution(kind, type, approximativeBits, samples,
+                                     DoubleBuffer.wrap(scaled), prefixProducts(scaled));
+    }
+
+    /**
+     * @return Probability that an operation has no errors at all
+     */
+    double errorFree() {
+        return q.get(bits());
+    }
+
+    /**
+     * Draw the errors of one operation.
+     * @return Mask of the flipped bits
+     */
+    long sample() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int n = bits();
+        long flipped = 0;
+        int start = 0;
+        while (start < n) {
+            // The first flip at or after start is at the smallest k with
+            // Q[k + 1] < Q[start] * (1 - u)
+            double target = q.get(start) * (1 - random.nextDouble());
+            if (q.get(n) >= target)
+                break;
+            int lo = start + 1, hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (q.get(mid) < target)
+                    hi = mid;
+                else
+                    lo = mid + 1;
+            }
+            flipped |= 1L << (lo - 1);
+            start = lo;
+        }
+        return flipped;
+    }
+
+    /**
+     * @return Width in bits of the raw values of a type
+     */
+    static int width(int type) {
+        return type == LONG || type == DOUBLE ? 64 : 32;
+    }
+
+    /**
+     * @return Whether there are tables for a number of approximate bits
+     */
+    static boolean isWidth(int approximativeBits) {
+        return approximativeBits > 0 && approximativeBits <= 8 * N_WIDTHS
+            && approximativeBits % 8 == 0;
+    }
+
+    /**
+     * @return Table index of the nearest number of approximate bits that
+     * has tables; ties go to the wider table
+     */
+    static int widthIndex(int approximativeBits) {
+        int index = (approximativeBits + 4) / 8 - 1;
+        return Math.max(0, Math.min(index, N_WIDTHS - 1));
+    }
+
+    /**
+     * Map a binary distribution file. The tables stay views of the mapping,
+     * which outlives the file being closed.
+     * @param filename The file
+     * @return The distributions of the file
+     */
+    static List<ErrorDistribution> map(String filename) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC)
+                throw new IOException(filename + " is not an error distribution file");
+            int version = buffer.getInt();
+            if (version < 1 || version > VERSION)
+                throw new IOException(filename + " has an unsupported version");
+            int nTables = buffer.getInt();
+            List<ErrorDistribution> tables = new ArrayList<ErrorDistribution>();
+            for (int t = 0; t < nTables; t++) {
+                int kind = buffer.getInt();
+                int type = version == 1 ? INT : buffer.getInt();
+                int approximativeBits = buffer.getInt();
+                int nBits = buffer.getInt();
+                long samples = buffer.getLong();
+                if (kind < 0 || kind >= KIND_NAMES.length || type < 0 || type >= N_TYPES
+                    || nBits < 0 || nBits > width(type))
+                    throw new IOException(filename + " has a malformed table");
+                if (!isWidth(approximativeBits))
+                    throw new IOException(filename + " has a table for " + approximativeBits
+                                          + " approximate bits; only 8, 16, 24 and 32 are supported");
+                DoubleBuffer p = doubles(buffer, nBits);
+                DoubleBuffer q = doubles(buffer, nBits + 1);
+                if (!isPrefixProducts(q))
+                    throw new IOException(filename + " has a table with malformed prefix products");
+                tables.add(new ErrorDistribution(kind, type, approximativeBits, samples, p, q));
+            }
+            return tables;
+        } catch (BufferUnderflowException e) {
+            throw new IOException(filename + " is truncated");
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * The next n doubles of a buffer, as a view of it.
+     */
+    private static DoubleBuffer doubles(ByteBuffer buffer, int n) {
+        if (buffer.remaining() < 8 * n)
+            throw new BufferUnderflowException();
+        ByteBuffer table = buffer.slice();
+        table.limit(8 * n);
+        buffer.position(buffer.position() + 8 * n);
+        return table.asDoubleBuffer();
+    }
+
+    /**
+     * Write distributions to a binary file.
+     * @param tables The distributions
+     * @param filename The file
+     */
+    static void write(List<ErrorDistribution> tables, String filename) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(filename)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tables.size());
+            for (ErrorDistribution d : tables) {
+                out.writeInt(d.kind);
+                out.writeInt(d.type);
+                out.writeInt(d.approximativeBits);
+                out.writeInt(d.bits());
+                out.writeLong(d.samples);
+                for (int i = 0; i < d.p.limit(); i++)
+                    out.writeDouble(d.p.get(i));
+                for (int i = 0; i < d.q.limit(); i++)
+                    out.writeDouble(d.q.get(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read the error counts of a circuit simulation: {"<X>_TOTAL": samples,
+     * "BIT1": count, ..., "BIT<n>": count}. Missing bits have no errors.
+     * An XML file has the counts as the children of its root element,
+     * e.g. &lt;BIT1&gt;count&lt;/BIT1&gt;; it's streamed, so only the counts
+     * are kept from what may be a large characterization file.
+     * @param filename JSON or XML file
+     * @param counts Array to add the counts to
+     * @return Number of simulated operations
+     */
+    private static long readCounts(String filename, long[] counts)
+        throws IOException, JSONException {
+        FileReader reader = new FileReader(filename);
+        try {
+            JSONObject json;
+            if (filename.endsWith(".xml")) {
+                final JSONObject children = new JSONObject();
+                XML.stream(reader, "*/*", new XML.Handler() {
+                    @Override
+                    public void element(String path, Object value) throws JSONException {
+                        children.put(path.substring(path.lastIndexOf('/') + 1), value);
+                    }
+                });
+                json = children;
+            } else {
+                json = new JSONObject(new JSONTokener(reader));
+            }
+            long samples = -1;
+            Iterator<?> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = (String)keys.next();
+                if (key.endsWith("_TOTAL"))
+                    samples = json.getLong(key);
+            }
+            if (samples <= 0)
+                throw new JSONException(filename + " has no operation total");
+            for (int i = 0; i < counts.length; i++)
+                counts[i] += json.optLong("BIT" + (i+1));
+            return samples;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Convert JSON error counts to a binary distribution file.
+     * Usage: ErrorDistribution out.bin kind[/type]:bits:file.json[:adder.json] ...
+     * where kind is add, sub or mul and type is int (default), long, float
+     * or double. The counts of a two's complement simulation are usually
+     * followed by those of the addition, which are then added to them.
+     * Files ending in .xml are read as XML.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: ErrorDistribution out.bin kind[/type]:bits:file.json[:adder.json] ...");
+            System.exit(1);
+        }
+        List<ErrorDistribution> tables = new ArrayList<ErrorDistribution>();
+        try {
+            for (int a = 1; a < args.length; a++) {
+                String[] parts = args[a].split(":");
+                String[] unit = parts[0].split("/");
+                int kind = parts.length < 3 || unit.length > 2 ? -1 : Arrays.asList(KIND_NAMES).indexOf(unit[0]);
+                int type = unit.length == 2 ? Arrays.asList(TYPE_NAMES).indexOf(unit[1]) : INT;
+                if (kind < 0 || type < 0 || parts.length > 4) {
+                    System.err.println("Malformed table: " + args[a]);
+                    System.exit(1);
+                }
+                int approximativeBits = Integer.parseInt(parts[1]);
+                if (!isWidth(approximativeBits)) {
+                    System.err.println("Unsupported number of approximate bits (8, 16, 24 or 32): "
+                                       + args[a]);
+                    System.exit(1);
+                }
+                long[] counts = new long[width(type)];
+                long samples = readCounts(parts[2], counts);
+                if (parts.length == 4 && readCounts(parts[3], counts) != samples) {
+                    System.err.println("Number of operations of " + parts[2]
+                                       + " and " + parts[3] + " do not match");
+                    System.exit(1);
+                }
+                tables.add(fromCounts(kind, type, approximativeBits, counts, samples));
+            }
+            write(tables, args[0]);
+        } catch (IOException e) {
+            System.err.println("Could not convert error distributions: " + e.getMessage());
+            System.exit(1);
+        } catch (JSONException e) {
+            System.err.println("Could not convert error distributions: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package enerj.rt;
+
+/**
+ * Error model of one level of the memory hierarchy (cache or main memory).
+ * The runtime selects one model per level at startup; see the SRAMErrorModel
+ * and DRAMErrorModel properties. Besides the built in models, any class
+ * implementing this interface with a public no-argument constructor can be
+ * given by its fully qualified name.
+ *
+ * Models only change the bits; the runtime counts the errors.
+ */
+public interface ErrorModel {
+    /**
+     * Apply errors to the bits of a value read from this memory level.
+     * @param bits Raw bits of the value
+     * @param width Width of the value in bits
+     * @param approximativeBits Number of approximate (low) bits
+     * @param age Milliseconds since the value was last written to this level
+     * @param cell State of the memory cells holding the value
+     * @return The bits, possibly with errors
+     */
+    long apply(long bits, int width, int approximativeBits, long age, MemoryCell cell);
+}
@@ -0,0 +1,238 @@
+package enerj.rt;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The built in error models, and selection of models by name.
+ */
+final class ErrorModels {
+    private ErrorModels() {
+    }
+
+    /**
+     * Get an error model.
+     * @param name "none", "static", "decay", "pcm" or the fully qualified name
+     * of a class implementing ErrorModel
+     * @param invProb Inverse probability of a bit error for the static model
+     * @param invProbPerSecond Inverse probability of a bit error per second
+     * for the decay model
+     * @return The error model
+     */
+    static ErrorModel forName(String name, long invProb, long invProbPerSecond) {
+        switch (name.toLowerCase()) {
+        case "none":
+            return NONE;
+        case "static":
+            return new Static(invProb);
+        case "decay":
+            return new Decay(invProbPerSecond);
+        case "pcm":
+            return new PCMDrift();
+        default:
+            try {
+                return Class.forName(name).asSubclass(ErrorModel.class).newInstance();
+            } catch (ClassNotFoundException e) {
+                System.err.println("Unknown error model: " + name);
+            } catch (ClassCastException e) {
+                System.err.println(name + " is not an ErrorModel");
+            } catch (InstantiationException e) {
+                System.err.println("Could not create error model " + name);
+            } catch (IllegalAccessException e) {
+                System.err.println("Could not create error model " + name);
+            }
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Flip each of the low bits of a value independently with probability
+     * p. Rather than drawing a random number per bit, the distance to the
+     * next flipped bit is drawn from the geometric distribution.
+     * @param bits Raw bits of the value
+     * @param n Number of low bits that may flip
+     * @param p Probability of a bit flip
+     * @param logq Precomputed log(1 - p)
+     * @return The bits, possibly with errors
+     */
+    static long flip(long bits, int n, double p, double logq) {
+        if (n <= 0 || p <= 0)
+            return bits;
+        if (p >= 1)
+            return bits ^ (n >= 64 ? -1L : (1L << n) - 1);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int pos = -1;
+        while (true) {
+            double skip = Math.floor(Math.log(1.0 - random.nextDouble()) / logq);
+            if (skip >= n - 1 - pos)
+                return bits;
+            pos += (int)skip + 1;
+            bits ^= 1L << pos;
+        }
+    }
+
+    /**
+     * Probability of an event that used to be drawn as
+     * (long)(random * invProb) == 0.
+     */
+    static double probability(long invProb) {
+        return invProb <= 1 ? 1.0 : 1.0 / invProb;
+    }
+
+    /**
+     * No errors at all.
+     */
+    static final ErrorModel NONE = new ErrorModel() {
+        @Override
+        public long apply(long bits, int width, int approximativeBits,
+                          long age, MemoryCell cell) {
+            return bits;
+        }
+    };
+
+    /**
+     * Every read flips each approximate bit with a fixed probability, e.g.
+     * SRAM read upsets or write failures.
+     */
+    static final class Static implements ErrorModel {
+        private final double p;
+        private final double logq;
+
+        Static(long invProb) {
+            p = probability(invProb);
+            logq = Math.log1p(-p);
+        }
+
+        @Override
+        public long apply(long bits, int width, int approximativeBits,
+                          long age, MemoryCell cell) {
+            return flip(bits, Math.min(width, approximativeBits), p, logq);
+        }
+    }
+
+    /**
+     * Bits decay over time, e.g. DRAM with a lowered refresh rate: the
+     * probability of a bit flip grows with the age of the data.
+     */
+    static final class Decay implements ErrorModel {
+        private final long invProbPerMilli;
+
+        /**
+         * @param invProbPerSecond Inverse probability of a bit flip per
+         * second; 0 disables errors
+         */
+        Decay(long invProbPerSecond) {
+            invProbPerMilli = invProbPerSecond * 1000L;
+        }
+
+        @Override
+        public long apply(long bits, int width, int approximativeBits,
+                          long age, MemoryCell cell) {
+            if (invProbPerMilli == 0 || age <= 0) // Instant occasions will not cause any drift
+                return bits;
+            double p = probability(invProbPerMilli / age);
+            return flip(bits, Math.min(width, approximativeBits), p, Math.log1p(-p));
+        }
+    }
+
+    /**
+     * Resistance drift of multi-level (2 bits per cell) PCM. Cells in the
+     * intermediate states S2 (10) and S3 (01) drift with a probability
+     * that depends on the age of the data. A cell drifts at most once until
+     * it's written again.
+     */
+    static final class PCMDrift implements ErrorModel {
+        /* Indexes represents 2s, 4s, 8s, ... */
+        //double[] S2ErrorRateLookup = {24.0, 24.0, 7.2, 5.1, 4.15, 3.7, 3.4, 3.1,
+        //    3.0, 2.9, 2.8, 2.7, 2.6, 2.5, 2.4, 2.3, 2.2, 2.1};
+        private static final double[] S2_ERROR_RATES = {1e-24, 1.59e-12, 5.85e-6, 7.45e-4, .01, .02,
+                                                        .05, .08, .12, .17, .22, .28, .35, .43, .52, .62, .73};
+
+        /* Indexes represents 2s, 4s, 8s, ... */
+        //double[] S3ErrorRateLookup = {7.5, 3.6, 2.9, 2.5, 2.25, 2.0, 1.9, 1.8, 1.7,
+        //    1.5, 1.2, 1.1, 1.0, 0.9, 0.8, 0.75, 0.7, 0.65};
+        private static final double[] S3_ERROR_RATES = {5.85e-6, .02, .12, .28, .52, .85, 1.30, 1.90,
+                                                        2.67, 3.64, 4.84, 6.29, 7.99, 9.95, 12.16, 14.61, 17.27};
+
+        // Low bit of every two-bit cell
+        private static final long CELL_LOW_BITS = 0x5555555555555555L;
+
+        /**
+         * Probability of a drift per cell by age bucket, as thresholds for a
+         * uniform 63 bit random number
+         */
+        private final long[] s2Threshold = new long[S2_ERROR_RATES.length];
+        private final long[] s3Threshold = new long[S3_ERROR_RATES.length];
+
+        /**
+         * Ages (in seconds) from which log2 rounds up rather than down:
+         * floor(2^(k + 1/2)) for ages with k as highest bit
+         */
+        private final long[] roundUpFrom = new long[63];
+
+        PCMDrift() {
+            double scale = Math.pow(2, 63);
+            for (int i = 0; i < s2Threshold.length; i++) {
+                s2Threshold[i] = (long)(.01 * S2_ERROR_RATES[i] * scale); // Rates are in percent
+                s3Threshold[i] = (long)(.01 * S3_ERROR_RATES[i] * scale);
+            }
+            for (int k = 0; k < roundUpFrom.length; k++)
+                roundUpFrom[k] = (long)Math.floor(Math.pow(2, k + 0.5));
+        }
+
+        /**
+         * @param age Age of the data in milliseconds
+         * @return Age bucket: round(log2(seconds)) - 1, where all under 2s
+         * is bucket 0 and ages beyond the tables use the last bucket
+         */
+        int bucket(long age) {
+            long seconds = age / 1000;
+            if (seconds <= 1)
+                return 0;
+            int k = 63 - Long.numberOfLeadingZeros(seconds);
+            int index = k - 1 + (seconds > roundUpFrom[k] ? 1 : 0);
+            return Math.min(index, s2Threshold.length - 1);
+        }
+
+        @Override
+        public long apply(long bits, int width, int approximativeBits,
+                          long age, MemoryCell cell) {
+            if (age <= 0) // Instant occasions will not cause any drift
+                return bits;
+            int nCells = Math.min(width >> 1, approximativeBits);
+            if (nCells <= 0)
+                return bits;
+
+            // Cells in state S3 (01) and S2 (10), as a mask of their low bits
+            long low = bits & CELL_LOW_BITS;
+            long high = (bits >>> 1) & CELL_LOW_BITS;
+            long cells = nCells >= 32 ? -1L : (1L << (nCells << 1)) - 1;
+            long s3 = low & ~high & cells;
+            long s2 = high & ~low & cells;
+
+            int index = bucket(age);
+            long s3Threshold = this.s3Threshold[index];
+            long s2Threshold = this.s2Threshold[index];
+            if (s3Threshold == 0)
+                s3 = 0;
+            if (s2Threshold == 0)
+                s2 = 0;
+            if ((s3 | s2) == 0)
+                return bits;
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (long rest = s3 | s2; rest != 0; rest &= rest - 1) {
+                long lowBit = rest & -rest;
+                int valuebitpos = Long.numberOfTrailingZeros(lowBit);
+                if (cell.isFlipped(valuebitpos >> 1))
+                    continue;
+                boolean isS3 = (s3 & lowBit) != 0;
+                if ((random.nextLong() >>> 1) < (isS3 ? s3Threshold : s2Threshold)) {
+                    bits ^= isS3 ? lowBit : lowBit * 3; // 01 -> 00, 10 -> 01
+                    cell.setFlipped(valuebitpos >> 1);
+                }
+            }
+            return bits;
+        }
+    }
+}
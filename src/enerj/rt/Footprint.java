@@ -0,0 +1,180 @@
+package enerj.rt;
+
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+/**
+ * Footprint counters, e.g. byte-milliseconds of approximate heap data.
+ *
+ * Tracking the lifetime of every object can cost as much as the program
+ * itself, so each allocation may be tracked with probability 1/n only. The
+ * totals are then extrapolated by n and reported together with their
+ * standard error, estimated from the sampled values.
+ *
+ * Drawing a random number per allocation would cost about as much as the
+ * tracking saves, so each allocation site (class of the allocated object)
+ * counts down a geometrically distributed number of allocations to its next
+ * sampled one instead. That samples every allocation independently, unlike
+ * a fixed every n:th countdown, which can alias with periodic allocation
+ * patterns and for which the error estimate does not hold.
+ */
+class Footprint {
+    /**
+     * Track allocations with probability one over this
+     */
+    final int sampling;
+
+    /**
+     * Allocations left until the next sampled one, per site
+     */
+    private final ConcurrentHashMap<Class<?>, AtomicInteger> countdowns =
+        new ConcurrentHashMap<Class<?>, AtomicInteger>();
+
+    /**
+     * Sums of the sampled amounts and of their squares in one section, for
+     * {precise, approximate} data. Updated without locks.
+     */
+    private static final class Section {
+        final AtomicLongArray sums = new AtomicLongArray(2);
+        final AtomicLongArray squares = new AtomicLongArray(2); // Double bits
+
+        void add(int i, long amount) {
+            sums.addAndGet(i, amount);
+            double square = (double)amount * amount;
+            while (true) {
+                long old = squares.get(i);
+                long updated = Double.doubleToRawLongBits(Double.longBitsToDouble(old) + square);
+                if (squares.compareAndSet(i, old, updated))
+                    return;
+            }
+        }
+
+        double square(int i) {
+            return Double.longBitsToDouble(squares.get(i));
+        }
+    }
+
+    /**
+     * Section name, e.g. "heap-bytes" -> counters
+     */
+    private final ConcurrentHashMap<String, Section> sections =
+        new ConcurrentHashMap<String, Section>();
+
+    Footprint(int sampling) {
+        if (sampling < 1) {
+            System.err.println("Footprint sampling rate must be at least 1");
+            System.exit(1);
+        }
+        this.sampling = sampling;
+    }
+
+    /**
+     * Decide whether the lifetime of a new object should be tracked.
+     * @param o The newly created object
+     * @return True if the object is part of the sample
+     */
+    boolean sample(Object o) {
+        if (sampling == 1)
+            return true;
+        Class<?> site = o.getClass();
+        AtomicInteger countdown = countdowns.get(site);
+        if (countdown == null) {
+            AtomicInteger fresh = new AtomicInteger(nextGap());
+            countdown = countdowns.putIfAbsent(site, fresh);
+            if (countdown == null)
+                countdown = fresh;
+        }
+        while (true) {
+            int left = countdown.get();
+            int next = left <= 1 ? nextGap() : left - 1;
+            if (countdown.compareAndSet(left, next))
+                return left <= 1;
+        }
+    }
+
+    /**
+     * Number of allocations up to and including the next sampled one. It is
+     * geometric with mean n, the number of Bernoulli(1/n) trials until the
+     * first success.
+     */
+    int nextGap() {
+        double u = 1.0 - ThreadLocalRandom.current().nextDouble(); // (0, 1]
+        double gap = Math.floor(Math.log(u) / Math.log1p(-1.0 / sampling)) + 1;
+        return gap >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)gap;
+    }
+
+    /**
+     * Add the amount of one sampled object to a section.
+     * @param name Name of section, e.g. "heap-objects" or "stack-bytes"
+     * @param approx Whether the amount is approximate data or not
+     * @param amount Amount of the sampled object
+     */
+    void count(String name, boolean approx, long amount) {
+        Section section = sections.get(name);
+        if (section == null) {
+            Section fresh = new Section();
+            section = sections.putIfAbsent(name, fresh);
+            if (section == null)
+                section = fresh;
+        }
+        section.add(approx ? 1 : 0, amount);
+    }
+
+    /**
+     * @return Extrapolated total of a section
+     */
+    long total(String name, boolean approx) {
+        Section section = sections.get(name);
+        return section == null ? 0 : section.sums.get(approx ? 1 : 0) * sampling;
+    }
+
+    /**
+     * Standard error of the extrapolated total; every object is in the
+     * sample with probability 1/n.
+     * @return Standard error of the total of a section; 0 if not sampling
+     */
+    double error(String name, boolean approx) {
+        Section section = sections.get(name);
+        if (section == null)
+            return 0;
+        return Math.sqrt((double)sampling * (sampling - 1) * section.square(approx ? 1 : 0));
+    }
+
+    /**
+     * Write the extrapolated totals as "section": [precise, approx] and, if
+     * sampling, their standard errors the same way.
+     * @param writer Writer positioned where the values are expected
+     */
+    void write(JSONWriter writer) throws JSONException {
+        TreeSet<String> names = new TreeSet<String>(sections.keySet());
+        writer.key("footprint");
+        writer.object();
+        for (String sec : names) {
+            writer.key(sec);
+            writer.array();
+            writer.value(total(sec, false));
+            writer.value(total(sec, true));
+            writer.endArray();
+        }
+        writer.endObject();
+
+        writer.key("footprintSampling");
+        writer.value(sampling);
+        writer.key("footprintError");
+        writer.object();
+        for (String sec : names) {
+            writer.key(sec);
+            writer.array();
+            writer.value(error(sec, false));
+            writer.value(error(sec, true));
+            writer.endArray();
+        }
+        writer.endObject();
+    }
+}
@@ -0,0 +1,158 @@
+package enerj.rt;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+/**
+ * Time series of the live heap: precise and approximate bytes and objects
+ * that are allocated but not yet collected. Time is divided into buckets of
+ * a fixed length, and every bucket records the highest values seen during
+ * it. Only the latest buckets are kept, in a ring buffer.
+ *
+ * Updated without locks. The live counts themselves are exact, but an
+ * update that races with the start of a new bucket may be missing from the
+ * peak of that bucket.
+ */
+class LiveSeries {
+    // Counters, in this order in every bucket
+    private static final int PRECISE_BYTES = 0;
+    private static final int APPROX_BYTES = 1;
+    private static final int PRECISE_OBJECTS = 2;
+    private static final int APPROX_OBJECTS = 3;
+    private static final int N_COUNTERS = 4;
+    private static final String[] NAMES =
+        {"preciseBytes", "approxBytes", "preciseObjects", "approxObjects"};
+
+    private final long start = System.currentTimeMillis();
+    private final long interval; // Bucket length in milliseconds
+    private final int capacity; // Number of buckets kept
+    private final long scale; // Every tracked object stands for this many
+
+    private final AtomicLongArray live = new AtomicLongArray(N_COUNTERS);
+    private final AtomicLongArray peak = new AtomicLongArray(N_COUNTERS);
+
+    /**
+     * Peaks per bucket; bucket b is stored at (b % capacity) * N_COUNTERS
+     */
+    private final AtomicLongArray buckets;
+    private final AtomicLong currentBucket = new AtomicLong(0);
+
+    /**
+     * @param interval Bucket length in milliseconds
+     * @param capacity Number of buckets to keep
+     * @param scale Number of allocations each tracked object represents
+     */
+    LiveSeries(long interval, int capacity, long scale) {
+        if (interval < 1 || capacity < 1) {
+            System.err.println("Footprint interval and buckets must be at least 1");
+            System.exit(1);
+        }
+        this.interval = interval;
+        this.capacity = capacity;
+        this.scale = scale;
+        buckets = new AtomicLongArray(capacity * N_COUNTERS);
+    }
+
+    /**
+     * Register a new object.
+     * @param approx Whether the object is approximate or not
+     * @param preciseSize Precise data size of the object
+     * @param approxSize Approximate data size of the object
+     */
+    void allocated(boolean approx, long preciseSize, long approxSize) {
+        update(approx, preciseSize, approxSize, 1);
+    }
+
+    /**
+     * Register that an object has been collected.
+     * @param approx Whether the object is approximate or not
+     * @param preciseSize Precise data size of the object
+     * @param approxSize Approximate data size of the object
+     */
+    void collected(boolean approx, long preciseSize, long approxSize) {
+        update(approx, preciseSize, approxSize, -1);
+    }
+
+    private void update(boolean approx, long preciseSize, long approxSize, int sign) {
+        live.addAndGet(PRECISE_BYTES, sign * preciseSize * scale);
+        live.addAndGet(APPROX_BYTES, sign * approxSize * scale);
+        live.addAndGet(approx ? APPROX_OBJECTS : PRECISE_OBJECTS, sign * scale);
+
+        long bucket = advance((System.currentTimeMillis() - start) / interval);
+        if (bucket < 0)
+            return; // Too old to be kept
+        int base = (int)(bucket % capacity) * N_COUNTERS;
+        for (int i = 0; i < N_COUNTERS; i++) {
+            long value = live.get(i);
+            max(buckets, base + i, value);
+            max(peak, i, value);
+        }
+    }
+
+    /**
+     * Make sure that the ring buffer covers a bucket; buckets that are
+     * started are initialized with the current live values.
+     * @param bucket Wanted bucket
+     * @return The bucket, or -1 if it's no longer in the ring buffer
+     */
+    private long advance(long bucket) {
+        while (true) {
+            long current = currentBucket.get();
+            if (bucket <= current)
+                return bucket > current - capacity ? bucket : -1;
+            for (long b = Math.max(current + 1, bucket - capacity + 1); b <= bucket; b++) {
+                int base = (int)(b % capacity) * N_COUNTERS;
+                for (int i = 0; i < N_COUNTERS; i++)
+                    buckets.set(base + i, live.get(i));
+            }
+            if (currentBucket.compareAndSet(current, bucket))
+                return bucket;
+        }
+    }
+
+    private static void max(AtomicLongArray array, int i, long value) {
+        while (true) {
+            long old = array.get(i);
+            if (old >= value || array.compareAndSet(i, old, value))
+                return;
+        }
+    }
+
+    /**
+     * Write the series as "liveSeries": {"interval": ms, "start": first
+     * bucket, "<counter>": [peak per bucket]} and the peaks of the whole run
+     * as "livePeak": {"<counter>": peak}.
+     * @param writer Writer positioned where the values are expected
+     */
+    void write(JSONWriter writer) throws JSONException {
+        advance((System.currentTimeMillis() - start) / interval);
+        long last = currentBucket.get();
+        long first = Math.max(0, last - capacity + 1);
+
+        writer.key("liveSeries");
+        writer.object();
+        writer.key("interval");
+        writer.value(interval);
+        writer.key("start");
+        writer.value(first);
+        for (int i = 0; i < N_COUNTERS; i++) {
+            writer.key(NAMES[i]);
+            writer.array();
+            for (long b = first; b <= last; b++)
+                writer.value(buckets.get((int)(b % capacity) * N_COUNTERS + i));
+            writer.endArray();
+        }
+        writer.endObject();
+
+        writer.key("livePeak");
+        writer.object();
+        for (int i = 0; i < N_COUNTERS; i++) {
+            writer.key(NAMES[i]);
+            writer.value(peak.get(i));
+        }
+        writer.endObject();
+    }
+}
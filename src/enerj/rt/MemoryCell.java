@@ -0,0 +1,20 @@
+package enerj.rt;
+
+/**
+ * State of the memory cells holding a value, for error models that depend
+ * on earlier errors (e.g. multi-level PCM cells that have already drifted).
+ * The state is cleared when the value is written to other cells.
+ */
+public interface MemoryCell {
+    /**
+     * @param pos Position of the cell
+     * @return Whether the cell has already suffered an error
+     */
+    boolean isFlipped(int pos);
+
+    /**
+     * Record that a cell has suffered an error.
+     * @param pos Position of the cell
+     */
+    void setFlipped(int pos);
+}
@@ -81,6 +81,11 @@ public interface PrecisionRuntime extends Runtime {
 	public <T> T storeArray(Object array, int index, boolean approx, T rhs);
 	public <T> T storeField(Object obj, String fieldname, boolean approx, T rhs);
 
+	// Approximate primitive locals kept unboxed, by the load-time agent.
+	// The values are passed as raw bits of the given width.
+	public long loadLocalBits(long bits, int width, int approximativeBits);
+	public long storeLocalBits(long bits, int width, int approximativeBits);
+
 	// Fancier assignments.
 	public <T extends Number> T assignopLocal(Reference<T> var, ArithOperator op, Number rhs, boolean returnOld, NumberKind nk, boolean approx, int approximativeBits);
 	public <T extends Number> T assignopArray(Object array, int index, ArithOperator op, Number rhs, boolean returnOld, NumberKind nk, boolean approx, int approximativeBits);
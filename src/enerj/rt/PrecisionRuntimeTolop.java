@@ -14,22 +14,19 @@ package enerj.rt;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.lang.ref.PhantomReference;
 import java.lang.ref.ReferenceQueue;
-
-import plume.WeakIdentityHashMap;
+import java.lang.ref.WeakReference;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
@@ -37,16 +34,21 @@ import java.lang.reflect.Modifier;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONStringer;
+import org.json.JSONReader;
 import org.json.JSONTokener;
+import org.json.JSONWriter;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 
 import enerj.AnnotationType;
+import enerj.ClassInfoFile;
 import enerj.FieldInfoContainer;
 import enerj.MyTuple;
 
@@ -145,8 +147,7 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     /**
      *  Address specific variables.
      */
-    private long addressGeneratorPrecise = 0; // Address counter of precise memory
-    private long addressGeneratorApprox = 0; // Address counter of approximate memory
+    private SimulatedAllocator allocator; // Hands out simulated addresses
     private int cacheSize; // Total size of the cache
     private int cacheLineSizeInWords; // Size of a cache line in words
     private int cacheLineSizeInQytes; // Size of a cache line in bytes
@@ -159,6 +160,24 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      * Maps an address tag to SRAM/DRAM time data.
      */
     private List<HashMap<Long, TimeTuple>> sramContainer;// Which line is in the cache now?
+
+    /**
+     * Private caches of the simulated cores, in front of sramContainer; null
+     * if all threads share sramContainer directly.
+     */
+    private PrivateCaches privateCaches = null;
+
+    /**
+     * Finite register files of the threads; null if locals are kept in
+     * ideal registers.
+     */
+    private RegisterFile registerFile = null;
+
+    /**
+     * Background decay of approximate primitive arrays; null if arrays
+     * only decay lazily when their lines are filled from DRAM.
+     */
+    private DRAMScrubber scrubber = null;
     
     /**
      *  Define fundamental size related to 64 bit addresses
@@ -175,18 +194,6 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     private long tagMask; // Mask for getting tags from addresses
     private boolean padCacheLines = false; // Whether cache lines should be padded to the end after allocation, or not
     private boolean differentDRAMSpaces = true; // Whether approx/precise lives in different DRAM
-    
-    /* Indexes represents 2s, 4s, 8s, ... */
-    //double[] S2ErrorRateLookup = {24.0, 24.0, 7.2, 5.1, 4.15, 3.7, 3.4, 3.1,
-    //    3.0, 2.9, 2.8, 2.7, 2.6, 2.5, 2.4, 2.3, 2.2, 2.1};
-    double[] S2ErrorRateLookup = {1e-24, 1.59e-12, 5.85e-6, 7.45e-4, .01, .02,
-				  .05, .08, .12, .17, .22, .28, .35, .43, .52, .62, .73};
-
-    /* Indexes represents 2s, 4s, 8s, ... */
-    //double[] S3ErrorRateLookup = {7.5, 3.6, 2.9, 2.5, 2.25, 2.0, 1.9, 1.8, 1.7,
-    //    1.5, 1.2, 1.1, 1.0, 0.9, 0.8, 0.75, 0.7, 0.65};
-    double[] S3ErrorRateLookup = {5.85e-6, .02, .12, .28, .52, .85, 1.30, 1.90,
-				  2.67, 3.64, 4.84, 6.29, 7.99, 9.95, 12.16, 14.61, 17.27};
 
     /**
      * Maps specific (unique) key representation of some memory block -> its
@@ -210,6 +217,12 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      */
     private Map<String, HashMap<String, FieldInfoContainer>> classInfo =
         new HashMap<String, HashMap<String, FieldInfoContainer>>();
+
+    /**
+     * Memory mapped binary class info file. When present, classInfo only acts
+     * as a cache of the classes decoded from it so far.
+     */
+    private ClassInfoFile classInfoStore = null;
     
     /**
      * Map to representations of cache lines. Used to eventually introduce
@@ -217,6 +230,33 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      */
     private Map<Long, ArrayList<String>> cachelineTracker;
 
+    /**
+     * Weak reference to an object that owns simulated memory, i.e. its fields
+     * or array elements. When the object has been collected, its memory
+     * blocks are removed from memorySpace and cachelineTracker and their
+     * addresses are freed for reuse.
+     */
+    private static final class ObjectMemory extends WeakReference<Object> {
+        final ArrayList<String> keys = new ArrayList<String>();
+        final ArrayList<AddressInformation> blocks = new ArrayList<AddressInformation>();
+
+        ObjectMemory(Object o, ReferenceQueue<Object> queue) {
+            super(o, queue);
+        }
+
+        void add(String key, AddressInformation ainfo) {
+            keys.add(key);
+            blocks.add(ainfo);
+        }
+    }
+
+    /**
+     * All objects that own simulated memory which is not purged yet. Also
+     * keeps the weak references themselves reachable until they are enqueued.
+     */
+    private Set<ObjectMemory> memoryOwners = new HashSet<ObjectMemory>();
+    private ReferenceQueue<Object> purgeQueue = new ReferenceQueue<Object>();
+
     /**
      * Create start address for the wanted amount of memory space.
      * @param nMemory Wanted amount of memory
@@ -225,20 +265,106 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      * @return Start address for the wanted amount of memory
      */
     private long createAddress(long nMemory, boolean approx) {
-        long address;
-        if (approx && differentDRAMSpaces) {
-	    // TODO #general Use address mask instead of explicit 'approx' field?  
-            address = addressGeneratorApprox;
-            addressGeneratorApprox += nMemory;
+	// TODO #general Use address mask instead of explicit 'approx' field?  
+        return allocator.allocateConsecutive(nMemory, approx);
+    }
+
+    /**
+     * Remove the simulated memory of all objects collected so far. Must be
+     * called while holding the runtime lock.
+     */
+    private void purgeCollectedObjects() {
+        java.lang.ref.Reference<?> ref;
+        while ((ref = purgeQueue.poll()) != null) {
+            ObjectMemory owner = (ObjectMemory)ref;
+            if (!memoryOwners.remove(owner))
+                continue;
+            for (int i = 0; i < owner.keys.size(); i++)
+                releaseMemoryBlock(owner.keys.get(i), owner.blocks.get(i));
         }
-        else {
-	    // If the same DRAM space is used for precise/approx memory,
-	    // it doesn't matter technically what generator is used - using
-	    // "...Precise" is sufficient.
-            address = addressGeneratorPrecise;
-            addressGeneratorPrecise += nMemory;
+    }
+
+    /**
+     * Forget a memory block of a collected object and free its address.
+     * @param key Memory key of the block
+     * @param ainfo Address information of the block
+     */
+    private void releaseMemoryBlock(String key, AddressInformation ainfo) {
+        // Keys are based on identity hash codes, so a live object may have
+        // reused the key. It then took the key over, including its entry in
+        // the cache line (see putMemoryBlock).
+        if (memorySpace.get(key) == ainfo) {
+            memorySpace.remove(key);
+            removeFromCacheline(key, ainfo);
+        }
+        allocator.free(ainfo.getAddress(), ainfo.getSize(), ainfo.approx);
+    }
+
+    /**
+     * Register the memory block of a new object's field or array element,
+     * which was already added to its cache line.
+     * @param key Memory key of the block
+     * @param ainfo Address information of the block
+     */
+    private void putMemoryBlock(String key, AddressInformation ainfo) {
+        AddressInformation previous = memorySpace.put(key, ainfo);
+        // The key of a collected object that isn't purged yet: the old
+        // block can't be found by it anymore, and must not keep it in its
+        // cache line, or errors of that line would hit the new block
+        if (previous != null && previous != ainfo)
+            removeFromCacheline(key, previous);
+    }
+
+    /**
+     * Take a memory key of a block off the block's cache line, and forget
+     * the line once it holds no data.
+     * @param key Memory key of the block
+     * @param ainfo Address information of the block
+     */
+    private void removeFromCacheline(String key, AddressInformation ainfo) {
+        long address = ainfo.getAddress();
+        Long cachelineAddress =
+            Long.valueOf(getCacheLineAddress(ainfo.approx ? address | approxMask : address));
+        ArrayList<String> cacheline = cachelineTracker.get(cachelineAddress);
+        if (cacheline != null) {
+            cacheline.remove(key);
+            if (cacheline.isEmpty()) {
+                cachelineTracker.remove(cachelineAddress);
+                memoryTimeStamps.remove((ainfo.approx ? "A" : "P")
+                                        + ((address >> offsetBits) >> nApproxWordsPerLineBits));
+                invalidateCacheLine(address, ainfo.approx);
+            }
         }
-        return address;
+    }
+
+    /**
+     * Drop a cache line that no longer holds any data from the shared cache
+     * and the private caches, so that it's never evicted (there's nothing
+     * left to apply errors to).
+     * @param address Any address in the cache line
+     * @param approx Whether the line is in the approximate memory space
+     */
+    private void invalidateCacheLine(long address, boolean approx) {
+        long addrNoWordOffset = (address >> offsetBits) >> nApproxWordsPerLineBits;
+        long addrTag = address & tagMask;
+        if (approx)
+            addrTag |= approxMask;
+        sramContainer.get((int)(addrNoWordOffset % nIndexes)).remove(addrTag);
+        if (privateCaches != null)
+            privateCaches.invalidate(approx ? addrNoWordOffset | approxMask : addrNoWordOffset);
+    }
+
+    /**
+     * @param ainfo A memory block
+     * @return Whether the cache line of the block is in the shared cache or
+     * in a private cache
+     */
+    private boolean isCached(AddressInformation ainfo) {
+        long addrNoWordOffset = (ainfo.getAddress() >> offsetBits) >> nApproxWordsPerLineBits;
+        if (sramContainer.get((int)(addrNoWordOffset % nIndexes)).containsKey(getAddrTag(ainfo)))
+            return true;
+        return privateCaches != null
+            && privateCaches.holds(ainfo.approx ? addrNoWordOffset | approxMask : addrNoWordOffset);
     }
     
     /**
@@ -252,7 +378,7 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     	boolean approx = (address & approxMask) != 0;
     	if (approx) { // If set: avoid tag mask mess-up
 	    cachelineAddress = address & ~approxMask;
-	    cachelineAddress = address - (address % cacheLineSizeInQytes);
+	    cachelineAddress -= cachelineAddress % cacheLineSizeInQytes;
 	    cachelineAddress |= approxMask;
     	}
     	else {
@@ -307,9 +433,7 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      * @return Current value of some memory counter
      */
     public long peekAddress(boolean approx) {
-        return (approx && differentDRAMSpaces)
-            ? addressGeneratorApprox
-            : addressGeneratorPrecise;
+        return allocator.peek(approx);
     }
     
     /**
@@ -351,6 +475,7 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      */
     public void setDifferentDRAMSpace(boolean differentDRAMSpaces) {
         this.differentDRAMSpaces = differentDRAMSpaces;
+        allocator.setDifferentSpaces(differentDRAMSpaces);
     }
 
     /**
@@ -475,10 +600,15 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      * @param created The array to assign addresses to
      * @param approx Whether the array contains approximate values or not 
      */
-    private <T> void assignAddressesToArrayItems(T created, boolean approx,
+    private synchronized <T> void assignAddressesToArrayItems(T created, boolean approx,
 						 boolean isValue, int approximativeBits) {
+        purgeCollectedObjects();
+
         // then, give all values addresses
         Object arr = created;
+        // Owner of the memory of each (sub) array
+        final IdentityHashMap<Object, ObjectMemory> owners =
+            new IdentityHashMap<Object, ObjectMemory>();
         ElementProcessor p = new ElementProcessor() {
             @Override
             public void process(Object arr, int index, boolean approx, int approximativeBits) {
@@ -509,8 +639,17 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
                 AddressInformation ainfo =
                             new AddressInformation(tim, approx, true, preciseSize,
                                approxSize, approximativeBits, address, startup-1); // -1: Trick to force oldest possible time stamp
-                ainfo.setType(arr, index);
-                memorySpace.put(key, ainfo);
+                ObjectMemory owner = owners.get(arr);
+                if (owner == null) {
+                    owner = new ObjectMemory(arr, purgeQueue);
+                    owners.put(arr, owner);
+                    memoryOwners.add(owner);
+                    if (approx && scrubber != null)
+                        scrubber.register(arr, approximativeBits, tim);
+                }
+                owner.add(key, ainfo);
+                ainfo.setType(owner, index);
+                putMemoryBlock(key, ainfo);
             }
 	    };
         addressesToArrayElemsAux(arr, p, approx, isValue, approximativeBits);
@@ -546,20 +685,20 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      *
      * @param <T> The (generic) return type
      * @param currentTimeTuple Data line of the current memory block
-     * @param addrTag The address (tag)
+     * @param lineAddress Address of the cache line
      * @param currentTimeStamp Current time stamp to calculate to
      * @param dram true if the cacheline is read from dram
      * false if a static error model is to be used
      */
     private <T> void introduceErrorsOnCacheLine(TimeTuple currentTimeTuple,
-						long addrTag, 
+						long lineAddress,
 						long currentTimeStamp,
 						boolean dram) {
         /* Apply the error model to approximate data */
-        ArrayList<String> cacheline = getFromCacheLineTracker(addrTag);
+        ArrayList<String> cacheline = getFromCacheLineTracker(lineAddress);
         AddressInformation addressInfo;
-        for (String key : cacheline) {
-            addressInfo = memorySpace.get(key);
+        for (int k = 0; k < cacheline.size(); k++) {
+            addressInfo = memorySpace.get(cacheline.get(k));
             /*
             if (dram) {
             // Reading from DRAM and writing into cache
@@ -574,12 +713,116 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
             if (ALLOW_APPROXIMATE && addressInfo.approximativeBits != 0) {
                 // Check if this item has approximative bits and in that case
                 // apply errors
-                loadChangeStore(addressInfo, currentTimeTuple, currentTimeStamp, dram);
-                addressInfo.clearFlipped();
+                Object array = addressInfo.getFieldname() == null ? addressInfo.getObject() : null;
+                if (array == null) {
+                    loadChangeStore(addressInfo, currentTimeTuple, currentTimeStamp, dram);
+                    addressInfo.clearFlipped();
+                    continue;
+                }
+
+                // Collect the following elements of the same array, and
+                // apply errors to all of them at once
+                int n = 0;
+                lineRun[n++] = addressInfo;
+                while (k + 1 < cacheline.size()) {
+                    AddressInformation next = memorySpace.get(cacheline.get(k + 1));
+                    if (next.approximativeBits == 0 || next.getFieldname() != null
+                        || next.getIndex() != lineRun[n - 1].getIndex() + 1
+                        || next.getObject() != array)
+                        break;
+                    lineRun[n++] = next;
+                    k++;
+                }
+                applyErrorsToArray(array, lineRun, n, currentTimeTuple, currentTimeStamp, dram);
+                for (int j = 0; j < n; j++) {
+                    lineRun[j].clearFlipped();
+                    lineRun[j] = null;
+                }
             }
         }
     }
 
+    /**
+     * Elements of one array in the cache line being handled, in index order.
+     * A cache line holds at most one more block than its size in qytes.
+     */
+    private AddressInformation[] lineRun;
+
+    /**
+     * Apply the error model to consecutive elements of an array. Primitive
+     * arrays are changed directly, without boxing or reflection.
+     * @param array The array
+     * @param run Address information of the elements, in index order
+     * @param n Number of elements
+     * @param currentTimeTuple Data line of the current memory block
+     * @param currentTimeStamp Current time stamp
+     * @param dram True if this is an access to dram (main memory)
+     */
+    private void applyErrorsToArray(Object array, AddressInformation[] run, int n,
+                                    TimeTuple currentTimeTuple,
+                                    long currentTimeStamp, boolean dram) {
+        if (dram && scrubber != null && scrubber.covers(array)) {
+            // Decayed in the background instead
+            for (int j = 0; j < n; j++)
+                run[j].setTimeStamp(currentTimeStamp);
+            return;
+        }
+        if (array instanceof int[]) {
+            int[] a = (int[])array;
+            for (int j = 0; j < n; j++) {
+                int i = run[j].getIndex();
+                a[i] = (int)applyError(a[i], 32, run[j], currentTimeTuple, currentTimeStamp, dram);
+            }
+        } else if (array instanceof float[]) {
+            float[] a = (float[])array;
+            for (int j = 0; j < n; j++) {
+                int i = run[j].getIndex();
+                a[i] = Float.intBitsToFloat((int)applyError(Float.floatToRawIntBits(a[i]), 32, run[j],
+                                                            currentTimeTuple, currentTimeStamp, dram));
+            }
+        } else if (array instanceof double[]) {
+            double[] a = (double[])array;
+            for (int j = 0; j < n; j++) {
+                int i = run[j].getIndex();
+                a[i] = Double.longBitsToDouble(applyError(Double.doubleToRawLongBits(a[i]), 64, run[j],
+                                                          currentTimeTuple, currentTimeStamp, dram));
+            }
+        } else if (array instanceof long[]) {
+            long[] a = (long[])array;
+            for (int j = 0; j < n; j++) {
+                int i = run[j].getIndex();
+                a[i] = applyError(a[i], 64, run[j], currentTimeTuple, currentTimeStamp, dram);
+            }
+        } else if (array instanceof short[]) {
+            short[] a = (short[])array;
+            for (int j = 0; j < n; j++) {
+                int i = run[j].getIndex();
+                a[i] = (short)applyError(a[i], 16, run[j], currentTimeTuple, currentTimeStamp, dram);
+            }
+        } else if (array instanceof char[]) {
+            char[] a = (char[])array;
+            for (int j = 0; j < n; j++) {
+                int i = run[j].getIndex();
+                a[i] = (char)applyError(a[i], 16, run[j], currentTimeTuple, currentTimeStamp, dram);
+            }
+        } else if (array instanceof byte[]) {
+            byte[] a = (byte[])array;
+            for (int j = 0; j < n; j++) {
+                int i = run[j].getIndex();
+                a[i] = (byte)applyError(a[i], 8, run[j], currentTimeTuple, currentTimeStamp, dram);
+            }
+        } else if (array instanceof boolean[]) {
+            boolean[] a = (boolean[])array;
+            for (int j = 0; j < n; j++) {
+                int i = run[j].getIndex();
+                a[i] = applyError(a[i] ? -1L : 0L, 8, run[j], currentTimeTuple, currentTimeStamp, dram) != 0;
+            }
+        }
+        // Arrays of references can't get errors, but are touched all the same
+        for (int j = 0; j < n; j++)
+            run[j].setTimeStamp(currentTimeStamp);
+    }
+
     /**
      * Apply some error model on a data item
      * @param value The data to apply the error model on
@@ -589,79 +832,59 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      * @param dram True if this is an access to dram (main memory)
      * @param <T> Generic type of value
      */
+    @SuppressWarnings("unchecked")
     private <T> T applyError(T value, 
 			     AddressInformation addressInfo, 
 			     TimeTuple currentTimeTuple,
 			     long currentTimeStamp, 
 			     boolean dram) {
+	/* To assure the we don't apply errors when we are not
+	 * supposed to */
+	if (!ALLOW_APPROXIMATE || !isPrimitive(value))
+	    return value;
+	return (T) fromBits(applyError(toBits(value), numQytes(value) << 3, addressInfo,
+				       currentTimeTuple, currentTimeStamp, dram),
+			    value);
+    }
 
-	long lastTime    = -1;
-	long currentTime = -1;
-	long invProb     = 0;
-	boolean dynamic  = false;
+    /**
+     * Apply some error model on the raw bits of a primitive data item.
+     * @param bits The bits of the data
+     * @param width Width of the data in bits
+     * @param addressInfo The address information of the data
+     * @param currentTimeTuple Data line of the current memory block
+     * @param currentTime Current time stamp
+     * @param dram True if this is an access to dram (main memory)
+     * @return The bits, possibly with errors
+     */
+    private long applyError(long bits,
+			    int width,
+			    AddressInformation addressInfo, 
+			    TimeTuple currentTimeTuple,
+			    long currentTimeStamp, 
+			    boolean dram) {
 
 	/* To assure the we don't apply errors when we are not
 	 * supposed to */
 	if (!ALLOW_APPROXIMATE)
-	    return value;
+	    return bits;
 
-	/* Select error model */
+	ErrorModel model;
+	long age;
 	if (dram) {
-        switch (DRAMmode) {
-        case DYNAMIC:
-            lastTime    = currentTimeTuple.getDramTime();
-            currentTime = currentTimeStamp;
-            invProb     = INVPROB_DRAM_FLIP_PER_SECOND;
-            dynamic     = true;
-            break;
-        case STATIC:
-            invProb     = INVPROB_SRAM_WRITE_FAILURE; // Use same probability as SRAM
-            dynamic     = false;
-            break;
-        default:
-            assert false;
-            System.err.println("ERROR: DRAMMode reached NONE - check this...");
-            break;
-        }
-
-	    if (SRAMmode == ErrorModes.STATIC) {
-            lastTime    = 0;
-            currentTime = 0;
-            invProb     = INVPROB_SRAM_WRITE_FAILURE;
-            dynamic     = false;
-	    }
+	    model = dramErrorModel;
+	    age   = currentTimeStamp - currentTimeTuple.getDramTime();
 	}
-    else {
-        switch (SRAMmode) {
-        case DYNAMIC:
-            lastTime    = addressInfo.getTimeStamp();
-            currentTime = currentTimeStamp;
-            invProb     = INVPROB_DRAM_FLIP_PER_SECOND;
-            dynamic     = true;
-            break;
-        case STATIC:
-            lastTime    = 0;
-            currentTime = 0;
-            invProb     = INVPROB_SRAM_READ_UPSET;
-            dynamic     = false;
-            break;
-        default:
-            assert false;
-            System.err.println("ERROR: SRAMMode reached NONE - check this...");
-            break;
-        }
+	else {
+	    model = sramErrorModel;
+	    age   = currentTimeStamp - addressInfo.getTimeStamp();
 	}
 
-	if (dynamic) {
-	    //--invProb is always the same for dynamic
-	    if (PCM_SIMULATION)
-		value = driftReadPCM((T)value, addressInfo, lastTime,
-				     currentTime, addressInfo.getApproximativeBits());
-	    else
-		value = driftRead(value, lastTime, currentTime, addressInfo.getApproximativeBits()); 
-	} else
-	    value = bitError(value, invProb, addressInfo.getApproximativeBits());
-	return value;
+	int approximativeBits = addressInfo.getApproximativeBits();
+	long result = model.apply(bits, width, approximativeBits, age, addressInfo);
+	if (result != bits)
+	    BitFlips.count(runInfo, bits ^ result, approximativeBits);
+	return result;
     }
 
     /**
@@ -677,33 +900,34 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 				     TimeTuple currentTimeTuple, 
 				     long currentTimeStamp, 
 				     boolean dram) {
-        Object[] objAndSpec = addressInfo.getObjectAndSpecification();
+        Object obj = addressInfo.getObject();
+        if (obj == null) // Collected but not purged yet, or static
+            return;
+        String fieldname = addressInfo.getFieldname();
 
-        if (isPrimitive(objAndSpec[1])) { //--Data is from array index
-            int index = ((Integer)objAndSpec[1]).intValue();
-            T value = (T)Array.get(objAndSpec[0], index);
-            value = applyError(value, addressInfo, currentTimeTuple, currentTimeStamp, dram);
-                Array.set(objAndSpec[0], index, value);
-                addressInfo.setTimeStamp(currentTimeStamp);
-            }
+        if (fieldname == null) { //--Data is from array index
+            lineRun[0] = addressInfo;
+            applyErrorsToArray(obj, lineRun, 1, currentTimeTuple, currentTimeStamp, dram);
+            lineRun[0] = null;
+        }
         else { //--Data is from class field
-                try {
-                    Field field = ((Object)objAndSpec[0]).getClass().
-                getDeclaredField((String)objAndSpec[1]);
-                    field.setAccessible(true);
-                    Object value = field.get((Object)objAndSpec[0]);
-            value = (Object)applyError(value, addressInfo, currentTimeTuple, currentTimeStamp, dram);
-                    field.set((Object)objAndSpec[0], value);
-            addressInfo.setTimeStamp(currentTimeStamp);
+            try {
+                Field field = ClassLayout.of(obj.getClass()).getField(fieldname);
+                if (field == null)
+                    throw new NoSuchFieldException(fieldname);
+                Object value = field.get(obj);
+                value = (Object)applyError(value, addressInfo, currentTimeTuple, currentTimeStamp, dram);
+                field.set(obj, value);
+                addressInfo.setTimeStamp(currentTimeStamp);
             }
             catch (NoSuchFieldException e) {
-            System.err.println(String.format("introduceErrorsOnCacheLine:"
-                             + "No field: %s; could not introduce errors...",
-                             (String)objAndSpec[1]));
+                System.err.println(String.format("introduceErrorsOnCacheLine:"
+                                                 + "No field: %s; could not introduce errors...",
+                                                 fieldname));
             }
             catch (IllegalAccessException e) {
-            System.err.println("introduceErrorsOnCacheLine: "
-                       + "Illegal field access; could not introduce errors...");
+                System.err.println("introduceErrorsOnCacheLine: "
+                                   + "Illegal field access; could not introduce errors...");
             }
         }
     }
@@ -721,6 +945,8 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     private long evictCacheLine(HashMap<Long, TimeTuple> indexAssocLine,
 				TimeTuple currentTimeTuple, long tim, AddressInformation currentAinfo) {
     	final long currentAddrTag = getAddrTag(currentAinfo);
+        // A tag alone doesn't give the line; both lines are in the same set
+        final long indexBits = currentAinfo.getAddress() & ~tagMask & -(long)cacheLineSizeInQytes;
     	long sramTime = 0;
         Long evictedAddressTag = (long)0;
         TimeTuple evictedTimeTuple = null;
@@ -768,12 +994,12 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
         }
 
 	/* Loaded cacheline from DRAM */
-	introduceErrorsOnCacheLine(currentTimeTuple, currentAddrTag, tim, true);
+	introduceErrorsOnCacheLine(currentTimeTuple, currentAddrTag | indexBits, tim, true);
 	currentTimeTuple.setSramTime(tim);
 	
 	/* Evicted cache line */
 	if (evictionOccurred) {
-	    introduceErrorsOnCacheLine(currentTimeTuple, evictedAddressTag, tim, false);
+	    introduceErrorsOnCacheLine(currentTimeTuple, evictedAddressTag | indexBits, tim, false);
 	    evictedTimeTuple.setDramTime(tim);
 	}
         
@@ -789,6 +1015,9 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      * @return TimeTuple of the actual data block
      */
     private <T> Boolean memoryOp(String key, boolean store, long currentTime) {
+        // A program may stop allocating long before it stops accessing memory
+        purgeCollectedObjects();
+
     	//--Uninitialized memory - from stdin array?
         if (!memorySpace.containsKey(key)) {
             if (debug) {
@@ -829,6 +1058,18 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 	    >> nApproxWordsPerLineBits;
         final long addrIndex = addrNoWordOffset % nIndexes; // Compute cache index
         final long addrTag = getAddrTag(addressInfo);
+
+        //--Private cache of the core running this thread
+        if (privateCaches != null
+            && privateCaches.access(addressInfo.approx ? addrNoWordOffset | approxMask : addrNoWordOffset,
+                                    store, addressInfo.approx, addressInfo.getApproximativeBits())) {
+            if (ALLOW_APPROXIMATE && addressInfo.getApproximativeBits()!=0) {
+		// SRAM errors as for a hit in the shared cache
+		loadChangeStore(addressInfo, null, currentTime, false);
+            }
+	    runInfo.countOperation("Cache-Hit", addressInfo.approx, addressInfo.approximativeBits);
+            return false;
+        }
         
         //--Get content of index in cache
         HashMap<Long, TimeTuple> indexAssocLine = sramContainer.get((int)addrIndex);
@@ -887,6 +1128,57 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     	return memoryOp(key, true, tim);
     }
 
+    /**
+     * Write a local evicted from its register into memory. The first spill
+     * gives the local a memory block of its own, which is freed when the
+     * local is collected. While in memory, an approximate local suffers
+     * from memory errors like any other data.
+     * @param local The local
+     * @param approx Whether the local was in an approximate register
+     */
+    private synchronized void spillLocal(Reference<?> local, boolean approx) {
+        if (local.spillId == 0)
+            local.spillId = ++nSpilledLocals;
+        String key = LOCAL_STRING + local.spillId;
+        long tim = System.currentTimeMillis();
+        if (!memorySpace.containsKey(key)) {
+            purgeCollectedObjects();
+            Object value = local.value;
+            int size = numQytes(local.primitive && value != null
+                                ? value.getClass().getName()
+                                : "java.lang.Object", approx);
+            long address = allocator.allocate(size, approx);
+            addToCachelineTracker(approx ? address | approxMask : address, key);
+
+            AddressInformation ainfo =
+                new AddressInformation(tim, approx, false, approx ? 0 : size,
+                                       approx ? size : 0, approx ? local.approximativeBits : 0,
+                                       address, tim);
+            ObjectMemory owner = new ObjectMemory(local, purgeQueue);
+            memoryOwners.add(owner);
+            owner.add(key, ainfo);
+            ainfo.setType(owner, "value");
+            memorySpace.put(key, ainfo);
+        }
+        memoryOp(key, true, tim);
+    }
+
+    /**
+     * Read a local that isn't in a register from memory.
+     * @param local The local
+     * @return false if the local has never been spilled
+     */
+    private synchronized boolean fillLocal(Reference<?> local) {
+        if (local.spillId == 0)
+            return false;
+        String key = LOCAL_STRING + local.spillId;
+        AddressInformation ainfo = memorySpace.get(key);
+        if (ainfo == null || ainfo.getObject() != local)
+            return false;
+        memoryOp(key, false, System.currentTimeMillis());
+        return true;
+    }
+
     /* (TRICK TO DIVIDE NOISY FROM DEFAULT)
      * (THIS DOESN'T COVER FOR MERGED, I.E., PREVIOUSLY OVERRIDEN, METHODS)
      */
@@ -912,6 +1204,8 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     /********NOISY VARIABLES AND METHODS********/
 
     private static final String STATIC_STRING = "static";
+    private static final String LOCAL_STRING = "local"; // Prefix of spilled locals
+    private long nSpilledLocals = 0; // Locals ever spilled; numbers their blocks
 
     protected final String CONSTS_FILE = "enerjnoiseconsts.json";
 
@@ -921,6 +1215,8 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     
     private ErrorModes SRAMmode; // What errors are SRAM suffering from?
     private ErrorModes DRAMmode; // What errors are DRAM suffering from?
+    private ErrorModel sramErrorModel = ErrorModels.NONE; // Errors on cache reads
+    private ErrorModel dramErrorModel = ErrorModels.NONE; // Errors on cache line fills
 
     // Probabilities.
     protected long INVPROB_SRAM_WRITE_FAILURE = (long)Math.pow(10, 4.94);
@@ -933,11 +1229,18 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     protected int MB_FLOAT_APPROX = 8;
     protected final int MB_DOUBLE_PRECISE = 52;
     protected int MB_DOUBLE_APPROX = 16;
+    protected boolean FP_ROUND_NEAREST = false; // Round rather than truncate mantissas
+    // Mantissa masks and rounding increments, by number of approximate bits
+    private final int[] floatMantissaMask = new int[33];
+    private final int[] floatRoundingBit = new int[33];
+    private final long[] doubleMantissaMask = new long[33];
+    private final long[] doubleRoundingBit = new long[33];
     // DRAM storage decay.
     protected long INVPROB_DRAM_FLIP_PER_SECOND = (long)Math.pow(10, 5);
-    // Operation timing errors.
+    // Operation timing errors: 0 for none, 1 for a bit flip, 2 for the
+    // last value and 3 for a random value. Off unless a probability is given.
     protected int TIMING_ERROR_MODE = 2;
-    protected float TIMING_ERROR_PROB_PERCENT = 1.5f;
+    protected float TIMING_ERROR_PROB_PERCENT = 0;
 
     /* Addition result bitwise error probability */
     //    protected String ADDER_NOISE_FILE = "error_model/quaternary.json";
@@ -986,6 +1289,15 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 	4411723, 3094055, 4428725, 3144662, 4443165, 3192974, 4454713, 3239907,
 	4470044, 3289332, 4486014, 3337791, 4499254, 3381189, 4512205, 3421882};
 
+    /**
+     * Error distributions of the arithmetic units, by kind, operand type
+     * and number of approximate bits; null for no errors. The counts above
+     * are used for ints and longs unless binary distribution files are
+     * given.
+     */
+    private final ErrorDistribution[][][] arithmeticErrors =
+	new ErrorDistribution[3][ErrorDistribution.N_TYPES][ErrorDistribution.N_WIDTHS];
+
     /*
     // Computing Frontiers 2016 Error model
     protected final long[] ADDITION_ERRORS8 = {
@@ -1065,8 +1377,16 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 
     private Map<String, Long> dataAges = new WeakHashMap<String, Long>();
     
-    // Timing errors for arithmetic.
-    private HashMap<Class<?>, Number> lastValues = new HashMap<Class<?>, Number>();
+    // Timing errors for arithmetic: probability of an error as a threshold
+    // for a uniform 63 bit random number, and the last result of every
+    // number kind per thread.
+    private long timingErrorThreshold = 0;
+    private final ThreadLocal<long[]> lastResults = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[NumberKind.values().length];
+        }
+    };
     
     // Error injection helpers.
 
@@ -1132,75 +1452,8 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 	if (!ALLOW_APPROXIMATE)
 	    return value;
 
-        long bits = toBits(value);
-        int width = numQytes(value);
-	boolean error = false;
-
-        // Inject errors.
-        for (int bitpos = 0; (bitpos<(width<<3)) && (bitpos<approximativeBits); ++bitpos) {
-            double randNum = Math.random();
-            if ((long)(randNum * invProb) == 0) {
-		error = true;
-		runInfo.countError("MemoryError_Bit" + bitpos, true, approximativeBits);
-		long mask = 1 << bitpos;
-            	bits ^= mask;
-            }
-        }
-	if (error)
-	    runInfo.countOperation("MemoryTotalError", true, approximativeBits);
-
-        return (T) fromBits(bits, value);
-    }
-
-    /**
-     * Introduces bit error into the given value based on time stamp and PCM
-     * lookup tables.
-     * @param value The value to be compromised
-     * @param aInfo Address information object of the corresponding value
-     * reference
-     * @param age Elapsed time between value last touched and now
-     */
-    @SuppressWarnings("unchecked")
-    private <T> T bitErrorPCM(T value, AddressInformation aInfo,
-			      long age, int approximativeBits) {
-    	if (!isPrimitive(value))
-            return value;
-    	
-	/* To assure the we don't apply errors when we are not
-	 * supposed to */
-	if (!ALLOW_APPROXIMATE)
-	    return value;
-
-        long bits = toBits(value);
-        int width = numQytes(value);
-        int index = (int)Math.round((log2(age/1000)))-1;
-        if (index < 0) // All under 2000ms is -> index 0
-            index = 0;
-        //double S2ErrorRate = Math.pow(10, S2ErrorRateLookup[index]);
-        //double S3ErrorRate = Math.pow(10, S3ErrorRateLookup[index]); 
-        double S2ErrorRate = 1/(.01*S2ErrorRateLookup[index]);
-        double S3ErrorRate = 1/(.01*S3ErrorRateLookup[index]);
-
-        for (int flipbitpos=0; (flipbitpos<(width*8)>>1) && (flipbitpos<approximativeBits); flipbitpos++) { 
-            if (!aInfo.isFlipped(flipbitpos)) {
-                int valuebitpos = 2*flipbitpos;
-                if (((bits >> valuebitpos) & 3) == 1) { // Cell is state S3
-                    double randNum = Math.random();
-                    if ((long)(randNum * S3ErrorRate) == 0) {
-                        bits ^= 1 << valuebitpos;
-                        aInfo.setFlipped(flipbitpos);
-                    }
-                }
-                else if (((bits >> 2*flipbitpos) & 3) == 2) { // Cell is state S2
-                    double randNum = Math.random();
-                    if ((long)(randNum * S2ErrorRate) == 0) {
-                        bits ^= 1 << valuebitpos;
-                        bits ^= 1 << (valuebitpos+1);
-                        aInfo.setFlipped(flipbitpos);
-                    }
-                }
-            }
-        }
+        long bits = BitFlips.upset(runInfo, toBits(value), numQytes(value) << 3,
+                                    invProb, approximativeBits);
         return (T) fromBits(bits, value);
     }
 
@@ -1219,57 +1472,6 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 		);
     }
 
-    /**
-     * Copied from "original" dramAgedRead
-     * @param value The value to be "compromised"
-     * @param lastTime The last time stamp to compute from
-     * @param currentTime Current time stamp for reference
-     */
-    private <T> T driftRead(T value, long lastTime, long currentTime, int approximativeBits) {
-    	// TODO #blockerrors Keep/change "DISABLED" flags?
-    	if (!isPrimitive(value) || INVPROB_DRAM_FLIP_PER_SECOND == DISABLED) {
-            return value;
-        }
-
-        // How old is the data?
-        long age = currentTime - lastTime; 
-        if (age == 0) { // Instant occasions will not cause any drift
-            return value;
-        }
-        
-        // Error injection
-        long invprob = INVPROB_DRAM_FLIP_PER_SECOND * 1000L / age;
-        value = bitError(value, invprob, approximativeBits);
-
-        return value;
-    }
-
-    /**
-     * PCM drifting.
-     * @param value The value to be "compromised"
-     * @param aInfo Address information object of the corresponding value
-     * reference
-     * @param lastTime The last time stamp to compute from
-     * @param currentTime Current time stamp for reference
-     */
-    private <T> T driftReadPCM(T value, AddressInformation aInfo,
-			       long lastTime, long currentTime, int approximativeBits) {
-    	if (!isPrimitive(value)) {
-            return value;
-        }
-
-        // How old is the data?
-        long age = currentTime - lastTime; 
-        if (age == 0) { // Instant occasions will not cause any drift
-            return value;
-        }
-        
-        // Error injection
-        value = bitErrorPCM(value, aInfo, age, approximativeBits);
-
-        return value;
-    }
-
     /**
      * Create keys for memory accesses of fields = object hashcode + some loaded
      * field.
@@ -1285,26 +1487,13 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
             return STATIC_STRING + field; // Workaround for null objects; (only static fields behave like this)
         }
 
-        // Now, there exists a method doing *almost* this, has to take care of
-        // static fields separately, however
-        Class<?> objClass = obj.getClass();
-        while (true) {
-            try { // Handle eventual static fields
-                Field f = objClass.getDeclaredField(field); // If failing, "go to" exception
-                if (Modifier.isStatic(f.getModifiers())) {
-                    identifier = STATIC_STRING + objClass.getName();
-                    if (debug)
-                        System.err.println("memoryKey: STATIC KEY = " + identifier);
-                }
-                break;
-            }
-            catch (NoSuchFieldException e) {
-                if (debug)
-                    System.err.println("Field " + field + " not found in "
-				       + objClass.getName() + "; trying superclass...");
-                objClass = objClass.getSuperclass();
-                continue;
-            }
+        // Static fields are shared by all instances, so key them by the
+        // declaring class instead of by the object
+        Field f = ClassLayout.of(obj.getClass()).getField(field);
+        if (f != null && Modifier.isStatic(f.getModifiers())) {
+            identifier = STATIC_STRING + f.getDeclaringClass().getName();
+            if (debug)
+                System.err.println("memoryKey: STATIC KEY = " + identifier);
         }
         return identifier + field;
     }
@@ -1338,27 +1527,53 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
         }
 
         if (fr != null) {
+            JSONReader json = new JSONReader(fr);
             try {
-            	JSONObject json = new JSONObject(new JSONTokener(fr));
-		INVPROB_SRAM_WRITE_FAILURE =
-		    json.getLong("INVPROB_SRAM_WRITE_FAILURE");
-		INVPROB_SRAM_READ_UPSET =
-		    json.getLong("INVPROB_SRAM_READ_UPSET");
-        INVPROB_REGISTER_WRITE_FAILURE =
-		    json.getLong("INVPROB_REGISTER_WRITE_FAILURE");
-        INVPROB_REGISTER_READ_UPSET =
-		    json.getLong("INVPROB_REGISTER_READ_UPSET");
-        INVPROB_ADDER_UPSET =
-		    json.getLong("INVPROB_ADDER_UPSET");
-		MB_FLOAT_APPROX = json.getInt("MB_FLOAT_APPROX");
-		MB_DOUBLE_APPROX = json.getInt("MB_DOUBLE_APPROX");
-		INVPROB_DRAM_FLIP_PER_SECOND =
-		    json.getLong("INVPROB_DRAM_FLIP_PER_SECOND");
-		TIMING_ERROR_MODE = json.getInt("TIMING_ERROR_MODE");
-		TIMING_ERROR_PROB_PERCENT =
-                    (float)json.getDouble("TIMING_ERROR_PROB_PERCENT");
+                json.require(JSONReader.START_OBJECT);
+                while (json.next() == JSONReader.KEY) {
+                    // The constants are all numbers; unknown ones are ignored
+                    String key = json.getString();
+                    json.require(JSONReader.VALUE);
+                    switch (key) {
+                    case "INVPROB_SRAM_WRITE_FAILURE":
+                        INVPROB_SRAM_WRITE_FAILURE = json.getLong();
+                        break;
+                    case "INVPROB_SRAM_READ_UPSET":
+                        INVPROB_SRAM_READ_UPSET = json.getLong();
+                        break;
+                    case "INVPROB_REGISTER_WRITE_FAILURE":
+                        INVPROB_REGISTER_WRITE_FAILURE = json.getLong();
+                        break;
+                    case "INVPROB_REGISTER_READ_UPSET":
+                        INVPROB_REGISTER_READ_UPSET = json.getLong();
+                        break;
+                    case "INVPROB_ADDER_UPSET":
+                        INVPROB_ADDER_UPSET = json.getLong();
+                        break;
+                    case "MB_FLOAT_APPROX":
+                        MB_FLOAT_APPROX = json.getInt();
+                        break;
+                    case "MB_DOUBLE_APPROX":
+                        MB_DOUBLE_APPROX = json.getInt();
+                        break;
+                    case "INVPROB_DRAM_FLIP_PER_SECOND":
+                        INVPROB_DRAM_FLIP_PER_SECOND = json.getLong();
+                        break;
+                    case "TIMING_ERROR_MODE":
+                        TIMING_ERROR_MODE = json.getInt();
+                        break;
+                    case "TIMING_ERROR_PROB_PERCENT":
+                        TIMING_ERROR_PROB_PERCENT = (float)json.getDouble();
+                        break;
+                    }
+                }
             } catch (JSONException exc) {
                 System.err.println("   JSON not readable!");
+            } finally {
+                try {
+                    json.close();
+                } catch (JSONException exc) {
+                }
             }
         }
         
@@ -1386,6 +1601,10 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
         TIMING_ERROR_PROB_PERCENT
             = Float.parseFloat(System.getProperty("TIMING_ERROR_PROB_PERCENT",
                 Float.toString(TIMING_ERROR_PROB_PERCENT)));
+        if (TIMING_ERROR_MODE < 0 || TIMING_ERROR_MODE > 3) {
+            System.err.println("Unknown TIMING_ERROR_MODE: " + TIMING_ERROR_MODE);
+            System.exit(1);
+        }
         INVPROB_REGISTER_WRITE_FAILURE
             = Long.parseLong(System.getProperty("INVPROB_REGISTER_WRITE_FAILURE",
                 Long.toString(INVPROB_REGISTER_WRITE_FAILURE)));
@@ -1395,6 +1614,10 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
         INVPROB_ADDER_UPSET
             = Long.parseLong(System.getProperty("INVPROB_ADDER_UPSET",
                 Long.toString(INVPROB_ADDER_UPSET)));
+        if (INVPROB_ADDER_UPSET < 1) {
+            System.err.println("Invalid INVPROB_ADDER_UPSET: " + INVPROB_ADDER_UPSET);
+            System.exit(1);
+        }
 
         System.err.println("\tSRAM WF: " + INVPROB_SRAM_WRITE_FAILURE);
         System.err.println("\tSRAM RU: " + INVPROB_SRAM_READ_UPSET);
@@ -1670,16 +1893,31 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 
     // This map *only* contains approximate objects. That is,
     // info.get(???).approx == true
-    private Map<Object, ApproximationInformation> info
-        = new WeakIdentityHashMap<Object, ApproximationInformation>();
-
-    // This "parallel" map is used just to receive object finalization events.
-    // Phantom references can't be dereferenced, so they can't be used to look
-    // up information. But there are the only way to truly know exactly when
-    // an object is about to be deallocated. This map contains *all* objects,
-    // even precise ones.
-    private Map<PhantomReference<Object>, ApproximationInformation> phantomInfo =
-        new HashMap<PhantomReference<Object>, ApproximationInformation>();
+    private ConcurrentWeakIdentityMap<Object, ApproximationInformation> info
+        = new ConcurrentWeakIdentityMap<Object, ApproximationInformation>();
+
+    /**
+     * Phantom reference that carries the information about its object, so
+     * that finalization events need no lookup. Phantom references can't be
+     * dereferenced, so they can't be used to look up information. But they
+     * are the only way to truly know exactly when an object is about to be
+     * deallocated.
+     */
+    private static final class LifetimeReference extends PhantomReference<Object> {
+        final ApproximationInformation infoObj;
+
+        LifetimeReference(Object o, ReferenceQueue<Object> queue,
+                          ApproximationInformation infoObj) {
+            super(o, queue);
+            this.infoObj = infoObj;
+        }
+    }
+
+    // All lifetime references that are not ended yet. Keeps the references
+    // themselves reachable until they are enqueued. Contains precise objects
+    // too (those that are part of the footprint sample).
+    private Set<LifetimeReference> liveReferences =
+        Collections.newSetFromMap(new ConcurrentHashMap<LifetimeReference, Boolean>());
     private ReferenceQueue<Object> referenceQueue = new ReferenceQueue<Object>();
 
     /**
@@ -1688,14 +1926,22 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     long startup;
 
     /**
-     * Count how much approximative data has been kept in memory during the execution
+     * Count how much approximative and precise data has been kept in memory
+     * during the execution. Each allocation is tracked with probability
+     * 1/FootprintSampling (default: all).
      */
-    private Map<String, Long> approxFootprint = new HashMap<String, Long>();
-    
+    private final Footprint footprint =
+        new Footprint(Integer.parseInt(System.getProperty("FootprintSampling", "1")));
+
     /**
-     * Count how much precise data has been kept in memory during the execution
+     * Live heap data over time, in buckets of FootprintInterval milliseconds
+     * (default: 100). Only the last FootprintBuckets buckets (default: 4096)
+     * are kept. Based on the objects in the footprint sample.
      */
-    private Map<String, Long> preciseFootprint = new HashMap<String, Long>();
+    private final LiveSeries liveSeries =
+        new LiveSeries(Long.parseLong(System.getProperty("FootprintInterval", "100")),
+                       Integer.parseInt(System.getProperty("FootprintBuckets", "4096")),
+                       footprint.sampling);
 
     /**
      * If true, additional debug info will be shown during execution
@@ -1703,9 +1949,14 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     private static boolean debug = Boolean.parseBoolean(System.getenv("EnerJDebug"));
 
     /**
-     * Mapping Thread IDs to stacks of CreationInfo objects.
+     * Per thread stack of CreationInfo objects.
      */
-    Map<Long, Stack<CreationInfo>> creations = new HashMap<Long, Stack<CreationInfo>>();
+    private final ThreadLocal<CreationStack> creations = new ThreadLocal<CreationStack>() {
+        @Override
+        protected CreationStack initialValue() {
+            return new CreationStack();
+        }
+    };
 
     /**
      * Debug related counters.  
@@ -1720,7 +1971,8 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      * @param heap True if object is on heap; false false if object is on stack
      * @param preciseSize Precise data size
      * @param approxSize Approximative data size
-     * @return The phantom reference to the (enqueued) data
+     * @return The phantom reference to the (enqueued) data, or null if the
+     * lifetime of the object is not sampled
      */
     @Override
     public PhantomReference<Object> setApproximate(
@@ -1750,14 +2002,20 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
         ApproximationInformation infoObj =
             new ApproximationInformation(time, approx, heap,
                                          preciseSize, approxSize, approximativeBits);
-        PhantomReference<Object> phantomRef = new PhantomReference<Object>(o, referenceQueue);
 
         // Add to bookkeeping maps.
-        synchronized (this) {
-            if (approx)
-                info.put(o, infoObj);
-            phantomInfo.put(phantomRef, infoObj);
-        }
+        if (approx)
+            info.put(o, infoObj);
+
+        // Objects outside of the footprint sample are only needed for
+        // isApproximate; their lifetime is not tracked.
+        if (!footprint.sample(o))
+            return null;
+
+        LifetimeReference phantomRef = new LifetimeReference(o, referenceQueue, infoObj);
+        liveReferences.add(phantomRef);
+        if (heap)
+            liveSeries.allocated(approx, preciseSize, approxSize);
 
         return phantomRef;
     }
@@ -1773,11 +2031,8 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 			       + (o != null ? System.identityHashCode(o) : "null")
 			       + "\" is approximate");
         }
-        boolean approx;
-        synchronized (this) { // If it's approximate, then it must be in the 'info' hashmap
-            approx = info.containsKey(o);
-        }
-        return approx;
+        // If it's approximate, then it must be in the 'info' map
+        return info.containsKey(o);
     }
 
     /**
@@ -1837,82 +2092,94 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 
     /**
      * Import information about classes gathered at compile time. This file
-     * must exist for the operation to go further.
+     * must exist for the operation to go further. If the checker also wrote
+     * the indexed binary version of the file, and it is up to date, only its
+     * index is read here; classes are decoded when first instantiated.
      * @param fileName Name of the JSON file to be imported
      */
-    @SuppressWarnings("unchecked")
     private void importClassInfoAndInsertStaticData(String fileName) {
-        JSONObject jsonClasses, jsonFields, jsonField;
+        File jsonFile = new File(fileName);
+        File binaryFile = new File(jsonFile.getAbsoluteFile().getParentFile(),
+                                   ClassInfoFile.FILE_NAME);
+        if (binaryFile.exists() && (!jsonFile.exists()
+                                    || binaryFile.lastModified() >= jsonFile.lastModified())) {
+            try {
+                classInfoStore = ClassInfoFile.open(binaryFile.getPath());
+                if (debug)
+                    System.out.println("Indexed " + classInfoStore.size()
+                                       + " classes in " + binaryFile);
+
+                // Static members have to be in memory before the program starts
+                for (String keyClass : classInfoStore.classesWithStaticFields()) {
+                    for (Map.Entry<String, FieldInfoContainer> e :
+                             getClassFieldsInfo(keyClass).entrySet()) {
+                        if (e.getValue().isStatic)
+                            insertStaticField(e.getKey(), e.getValue());
+                    }
+                }
+                return;
+            }
+            catch (IOException e) {
+                System.err.println("Error while reading " + binaryFile
+                                   + "; falling back to " + fileName);
+                classInfoStore = null;
+            }
+        }
+
+        // The json file is read one field at a time rather than as a whole
         HashMap<String, FieldInfoContainer> fieldsInfo = null;
         FieldInfoContainer fic;
         try {
-            BufferedReader br = new BufferedReader(new FileReader(fileName));
-            StringBuffer sb = new StringBuffer();
-            for(String line; (line = br.readLine()) != null; ) { // Loop over all lines
-                sb.append(line);
-            }
-            jsonClasses = new JSONObject(sb.toString());
-            
-            for (Iterator<String> itClasses = jsonClasses.keys(); itClasses.hasNext();) {
-                String keyClass = itClasses.next();
+            JSONReader json = new JSONReader(new FileReader(fileName));
+            json.require(JSONReader.START_OBJECT);
+            while (json.next() == JSONReader.KEY) {
+                String keyClass = json.getString();
                 
                 if (debug)
                     System.out.println(keyClass);
                 
-                jsonFields = jsonClasses.getJSONObject(keyClass);
                 fieldsInfo = new HashMap<String, FieldInfoContainer>();
-                for (Iterator<String> itField = jsonFields.keys();
-		     itField.hasNext();) {
+                json.require(JSONReader.START_OBJECT);
+                while (json.next() == JSONReader.KEY) {
                     fic = new FieldInfoContainer();
-                    String keyField = itField.next();
-                    jsonField = jsonFields.getJSONObject(keyField);
+                    String keyField = json.getString();
+                    String annotation = null;
+                    json.require(JSONReader.START_OBJECT);
+                    while (json.next() == JSONReader.KEY) {
+                        String property = json.getString();
+                        json.require(JSONReader.VALUE);
+                        switch (property) {
+                        case "annotation":
+                            annotation = json.getString();
+                            break;
+                        case "static":
+                            fic.isStatic = json.getBoolean();
+                            break;
+                        case "final":
+                            fic.isFinal = json.getBoolean();
+                            break;
+                        case "type":
+                            fic.fieldType = json.getString();
+                            break;
+                        }
+                    }
+                    if (annotation == null || fic.fieldType == null)
+                        throw json.syntaxError("Incomplete field " + keyClass + "." + keyField);
                     fic.annotation = ALLOW_APPROXIMATE ?
-			mapAnnotationType(jsonField.getString("annotation")) :
+			mapAnnotationType(annotation) :
 			AnnotationType.Precise;
-                    fic.isStatic = jsonField.getBoolean("static");
-                    fic.isFinal = jsonField.getBoolean("final");
-                    fic.fieldType = jsonField.getString("type");
                     if (debug) {
                         System.out.print("\t" + keyField + " - ");
                         System.out.println(fic.toString());
                     }
                     fieldsInfo.put(keyField, fic);
                     
-                    // Put static members into static memory area.
-                    // Context is set to always be precise, as setting it as
-                    // Context would be meaningless and we also want to be sure
-                    // it doesn't behavior in some unintended way.
-                    
-                    // TODO: wrote this late at night; might need some cleanup,
-                    // code factorization and checks if it's really consistent   
-                    // Put static members into static memory area
-                    if (fic.isStatic) {
-                        // Whether or not the field is a reference and therefore
-                        // should be placed in the precise memory area should
-                        // have been determined earlier. 
-                        boolean approx = fic.annotation == AnnotationType.Approx; // Checking for Context is meaningless
-                        long address = allocateMemoryAux(fic.fieldType, approx);
-                        long tim = System.currentTimeMillis();
-                        int preciseSize=0, approxSize=0, fieldSize = numQytes(fic.fieldType, approx);
-			int approximativeBits = 0;
-                        if (approx) {
-                            approxSize = fieldSize;
-			    approximativeBits = mapApproximativeBits(fic.annotation);
-			} else
-                            preciseSize = fieldSize; 
-
-                       AddressInformation addressInfo =
-			    new AddressInformation(tim, approx, true, preciseSize,
-						   approxSize, approximativeBits, address, startup-1); // -1: Trick to force oldest possible time stamp
-                        // TODO #bug: How to set static objects?
-                        String key = STATIC_STRING + keyField; // Workaround...
-                        memorySpace.put(key, addressInfo);
-                        addToCachelineTracker(approx ? address | approxMask : address, key);
-                    }
+                    if (fic.isStatic)
+                        insertStaticField(keyField, fic);
                 }
                 classInfo.put(keyClass, fieldsInfo);
             }
-            br.close();
+            json.close();
         }
         catch (JSONException e) {
             System.err.println("Error while parsing JSONObject.");
@@ -1926,6 +2193,65 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
         }
     }
 
+    /**
+     * Get the field information of a class, decoding it from the binary
+     * class info file the first time it is asked for.
+     * @param className Name of the class (inner classes separated by '.')
+     * @return Map from field name to field info, or null if the class is unknown
+     */
+    private HashMap<String, FieldInfoContainer> getClassFieldsInfo(String className) {
+        HashMap<String, FieldInfoContainer> fieldsInfo = classInfo.get(className);
+        if (fieldsInfo == null && classInfoStore != null) {
+            fieldsInfo = classInfoStore.get(className);
+            if (fieldsInfo == null)
+                return null;
+            for (Map.Entry<String, FieldInfoContainer> e : fieldsInfo.entrySet()) {
+                if (!ALLOW_APPROXIMATE)
+                    e.getValue().annotation = AnnotationType.Precise;
+                if (debug) {
+                    System.out.print("\t" + e.getKey() + " - ");
+                    System.out.println(e.getValue().toString());
+                }
+            }
+            classInfo.put(className, fieldsInfo);
+        }
+        return fieldsInfo;
+    }
+
+    /**
+     * Put a static member into the static memory area.
+     * Context is set to always be precise, as setting it as
+     * Context would be meaningless and we also want to be sure
+     * it doesn't behavior in some unintended way.
+     * @param keyField Name of the static field
+     * @param fic Information about the static field
+     */
+    private void insertStaticField(String keyField, FieldInfoContainer fic) {
+        // TODO: wrote this late at night; might need some cleanup,
+        // code factorization and checks if it's really consistent   
+        // Whether or not the field is a reference and therefore
+        // should be placed in the precise memory area should
+        // have been determined earlier. 
+        boolean approx = fic.annotation == AnnotationType.Approx; // Checking for Context is meaningless
+        long address = allocateMemoryAux(fic.fieldType, approx);
+        long tim = System.currentTimeMillis();
+        int preciseSize=0, approxSize=0, fieldSize = numQytes(fic.fieldType, approx);
+        int approximativeBits = 0;
+        if (approx) {
+            approxSize = fieldSize;
+            approximativeBits = mapApproximativeBits(fic.annotation);
+        } else
+            preciseSize = fieldSize; 
+
+        AddressInformation addressInfo =
+            new AddressInformation(tim, approx, true, preciseSize,
+                                   approxSize, approximativeBits, address, startup-1); // -1: Trick to force oldest possible time stamp
+        // TODO #bug: How to set static objects?
+        String key = STATIC_STRING + keyField; // Workaround...
+        memorySpace.put(key, addressInfo);
+        addToCachelineTracker(approx ? address | approxMask : address, key);
+    }
+
     /**
      * Start threads that perform logging and cleanup tasks during runtime.
      * Add hook thread for final cleanup stage when JVM shuts down.
@@ -2007,9 +2333,53 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
             sramContainer.add(new HashMap<Long, TimeTuple>()); // New hash map from 0 -> nIndexes    
         }
 
+        // Simulate cores with private caches in front of the (then shared) cache?
+        int nCores = Integer.parseInt(System.getProperty("Cores", "0"));
+        if (nCores > 0) {
+            int l1Size = Integer.parseInt(System.getProperty("L1Size", Integer.toString(cacheSize / 4))); // In qytes
+            int l1Associativity = Integer.parseInt(System.getProperty("L1Associativity", "2"));
+            privateCaches = new PrivateCaches(nCores,
+                                              (l1Size / l1Associativity) / cacheLineSizeInQytes,
+                                              l1Associativity,
+                                              Boolean.parseBoolean(System.getProperty("RelaxApproxCoherence", "true")),
+                                              runInfo);
+        }
+
+        // Limit the number of registers, spilling locals into memory?
+        int nApproxRegisters = Integer.parseInt(System.getProperty("ApproxRegisters", "0"));
+        int nPreciseRegisters = Integer.parseInt(System.getProperty("PreciseRegisters", "0"));
+        if (nApproxRegisters > 0 || nPreciseRegisters > 0) {
+            registerFile = new RegisterFile(nApproxRegisters, nPreciseRegisters, runInfo) {
+                @Override
+                protected void spill(Reference<?> local, boolean approx) {
+                    spillLocal(local, approx);
+                }
+
+                @Override
+                protected boolean fill(Reference<?> local, boolean approx) {
+                    return fillLocal(local);
+                }
+            };
+        }
+
+        // How are simulated addresses handed out?
+        String allocatorName = System.getProperty("Allocator", "bump").toLowerCase();
+        switch (allocatorName) {
+        case "sizeclass":
+            allocator = new SizeClassAllocator(cacheLineSizeInQytes, differentDRAMSpaces);
+            break;
+        case "bump":
+            allocator = new BumpAllocator(cacheLineSizeInQytes, differentDRAMSpaces);
+            break;
+        default:
+            System.err.println("Unknown Allocator: " + allocatorName);
+            System.exit(1);
+        }
+
         // For keeping track of which data "belongs" to which cache line
         // Needed for introducing errors upon cache loads/stores
         cachelineTracker = new HashMap<Long, ArrayList<String>>();
+        lineRun = new AddressInformation[cacheLineSizeInQytes + 1];
         
         // Compute mask used for getting address tags
         int tagSize = addressSizeBits - (nCacheLinesBits + nApproxWordsPerLineBits + offsetBits);
@@ -2078,12 +2448,204 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 
         startCleanUpThreads();
 
-	if (ALLOW_APPROXIMATE)
+	if (ALLOW_APPROXIMATE) {
 	    doNoisyConstructorThings();
-	else
+	    selectErrorModels();
+	    startScrubber();
+	    loadArithmeticErrors(adderNoise, twoCompNoise);
+	    setUpFPUWidths();
+	    if (TIMING_ERROR_MODE != DISABLED && TIMING_ERROR_PROB_PERCENT > 0)
+		timingErrorThreshold = (long)(Math.min(TIMING_ERROR_PROB_PERCENT / 100.0, 1.0)
+					      * Long.MAX_VALUE);
+	} else
 	    System.err.println("Initializing precise EnerJ runtime - approximativeness disabled.");
     }
 
+    /**
+     * Start the DRAM scrubber if DRAMScrubMillis (the time between sweeps)
+     * is given. Scrubbing replaces the lazy decay model of DRAM for
+     * approximate primitive arrays, so it needs DRAM to use that model,
+     * with a nonzero decay rate.
+     */
+    private void startScrubber() {
+        long interval = Long.parseLong(System.getProperty("DRAMScrubMillis", "0"));
+        if (interval <= 0)
+            return;
+        if (!(dramErrorModel instanceof ErrorModels.Decay)) {
+            System.err.println("DRAMScrubMillis ignored: DRAM does not use the decay error model");
+            return;
+        }
+        if (INVPROB_DRAM_FLIP_PER_SECOND < 1) {
+            System.err.println("DRAMScrubMillis ignored: DRAM does not decay (INVPROB_DRAM_FLIP_PER_SECOND "
+                               + INVPROB_DRAM_FLIP_PER_SECOND + ")");
+            return;
+        }
+        scrubber = new DRAMScrubber(this, runInfo, INVPROB_DRAM_FLIP_PER_SECOND, interval) {
+            @Override
+            protected boolean isCached(Object array, int index) {
+                AddressInformation ainfo = memorySpace.get(memoryKey(array, index));
+                return ainfo != null && PrecisionRuntimeTolop.this.isCached(ainfo);
+            }
+        };
+        scrubber.start();
+    }
+
+    /**
+     * Select the error models of the SRAM and DRAM levels. By default they
+     * follow SRAMMode, DRAMMode and PCMSimulation; the SRAMErrorModel and
+     * DRAMErrorModel properties override them with "none", "static",
+     * "decay", "pcm" or the name of a class implementing ErrorModel.
+     */
+    private void selectErrorModels() {
+        ErrorModel drifting = PCM_SIMULATION
+            ? new ErrorModels.PCMDrift()
+            : new ErrorModels.Decay(INVPROB_DRAM_FLIP_PER_SECOND);
+
+        String sramModel = System.getProperty("SRAMErrorModel");
+        if (sramModel != null)
+            sramErrorModel = ErrorModels.forName(sramModel, INVPROB_SRAM_READ_UPSET,
+                                                 INVPROB_DRAM_FLIP_PER_SECOND);
+        else if (SRAMmode == ErrorModes.STATIC)
+            sramErrorModel = new ErrorModels.Static(INVPROB_SRAM_READ_UPSET);
+        else
+            sramErrorModel = drifting;
+
+        // DRAM may suffer from static errors, but then with the SRAM write
+        // failure probability
+        String dramModel = System.getProperty("DRAMErrorModel");
+        if (dramModel != null)
+            dramErrorModel = ErrorModels.forName(dramModel, INVPROB_SRAM_WRITE_FAILURE,
+                                                 INVPROB_DRAM_FLIP_PER_SECOND);
+        else if (SRAMmode == ErrorModes.STATIC || DRAMmode == ErrorModes.STATIC)
+            dramErrorModel = new ErrorModels.Static(INVPROB_SRAM_WRITE_FAILURE);
+        else
+            dramErrorModel = drifting;
+    }
+
+    /**
+     * Set up the masks of the approximate FPU. Fully approximate (32 bit)
+     * operations keep MB_FLOAT_APPROX/MB_DOUBLE_APPROX mantissa bits; fewer
+     * approximate bits drop proportionally fewer mantissa bits. The
+     * FPRounding property selects "truncate" (default) or "nearest".
+     */
+    private void setUpFPUWidths() {
+        if (MB_FLOAT_APPROX < 0 || MB_FLOAT_APPROX > MB_FLOAT_PRECISE
+            || MB_DOUBLE_APPROX < 0 || MB_DOUBLE_APPROX > MB_DOUBLE_PRECISE) {
+            System.err.println("Unallowed number of approximate mantissa bits");
+            System.exit(1);
+        }
+        String rounding = System.getProperty("FPRounding", "truncate").toLowerCase();
+        switch (rounding) {
+        case "truncate":
+            FP_ROUND_NEAREST = false;
+            break;
+        case "nearest":
+            FP_ROUND_NEAREST = true;
+            break;
+        default:
+            System.err.println("Unknown FPRounding: " + rounding);
+            System.exit(1);
+        }
+
+        for (int bits = 0; bits <= 32; bits++) {
+            int floatDropped = (int)Math.round((MB_FLOAT_PRECISE - MB_FLOAT_APPROX) * bits / 32.0);
+            int doubleDropped = (int)Math.round((MB_DOUBLE_PRECISE - MB_DOUBLE_APPROX) * bits / 32.0);
+            floatMantissaMask[bits] = -1 << floatDropped;
+            floatRoundingBit[bits] = floatDropped == 0 ? 0 : 1 << (floatDropped - 1);
+            doubleMantissaMask[bits] = -1L << doubleDropped;
+            doubleRoundingBit[bits] = doubleDropped == 0 ? 0 : 1L << (doubleDropped - 1);
+        }
+    }
+
+    /**
+     * Reduce the mantissa of a float to the width of the approximate FPU.
+     * NaN and infinity are left alone; rounding may overflow to infinity.
+     * @param value The value
+     * @param approximativeBits Number of approximate bits of the operation
+     * @return The value with a narrower mantissa
+     */
+    private float narrowFloat(float value, int approximativeBits) {
+        int bits = Float.floatToRawIntBits(value);
+        if ((bits & 0x7f800000) == 0x7f800000) // NaN or infinity
+            return value;
+        int width = Math.min(approximativeBits, 32);
+        if (FP_ROUND_NEAREST)
+            bits += floatRoundingBit[width]; // Carries into the exponent if needed
+        return Float.intBitsToFloat(bits & floatMantissaMask[width]);
+    }
+
+    /**
+     * Reduce the mantissa of a double to the width of the approximate FPU.
+     * NaN and infinity are left alone; rounding may overflow to infinity.
+     * @param value The value
+     * @param approximativeBits Number of approximate bits of the operation
+     * @return The value with a narrower mantissa
+     */
+    private double narrowDouble(double value, int approximativeBits) {
+        long bits = Double.doubleToRawLongBits(value);
+        if ((bits & 0x7ff0000000000000L) == 0x7ff0000000000000L) // NaN or infinity
+            return value;
+        int width = Math.min(approximativeBits, 32);
+        if (FP_ROUND_NEAREST)
+            bits += doubleRoundingBit[width];
+        return Double.longBitsToDouble(bits & doubleMantissaMask[width]);
+    }
+
+    /**
+     * Set up the error distributions of the arithmetic units. Binary
+     * distribution files (*.bin, see ErrorDistribution) are read and
+     * replace the built in counts for the tables they contain; other files
+     * are ignored. Subtractions use the adder distribution of every width
+     * for which no two's complement distribution is given.
+     * @param adderNoise Adder (and multiplier) distribution file
+     * @param twoCompNoise Two's complement distribution file
+     */
+    private void loadArithmeticErrors(String adderNoise, String twoCompNoise) {
+	long[][] additionErrors = {ADDITION_ERRORS8, ADDITION_ERRORS16,
+				   ADDITION_ERRORS24, ADDITION_ERRORS32};
+	long[][] multiplicationErrors = {MULTIPLICATION_ERRORS8, MULTIPLICATION_ERRORS16,
+					 MULTIPLICATION_ERRORS24, MULTIPLICATION_ERRORS32};
+	// The built in counts are for 32 bit units; longs get the same
+	// errors in their low 32 bits
+	for (int type : new int[] {ErrorDistribution.INT, ErrorDistribution.LONG}) {
+	    for (int w = 0; w < ErrorDistribution.N_WIDTHS; w++) {
+		int bits = 8 * (w + 1);
+		arithmeticErrors[ErrorDistribution.ADDER][type][w] = ErrorDistribution.fromCounts(
+		    ErrorDistribution.ADDER, type, bits, additionErrors[w], 10000000);
+		arithmeticErrors[ErrorDistribution.MULTIPLIER][type][w] = ErrorDistribution.fromCounts(
+		    ErrorDistribution.MULTIPLIER, type, bits, multiplicationErrors[w], 1000000);
+	    }
+	}
+
+	for (String filename : new String[] {adderNoise, twoCompNoise}) {
+	    if (filename == null || !filename.endsWith(".bin"))
+		continue;
+	    try {
+		for (ErrorDistribution d : ErrorDistribution.map(filename))
+		    arithmeticErrors[d.kind][d.type][ErrorDistribution.widthIndex(d.approximativeBits)] = d;
+		System.err.println("Read arithmetic error distributions: " + filename);
+	    } catch (IOException exc) {
+		System.err.println("   Noise file " + filename + " not readable (" + exc.getMessage()
+				   + "); using defaults.");
+	    }
+	}
+	// Subtractions without a two's complement table of their own use the
+	// adder's, one width at a time
+	for (int type = 0; type < ErrorDistribution.N_TYPES; type++) {
+	    ErrorDistribution[] twoComp = arithmeticErrors[ErrorDistribution.TWOCOMP][type];
+	    for (int w = 0; w < twoComp.length; w++) {
+		if (twoComp[w] == null)
+		    twoComp[w] = arithmeticErrors[ErrorDistribution.ADDER][type][w];
+	    }
+	}
+
+	for (ErrorDistribution[][] kind : arithmeticErrors)
+	    for (ErrorDistribution[] type : kind)
+		for (int w = 0; w < type.length; w++)
+		    if (type[w] != null)
+			type[w] = type[w].scaled(INVPROB_ADDER_UPSET);
+    }
+
     /**
      * Starts a cleanup loop upon construction for the PhantomReferences.
      * Also, it creates a shutdown hook (a thread that starts when the JVM shuts
@@ -2130,36 +2692,12 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 
     /**
      * Sort all member fields in an object in decreasing size order.  
+     * The order only depends on the class, so it is computed once per class.
      * @param created The object, whose fields are about to be sorted
      * @return A list of the sorted fields
      */
-    // private List<Map.Entry<Field, Integer>> sortClassFields(Object created) {
     private List<Map.Entry<MyTuple<String, Field>, Integer>> sortClassFields(Object created) {
-        Map<MyTuple<String, Field>, Integer> unSortedClassFieldTups
-            = new HashMap<MyTuple<String, Field>, Integer>();
-        
-        // Sort fields in descending size order
-        Class<?> createdClass = created.getClass();
-        while (createdClass != null) {
-            Field[] theFields = createdClass.getDeclaredFields();
-            for (Field someField : theFields) {
-                unSortedClassFieldTups.put(
-					   new MyTuple<String,Field>(createdClass.getName(), someField),
-					   prioritizeType(someField.getType().getName()));
-            }
-            createdClass = createdClass.getSuperclass();    // Traverse unto superclass
-        }
-        List<Map.Entry<MyTuple<String, Field>, Integer>> sortedClassFields =
-	    new LinkedList<Map.Entry<MyTuple<String, Field>, Integer>>(unSortedClassFieldTups.entrySet());
-        Collections.sort(sortedClassFields, new Comparator<Map.Entry<MyTuple<String, Field>, Integer>>() {
-		@Override
-		public int compare(Entry<MyTuple<String, Field>, Integer> obj1,
-				   Entry<MyTuple<String, Field>, Integer> obj2) {
-		    return (obj2.getValue()).compareTo(obj1.getValue());
-		}
-	    });
-        
-        return sortedClassFields;
+        return ClassLayout.of(created.getClass()).sortedFields;
     }
 
     /**
@@ -2169,15 +2707,7 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      * @return Starting address of the allocated space
      */
     private long allocateMemoryAux(String typeName, boolean approx) {
-        int fieldSize = numQytes(typeName, approx);
-        // Check that we don't span over two cache lines for an object
-        long cacheLineSpaceLeft = cacheLineSizeInQytes
-            - (peekAddress(approx) % cacheLineSizeInQytes);
-        // If so, add padding to preserve alignment
-        if (cacheLineSpaceLeft < fieldSize) {
-            createAddress(cacheLineSpaceLeft, approx);
-        }
-        return createAddress(fieldSize, approx);
+        return allocator.allocate(numQytes(typeName, approx), approx);
     }
 
     /**
@@ -2226,6 +2756,10 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
         int fieldSize;
         AddressInformation ainfo;
         String key = null;
+        ObjectMemory owner = null;
+
+        purgeCollectedObjects();
+
         for (Map.Entry<MyTuple<String, Field>, Integer> e : sortedClassFields) {
             //--Static fields lives in the static area and should'nt be allocated
             MyTuple<String, Field> classFieldTup = e.getKey();
@@ -2244,12 +2778,11 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 
             //--Get class annotation info
             //--This must exist, otherwise the program execution cannot proceed
-            if (!classInfo.containsKey(className)) {
+            fieldsInfo = getClassFieldsInfo(className);
+            if (fieldsInfo == null) {
                 System.err.println("PANIC: " + className + " doesn't exist.");
                 System.exit(1);
             }
-            
-            fieldsInfo = classInfo.get(className);
                         
             //--If there's no available class info from previous compilation,
             //--there's no reason to continue: crash and burn!
@@ -2322,8 +2855,13 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
             ainfo = new AddressInformation(tim, approx, true, preciseSize,
 					   approxSize, approximativeBits,
 					   address, startup-1); // -1: Trick to force oldest possible time stamp
-            ainfo.setType(created, fieldname);
-            memorySpace.put(key, ainfo);
+            if (owner == null) {
+                owner = new ObjectMemory(created, purgeQueue);
+                memoryOwners.add(owner);
+            }
+            owner.add(key, ainfo);
+            ainfo.setType(owner, fieldname);
+            putMemoryBlock(key, ainfo);
             if (debug) {
                 System.out.println(
 				   "\t" + Modifier.toString(e.getKey().y.getModifiers())
@@ -2357,16 +2895,7 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
             debugCounters.get("beforeCounter").incrementAndGet(); // DEBUG
         }
         // To pass info on to enterConstructor
-        CreationInfo c = new CreationInfo(creator, approx, preciseSize, approxSize, approximativeBits);
-
-        long tid = Thread.currentThread().getId(); // Current thread id
-
-        Stack<CreationInfo> stack = creations.get(tid); // Get info stack based on current thread ID
-        if (stack==null) { // ...or create a new if first time accessed
-            stack = new Stack<CreationInfo>();
-        }
-        stack.push(c); // Insert the new object info onto the stack
-        creations.put(tid, stack); // ...and save it into the hash map
+        creations.get().push(creator, approx, preciseSize, approxSize, approximativeBits);
 
         return true;
     }
@@ -2396,18 +2925,9 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
             debugCounters.get("enterCounter").incrementAndGet(); // DEBUG
         }
 
-        Stack<CreationInfo> stack = creations.get(Thread.currentThread().getId());
+        CreationStack stack = creations.get();
 
         // Handle non-EnerJ behavior
-        if (stack==null) {
-            if (debug) {
-                System.out.println("EnerJ: enter constructor for object \""
-				   + System.identityHashCode(created)
-				   + "\" found a null stack.");
-            }
-            // probably instantiated from non-EnerJ code
-            return false;
-        }
         if (stack.size()<=0) {
             if (debug) {
                 System.out.println("EnerJ: enter constructor for object \""
@@ -2420,10 +2940,9 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 
         CreationInfo c = stack.pop(); // Get the lastly pushed object info
 
-        /* We cannot compare c.creator; we assume that there is no thread interleaving
-           between the call of beforeCreation and enterConstructor.
-           TODO: Some methods should probably be synchronized, but I think this
-           wouldn't help against this particular problem.
+        /* We cannot compare c.creator; every thread has a stack of its own,
+           so the top of it belongs to the innermost object being created
+           by this thread.
         */ 
         this.setApproximate(created, c.approx, true, c.preciseSize, c.approxSize, c.approximativeBits);
 
@@ -2453,9 +2972,7 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
             debugCounters.get("afterCounter").incrementAndGet(); //DEBUG
         }
 
-        Stack<CreationInfo> stack = creations.get(Thread.currentThread().getId());
-        // Could stack ever be null? I guess not, b/c "afterC" is only called,
-        // if "beforeC" was called earlier.
+        CreationStack stack = creations.get();
 
         if (stack.size()<=0) {
             if (debug) {
@@ -2594,24 +3111,14 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     }
 
     /**
-     * Add values to data counters. Must be run synchronously. 
+     * Add values to data counters.
      * @param name Name of post, e.g. "heap-objects" or "stack-bytes" 
      * @param approx Whether object is approximate or not
-     * @param amount (Additional) value of name
+     * @param amount (Additional) value of name, for one sampled object
      */
-    private synchronized void countFootprint(String name, boolean approx,
-                                             long amount) {
-        Map<String, Long> map = null;
-        // Precise or approximate object? Choose map accordingly. 
-        if (approx)
-            map = approxFootprint;
-        else
-            map = preciseFootprint;
-        if (map.containsKey(name)) {
-            map.put(name, map.get(name) + amount);
-        } else {
-            map.put(name, amount);
-        }
+    private void countFootprint(String name, boolean approx,
+                                long amount) {
+        footprint.count(name, approx, amount);
     }
 
     /**
@@ -2624,50 +3131,27 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
         // Set stop time
         runInfo.setTotalRuntime(startup, System.currentTimeMillis());
 
-        JSONStringer stringer = new JSONStringer();
+        // Write classical EnerJ stats to file (read by bin/enerjstats). The
+        // text is streamed to the file; with many counters it can be large
         try {
-            stringer.object();
-
-            // Output operation counts.
-            Set<String> ops = new HashSet<String>();
-            stringer.key("operations");
-            stringer.object();
-            for (String op : ops) {
-                stringer.key(op);
-                stringer.array();
-                stringer.endArray();
-            }
-            stringer.endObject();
-
-            // Output footprint counts.
-            Set<String> footprints = new HashSet<String>();
-            footprints.addAll(approxFootprint.keySet());
-            footprints.addAll(preciseFootprint.keySet());
-            stringer.key("footprint");
-            stringer.object();
-            for (String sec : footprints) {
-                long approxAmt = approxFootprint.containsKey(sec) ?
-		    approxFootprint.get(sec) : 0;
-                long preciseAmt = preciseFootprint.containsKey(sec) ?
-		    preciseFootprint.get(sec) : 0;
-
-                stringer.key(sec);
-                stringer.array();
-                stringer.value(preciseAmt);
-                stringer.value(approxAmt);
-                stringer.endArray();
-            }
-            stringer.endObject();
-
-            stringer.endObject();
+            JSONWriter writer = new JSONWriter(new FileOutputStream(JSON_OUTPUT_FILE_NAME), false);
+            writeCounts(writer);
+            writer.close();
+        } catch (FileNotFoundException exc) {
+            System.out.println("couldn't write stats file!");
         } catch (JSONException exc) {
             System.out.println("JSON writing failed!");
         }
 
-        String out = stringer.toString();
-
         if (debug) {
-            System.out.println(out);
+            try {
+                PrintWriter out = new PrintWriter(System.out);
+                writeCounts(new JSONWriter(out, false));
+                out.println();
+                out.flush();
+            } catch (JSONException exc) {
+                System.out.println("JSON writing failed!");
+            }
             for (Map.Entry<String,AtomicInteger> entry : debugCounters.entrySet()) { //DEBUG
                 System.out.println(String.format("%s - %d",
 						 (String)entry.getKey(),
@@ -2677,9 +3161,11 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
         
         // Write TOLOP related stats to file
         try {
-            BufferedWriter bw = new BufferedWriter(new FileWriter("tolop_stats.txt"));
-            bw.write(runInfo.toString());
-            bw.close();
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter("tolop_stats.txt")));
+            runInfo.print(out);
+            out.close();
+            if (out.checkError())
+                throw new IOException();
         }
         catch (IOException e) {
             System.err.println("Error while writing (new) EnerJ results to file...");
@@ -2689,19 +3175,31 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
             System.out.println();
             runInfo.printMemOpCounters();
         }
+    }
 
-        // Write classical EnerJ stats to file
-        // TODO: remove this (and much else)
-        // if (debug) {
-        //     System.out.println(out);
-        // }
-        // try {
-        //     FileWriter fstream = new FileWriter(JSON_OUTPUT_FILE_NAME);
-        //     fstream.write(out);
-        //     fstream.close();
-        // } catch (IOException exc) {
-        //     System.out.println("couldn't write stats file!");
-        // }
+    /**
+     * Write the operation and footprint counts as one JSON object.
+     * @param writer Writer of a fresh JSON text
+     */
+    private void writeCounts(JSONWriter writer) throws JSONException {
+        writer.object();
+
+        // Output operation counts.
+        Set<String> ops = new HashSet<String>();
+        writer.key("operations");
+        writer.object();
+        for (String op : ops) {
+            writer.key(op);
+            writer.array();
+            writer.endArray();
+        }
+        writer.endObject();
+
+        // Output footprint counts.
+        footprint.write(writer);
+        liveSeries.write(writer);
+
+        writer.endObject();
     }
 
     /**
@@ -2709,14 +3207,14 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      * @param ref The collected object reference (was collected in deallocPoll).    
      */
     @Override
-    public synchronized void endLifetime(PhantomReference<Object> ref) {
-        ApproximationInformation infoObj;
-        if (phantomInfo.containsKey(ref)) {
-            infoObj = phantomInfo.get(ref);
-        } else {
+    public void endLifetime(PhantomReference<Object> ref) {
+        // Ends exactly once, even if both the program (Reference.destroy),
+        // the dealloc thread and the shutdown hook race for it
+        if (!(ref instanceof LifetimeReference) || !liveReferences.remove(ref)) {
             // Already collected! Do nothing.
             return;
         }
+        ApproximationInformation infoObj = ((LifetimeReference)ref).infoObj;
         infoObj.collected = System.currentTimeMillis();
 
         // Log this lifetime at an object granularity.
@@ -2729,6 +3227,8 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
 		       infoObj.preciseSize * duration);
         countFootprint(memPart + "-bytes", true,
 		       infoObj.approxSize  * duration);
+        if (infoObj.heap)
+            liveSeries.collected(infoObj.approx, infoObj.preciseSize, infoObj.approxSize);
 
         if (debug) {
             System.out.println("EnerJ: object collected after " + duration +
@@ -2738,7 +3238,8 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     }
 
     /**
-     * A thread that waits for finalizations. 
+     * A thread that waits for finalizations. Everything that is enqueued
+     * when it wakes up is handled in one go.
      */
     @SuppressWarnings("unchecked")
     private void deallocPoll() {
@@ -2753,20 +3254,22 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
                 return;
             }
 
-            endLifetime(ref);
+            do {
+                endLifetime(ref);
+                ref = (PhantomReference<Object>) referenceQueue.poll();
+            } while (ref != null);
         }
     }
 
     /**
      * Called on shutdown to collect all remaining objects.
      */
-    private synchronized void cleanUpObjects() {
+    private void cleanUpObjects() {
         if (debug)
             System.out.println("EnerJ: objects remaining at shutdown: " +
-                               phantomInfo.size());
-        for (Map.Entry<PhantomReference<Object>, ApproximationInformation> kv :
-		 phantomInfo.entrySet()) {
-            endLifetime(kv.getKey());
+                               liveReferences.size());
+        for (LifetimeReference ref : new ArrayList<LifetimeReference>(liveReferences)) {
+            endLifetime(ref);
         }
     }
 
@@ -2800,123 +3303,71 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     }
 
     /**
-     * Add simulated adder noise errors. 
-     * @param Input number
+     * Add simulated ALU noise errors: the raw bits of the result are
+     * flipped according to the error distribution of the unit, operand type
+     * and number of approximate bits. Byte and short operations, and types
+     * without a distribution, are left alone.
+     * @param num Result of the operation
+     * @param nk Number type
+     * @param op Arithmetic operator
+     * @param approximativeBits Number of approximate bits
      * @return Potentially some erroneous value
      */
-    private Number adderNoise(Number num, int approximativeBits) {
-	long error_array [] = ADDITION_ERRORS32;
-	long total_additions = 10000000 * INVPROB_ADDER_UPSET;
-
+    private Number aluNoise(Number num, NumberKind nk, ArithOperator op, int approximativeBits) {
 	/* To assure the we don't apply errors when we are not
 	 * supposed to */
 	if (!ALLOW_APPROXIMATE)
 	    return num;
 
-	/* TODO: The error models need to be created for the other
-	 * approximate cases
-	 */
-	switch(approximativeBits){
-	case 0:
-	    System.err.println("There is no error model for Approx0");
-	    System.exit(0);
-	    //	    error_array = ADDITION_ERRORS;
+	int type;
+	switch (nk) {
+	case INT:
+	    type = ErrorDistribution.INT;
 	    break;
-	case 8:
-	    error_array = ADDITION_ERRORS8;
+	case LONG:
+	    type = ErrorDistribution.LONG;
 	    break;
-	case 16:
-	    error_array = ADDITION_ERRORS16;
+	case FLOAT:
+	    type = ErrorDistribution.FLOAT;
 	    break;
-	case 24:
-	    error_array = ADDITION_ERRORS24;
+	case DOUBLE:
+	    type = ErrorDistribution.DOUBLE;
 	    break;
 	default:
-	    error_array = ADDITION_ERRORS32;
-	    break;
-	}
-
-	boolean error = false;
-	for(int i = 0; i < error_array.length; i ++) {
-	    if(Math.ceil(Math.random()*total_additions) <= error_array[i]) {
-		error = true;
-		runInfo.countError("AdderError_Bit"+i, true, approximativeBits);
-		// Flip the bit using XOR
-		num = num.intValue() ^ (1 << i);
-		/*
-		// Computing frontiers way of applying error
-		if(Math.random()<0.5){
-		    num = (int)num + (int)Math.pow(2,i);
-		}
-		else{
-		    num = (int)num - (int)Math.pow(2,i);
-		}
-		*/
-	    }
-	}
-	if (error)
-	    runInfo.countOperation("AdderErrorTotal", true, approximativeBits);
-	return num;
-    }
-
-    /**
-     * Add simulated multiplier noise errors. 
-     * @param Input number
-     * @return Potentially some erroneous value
-     */
-    private Number multiplierNoise(Number num, int approximativeBits) {
-	long error_array [] = MULTIPLICATION_ERRORS32;
-	long total_additions = 1000000 * INVPROB_ADDER_UPSET;
-
-	/* To assure the we don't apply errors when we are not
-	 * supposed to */
-	if (!ALLOW_APPROXIMATE)
 	    return num;
-
-	/* TODO: The error models need to be created for the other
-	 * approximate cases
-	 */
-	switch(approximativeBits){
-	case 0:
-	    System.err.println("There is no error model for Approx0");
-	    System.exit(0);
-	    //	    error_array = ADDITION_ERRORS;
-	    break;
-	case 8:
-	    error_array = MULTIPLICATION_ERRORS8;
+	}
+	int kind;
+	String unit;
+	switch (op) {
+	case PLUS:
+	    kind = ErrorDistribution.ADDER;
+	    unit = "Adder";
 	    break;
-	case 16:
-	    error_array = MULTIPLICATION_ERRORS16;
+	case MINUS:
+	    kind = ErrorDistribution.TWOCOMP;
+	    unit = "Adder";
 	    break;
-	case 24:
-	    error_array = MULTIPLICATION_ERRORS24;
+	case MULTIPLY:
+	    kind = ErrorDistribution.MULTIPLIER;
+	    unit = "Multiplier";
 	    break;
 	default:
-	    error_array = MULTIPLICATION_ERRORS32;
-	    break;
+	    return num;
 	}
 
-	boolean error = false;
-	for(int i = 0; i < error_array.length; i ++) {
-	    if(Math.ceil(Math.random()*total_additions) <= error_array[i]) {
-		error = true;
-		runInfo.countError("MultiplierError_Bit"+i, true, approximativeBits);
-		// Flip the bit using XOR
-		num = num.intValue() ^ (1 << i);
-		/*
-		// Computing frontiers way of applying error
-		if(Math.random()<0.5){
-		    num = (int)num + (int)Math.pow(2,i);
-		}
-		else{
-		    num = (int)num - (int)Math.pow(2,i);
-		}
-		*/
-	    }
-	}
-	if (error)
-	    runInfo.countOperation("MultiplierErrorTotal", true, approximativeBits);
-	return num;
+	ErrorDistribution errors =
+	    arithmeticErrors[kind][type][ErrorDistribution.widthIndex(approximativeBits)];
+	if (errors == null)
+	    return num;
+	long flipped = errors.sample();
+	if (flipped == 0)
+	    return num;
+	for (long rest = flipped; rest != 0; rest &= rest - 1)
+	    runInfo.countError(unit + "Error_Bit" + Long.numberOfTrailingZeros(rest),
+			       true, approximativeBits);
+	runInfo.countOperation(unit + "ErrorTotal", true, approximativeBits);
+	// Flip the bits using XOR
+	return fromResultBits(resultBits(num, nk) ^ flipped, nk);
     }
 
     /**
@@ -2965,38 +3416,65 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
         }
         else {
             switch (nk) {
-            case DOUBLE:
+            case DOUBLE: {
+                // Approximate operations use a narrower FPU
+                boolean narrow = approx && ALLOW_APPROXIMATE && approximativeBits > 0;
+                double l = lhs.doubleValue();
+                double r = rhs.doubleValue();
+                if (narrow) {
+                    l = narrowDouble(l, approximativeBits);
+                    r = narrowDouble(r, approximativeBits);
+                }
+                double result;
                 switch (op) {
                 case PLUS:
-                    num = (lhs.doubleValue() + rhs.doubleValue());
+                    result = l + r;
                     break;
                 case MINUS:
-                    num = (lhs.doubleValue() - rhs.doubleValue());
+                    result = l - r;
                     break;
                 case MULTIPLY:
-                    num = (lhs.doubleValue() * rhs.doubleValue());
+                    result = l * r;
                     break;
                 case DIVIDE:
-                    num = (lhs.doubleValue() / rhs.doubleValue());
+                    result = l / r;
+                    break;
+                default:
+                    result = 0;
                     break;
                 }
+                num = narrow ? narrowDouble(result, approximativeBits) : result;
                 break;
-            case FLOAT:
+            }
+            case FLOAT: {
+                boolean narrow = approx && ALLOW_APPROXIMATE && approximativeBits > 0;
+                float l = lhs.floatValue();
+                float r = rhs.floatValue();
+                if (narrow) {
+                    l = narrowFloat(l, approximativeBits);
+                    r = narrowFloat(r, approximativeBits);
+                }
+                float result;
                 switch (op) {
                 case PLUS:
-                    num = (lhs.floatValue() + rhs.floatValue());
+                    result = l + r;
                     break;
                 case MINUS:
-                    num = (lhs.floatValue() - rhs.floatValue());
+                    result = l - r;
                     break;
                 case MULTIPLY:
-                    num = (lhs.floatValue() * rhs.floatValue());
+                    result = l * r;
                     break;
                 case DIVIDE:
-                    num = (lhs.floatValue() / rhs.floatValue());
+                    result = l / r;
+                    break;
+                default:
+                    result = 0;
                     break;
                 }
+                num = narrow ? narrowFloat(result, approximativeBits) : result;
                 break;
+            }
             case LONG:
                 switch (op) {
                 case PLUS:
@@ -3040,16 +3518,91 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
             }
         }
 
-        // Addition and Subtraction errors
-        if(approximativeBits!=0 && nk == NumberKind.INT && (op == ArithOperator.PLUS || op == ArithOperator.MINUS)){
-	    num = adderNoise(num, approximativeBits);
+        // Addition, subtraction and multiplication errors
+        if (approximativeBits != 0 && num != null)
+            num = aluNoise(num, nk, op, approximativeBits);
+
+        // Timing errors; Approx0 operations have no approximate bits to hit
+        if (approx && approximativeBits > 0 && timingErrorThreshold != 0 && num != null)
+            num = timingError(num, nk, approximativeBits);
+
+        return num;
+    }
+
+    /**
+     * Possibly replace the result of an approximate operation with a timing
+     * error, according to TIMING_ERROR_MODE: 1 flips a random bit, 2 gives
+     * the previous result of the same kind (from the same thread) and 3
+     * gives a random value.
+     * @param num Result of the operation
+     * @param nk Number type
+     * @param approximativeBits Number of approximate bits
+     * @return The result, possibly erroneous
+     */
+    private Number timingError(Number num, NumberKind nk, int approximativeBits) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long[] last = lastResults.get();
+        int slot = nk.ordinal();
+        if ((random.nextLong() >>> 1) >= timingErrorThreshold) {
+            last[slot] = resultBits(num, nk);
+            return num;
+        }
+
+        long bits;
+        switch (TIMING_ERROR_MODE) {
+        case 1: // Single bit flip
+            bits = resultBits(num, nk) ^ (1L << random.nextInt(resultWidth(nk)));
+            break;
+        case 2: // Last value
+            bits = last[slot];
+            break;
+        case 3: // Random value
+            bits = random.nextLong();
+            break;
+        default: // Rejected when the runtime starts
+            return num;
         }
-        // Multiplication errors
-        if(approximativeBits!=0 && (nk == NumberKind.INT || nk == NumberKind.LONG)  && op == ArithOperator.MULTIPLY){
-	    num = multiplierNoise(num, approximativeBits);
+        runInfo.countError("TimingError", true, approximativeBits);
+        last[slot] = bits;
+        return fromResultBits(bits, nk);
+    }
+
+    /**
+     * @return Width in bits of the result of an operation
+     */
+    private static int resultWidth(NumberKind nk) {
+        return nk == NumberKind.LONG || nk == NumberKind.DOUBLE ? 64 : 32;
+    }
+
+    /**
+     * @return Raw bits of the result of an operation
+     */
+    private static long resultBits(Number num, NumberKind nk) {
+        switch (nk) {
+        case DOUBLE:
+            return Double.doubleToRawLongBits(num.doubleValue());
+        case FLOAT:
+            return Float.floatToRawIntBits(num.floatValue());
+        default:
+            return num.longValue();
         }
+    }
 
-        return num;
+    /**
+     * @return The result of an operation of the given type with some raw
+     * bits; results of int, byte and short operations are ints
+     */
+    private static Number fromResultBits(long bits, NumberKind nk) {
+        switch (nk) {
+        case DOUBLE:
+            return Double.longBitsToDouble(bits);
+        case FLOAT:
+            return Float.intBitsToFloat((int)bits);
+        case LONG:
+            return bits;
+        default:
+            return (int)bits;
+        }
     }
 
     /**
@@ -3059,16 +3612,10 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
      * @return Field representation of the class field.
      */
     protected Field getField(Class<?> class_, String name) {
-    	// TODO #general: This can surely be re-used on some places
-        while (class_ != null) {
-            try {
-                return class_.getDeclaredField(name);
-            } catch (NoSuchFieldException x) {
-                class_ = class_.getSuperclass();
-            }
-        }
-        System.err.println("reflection error! field not found: " + name);
-        return null;
+        Field field = ClassLayout.of(class_).getField(name);
+        if (field == null)
+            System.err.println("reflection error! field not found: " + name);
+        return field;
     }
 
     /**
@@ -3108,6 +3655,8 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     public <T> T loadLocal(Reference<T> ref, boolean approx) {
         runInfo.countOperation("RFTotal", ALLOW_APPROXIMATE && approx, 32);
         runInfo.countOperation("RFload", ALLOW_APPROXIMATE && approx, 32);
+        if (registerFile != null)
+            registerFile.access(ref, ALLOW_APPROXIMATE && approx, false);
         T val = loadValue(ref.value, approx, MemKind.VARIABLE);
         if (ALLOW_APPROXIMATE && approx) {
             val = bitError(val, INVPROB_REGISTER_READ_UPSET,
@@ -3116,6 +3665,25 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
         return val;
     }
 
+    /**
+     * Load an approximate local that is not boxed in a Reference, with load
+     * upsets. Such locals have no identity, so the register file is not
+     * simulated for them.
+     * @param bits Raw bits of the value
+     * @param width Width of the value in bits
+     * @param approximativeBits Number of approximate (low) bits
+     * @return The bits, possibly with errors
+     */
+    @Override
+    public long loadLocalBits(long bits, int width, int approximativeBits) {
+        runInfo.countOperation("RFTotal", ALLOW_APPROXIMATE, 32);
+        runInfo.countOperation("RFload", ALLOW_APPROXIMATE, 32);
+        if (!ALLOW_APPROXIMATE)
+            return bits;
+        return BitFlips.upset(runInfo, bits, width, INVPROB_REGISTER_READ_UPSET,
+                              approximativeBits);
+    }
+
     /**
      * Load a value from an array.
      * @param array The array
@@ -3161,7 +3729,6 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
                 class_ = obj.getClass();
             }
             Field field = getField(class_, fieldname);
-            field.setAccessible(true);
 
             //--TOLOP
             //--Load from simulated memory hierarchy
@@ -3192,6 +3759,8 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
     	// TODO #general: If static - allow local errors after all?
         runInfo.countOperation("RFTotal", ALLOW_APPROXIMATE && approx, 32);
         runInfo.countOperation("RFstore", ALLOW_APPROXIMATE && approx, 32);
+        if (registerFile != null)
+            registerFile.access(ref, ALLOW_APPROXIMATE && approx, true);
         T value = storeValue(rhs, approx, MemKind.VARIABLE);
         if (ALLOW_APPROXIMATE && approx) {
             value = bitError(value, INVPROB_REGISTER_WRITE_FAILURE,
@@ -3201,6 +3770,24 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
         return ref.value;
     }
 
+    /**
+     * Store an approximate local that is not boxed in a Reference, with
+     * write failures. See loadLocalBits.
+     * @param bits Raw bits of the value
+     * @param width Width of the value in bits
+     * @param approximativeBits Number of approximate (low) bits
+     * @return The bits to store, possibly with errors
+     */
+    @Override
+    public long storeLocalBits(long bits, int width, int approximativeBits) {
+        runInfo.countOperation("RFTotal", ALLOW_APPROXIMATE, 32);
+        runInfo.countOperation("RFstore", ALLOW_APPROXIMATE, 32);
+        if (!ALLOW_APPROXIMATE)
+            return bits;
+        return BitFlips.upset(runInfo, bits, width, INVPROB_REGISTER_WRITE_FAILURE,
+                              approximativeBits);
+    }
+
     /**
      * Store a value in some array.
      * @param array The array
@@ -3253,7 +3840,6 @@ class PrecisionRuntimeTolop implements PrecisionRuntime {
                 class_ = obj.getClass();
             }
             field = getField(class_, fieldname);
-            field.setAccessible(true);
 
             // obj.fieldname = val;
             // field.set(obj, val);
@@ -0,0 +1,209 @@
+package enerj.rt;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Private L1 caches of simulated cores, kept coherent with a MESI protocol.
+ * Java threads are mapped onto the cores round robin, in the order they
+ * first access memory. The caches only hold tags and coherence states; the
+ * shared cache behind them still models timing and errors.
+ *
+ * Coherence traffic is counted per approximate/precise line:
+ *   L1-Hit, L1-Miss
+ *   L1-Writeback: a modified line is evicted from an L1
+ *   Coherence-Invalidation: a copy in another L1 is invalidated by a store
+ *   Coherence-Writeback: another L1 has to write back its modified copy
+ * If coherence is relaxed for approximate lines, stores don't invalidate the
+ * copies of other cores and loads don't force modified copies to be written
+ * back; readers may then see stale data. The traffic that would have been
+ * needed is counted as Coherence-Invalidation-Saved and
+ * Coherence-Writeback-Saved instead.
+ *
+ * Not thread safe; used while holding the runtime lock.
+ */
+class PrivateCaches {
+    // Line states; a line that isn't in a cache is invalid
+    private static final byte INVALID = 0;
+    private static final byte SHARED = 1;
+    private static final byte EXCLUSIVE = 2;
+    private static final byte MODIFIED = 3;
+
+    private final int nCores;
+    private final int nSets;
+    private final int associativity;
+    private final boolean relaxApprox;
+    private final RunInfo runInfo;
+
+    // Per core: line, state, time of last use and number of approximate
+    // bits (of the access that filled it) of every way of every set
+    private final long[][] lines;
+    private final byte[][] states;
+    private final long[][] lastUse;
+    private final byte[][] bits;
+    private long clock = 0;
+
+    private final AtomicInteger nextCore = new AtomicInteger(0);
+    private final ThreadLocal<Integer> core = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return nextCore.getAndIncrement() % nCores;
+        }
+    };
+
+    /**
+     * @param nCores Number of simulated cores
+     * @param nSets Number of sets of each private cache
+     * @param associativity Number of ways of each set
+     * @param relaxApprox Whether approximate lines may skip coherence traffic
+     * @param runInfo Counters for the coherence traffic
+     */
+    PrivateCaches(int nCores, int nSets, int associativity,
+                  boolean relaxApprox, RunInfo runInfo) {
+        if (nCores < 1 || nSets < 1 || associativity < 1) {
+            System.err.println("Unallowed number of cores or private cache size");
+            System.exit(1);
+        }
+        this.nCores = nCores;
+        this.nSets = nSets;
+        this.associativity = associativity;
+        this.relaxApprox = relaxApprox;
+        this.runInfo = runInfo;
+        lines = new long[nCores][nSets * associativity];
+        states = new byte[nCores][nSets * associativity];
+        lastUse = new long[nCores][nSets * associativity];
+        bits = new byte[nCores][nSets * associativity];
+    }
+
+    /**
+     * Access a line from the core of the current thread. On a miss, the line
+     * is brought into the private cache.
+     * @param line Cache line address, unique for precise and approximate lines
+     * @param store True for a store; false for a load
+     * @param approx Whether the line is approximate or not
+     * @param approximativeBits Number of approximate bits of the accessed data
+     * @return true if the access hit in the private cache
+     */
+    boolean access(long line, boolean store, boolean approx, int approximativeBits) {
+        int me = core.get();
+        int way = find(me, line);
+        if (way >= 0) {
+            runInfo.countOperation("L1-Hit", approx, approximativeBits);
+            lastUse[me][way] = ++clock;
+            if (store && states[me][way] != MODIFIED) {
+                if (states[me][way] == SHARED)
+                    storeToOthers(me, line, approx, approximativeBits);
+                states[me][way] = MODIFIED;
+            }
+            return true;
+        }
+
+        runInfo.countOperation("L1-Miss", approx, approximativeBits);
+        boolean othersHold = false;
+        if (store) {
+            storeToOthers(me, line, approx, approximativeBits);
+        }
+        else {
+            for (int c = 0; c < nCores; c++) {
+                int w = c == me ? -1 : find(c, line);
+                if (w < 0)
+                    continue;
+                othersHold = true;
+                if (states[c][w] == MODIFIED) {
+                    if (relaxApprox && approx) {
+                        runInfo.countOperation("Coherence-Writeback-Saved", approx, approximativeBits);
+                        continue;
+                    }
+                    runInfo.countOperation("Coherence-Writeback", approx, approximativeBits);
+                }
+                states[c][w] = SHARED;
+            }
+        }
+        fill(me, line, store ? MODIFIED : othersHold ? SHARED : EXCLUSIVE, approximativeBits);
+        return false;
+    }
+
+    /**
+     * Get exclusive ownership of a line for a store: invalidate the copies
+     * of all other cores, unless coherence is relaxed for the line.
+     */
+    private void storeToOthers(int me, long line, boolean approx, int approximativeBits) {
+        for (int c = 0; c < nCores; c++) {
+            int w = c == me ? -1 : find(c, line);
+            if (w < 0)
+                continue;
+            if (relaxApprox && approx) {
+                runInfo.countOperation("Coherence-Invalidation-Saved", approx, approximativeBits);
+                continue;
+            }
+            if (states[c][w] == MODIFIED)
+                runInfo.countOperation("Coherence-Writeback", approx, approximativeBits);
+            runInfo.countOperation("Coherence-Invalidation", approx, approximativeBits);
+            states[c][w] = INVALID;
+        }
+    }
+
+    /**
+     * Drop a line from all cores' caches, without any coherence traffic;
+     * used when the data of the line no longer exists.
+     * @param line Cache line address, unique for precise and approximate lines
+     */
+    void invalidate(long line) {
+        for (int c = 0; c < nCores; c++) {
+            int w = find(c, line);
+            if (w >= 0)
+                states[c][w] = INVALID;
+        }
+    }
+
+    /**
+     * @return Whether any core's cache holds a line
+     */
+    boolean holds(long line) {
+        for (int c = 0; c < nCores; c++) {
+            if (find(c, line) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The way of a core's cache holding the line, or -1
+     */
+    private int find(int c, long line) {
+        int base = setOf(line) * associativity;
+        for (int w = base; w < base + associativity; w++) {
+            if (states[c][w] != INVALID && lines[c][w] == line)
+                return w;
+        }
+        return -1;
+    }
+
+    /**
+     * Put a line into a core's cache, evicting the least recently used line
+     * of the set if there is no invalid way.
+     */
+    private void fill(int c, long line, byte state, int approximativeBits) {
+        int base = setOf(line) * associativity;
+        int victim = base;
+        for (int w = base; w < base + associativity; w++) {
+            if (states[c][w] == INVALID) {
+                victim = w;
+                break;
+            }
+            if (lastUse[c][w] < lastUse[c][victim])
+                victim = w;
+        }
+        if (states[c][victim] == MODIFIED) {
+            boolean victimApprox = lines[c][victim] < 0; // Approximation bit is the sign bit
+            runInfo.countOperation("L1-Writeback", victimApprox, bits[c][victim]);
+        }
+        lines[c][victim] = line;
+        states[c][victim] = state;
+        lastUse[c][victim] = ++clock;
+        bits[c][victim] = (byte)approximativeBits;
+    }
+
+    private int setOf(long line) {
+        return (int)((line & Long.MAX_VALUE) % nSets);
+    }
+}
@@ -16,20 +16,41 @@ public class Reference<T> {
      */
     public int approximativeBits;
 
+    /**
+     * Null if the lifetime of this reference is not tracked
+     */
     public PhantomReference<Object> phantom;
 
+    /**
+     * Unique key of the memory block a spilled local is written to; 0
+     * until the local is first spilled from a register
+     */
+    long spillId;
+
+    /**
+     * Whether locals are registered with the runtime for footprint
+     * accounting. Turning this off (-DTrackLocalLifetimes=false) makes a
+     * reference a plain box: no size computation, no phantom reference and
+     * no runtime lock per created local.
+     */
+    public static final boolean TRACK_LIFETIMES =
+        Boolean.parseBoolean(System.getProperty("TrackLocalLifetimes", "true"));
+
     public Reference(T value, boolean approx, boolean primitive, int approximativeBits) {
         this.value = value;
         this.approx = approx;
         this.primitive = primitive;
         this.approximativeBits = approximativeBits;
-        int[] sizes = PrecisionChecker.referenceSizes(this);
-        phantom = PrecisionRuntimeRoot.impl.setApproximate(
-	   this, approx, false, sizes[0], sizes[1], approximativeBits
-        );
+        if (TRACK_LIFETIMES) {
+            int[] sizes = PrecisionChecker.referenceSizes(this);
+            phantom = PrecisionRuntimeRoot.impl.setApproximate(
+	       this, approx, false, sizes[0], sizes[1], approximativeBits
+            );
+        }
     }
 
     public void destroy() {
-        PrecisionRuntimeRoot.impl.endLifetime(phantom);
+        if (phantom != null)
+            PrecisionRuntimeRoot.impl.endLifetime(phantom);
     }
 }
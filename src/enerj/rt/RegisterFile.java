@@ -0,0 +1,120 @@
+package enerj.rt;
+
+/**
+ * A finite register file per thread, with separate approximate and precise
+ * registers. Locals are kept in registers in least recently used order;
+ * when a local that isn't in a register is accessed, the least recently
+ * used local of the same kind is evicted. Evicted locals that were stored to
+ * since they were filled are spilled to memory, and locals that have been
+ * spilled are filled from memory when they are used again. The runtime
+ * decides what spilling and filling means.
+ *
+ * The runtime doesn't know when a local dies, so a dead local keeps its
+ * register until it's the least recently used one.
+ *
+ * Counted per approximate/precise register: RF-Hit, RF-Miss, RF-Spill and
+ * RF-Fill.
+ */
+abstract class RegisterFile {
+    private final int nApprox;
+    private final int nPrecise;
+    private final RunInfo runInfo;
+
+    /**
+     * Registers of one kind of one thread
+     */
+    private static final class Bank {
+        final Reference<?>[] locals;
+        final long[] lastUse;
+        final boolean[] dirty;
+        long clock = 0;
+
+        Bank(int size) {
+            locals = new Reference<?>[size];
+            lastUse = new long[size];
+            dirty = new boolean[size];
+        }
+    }
+
+    private final ThreadLocal<Bank[]> banks = new ThreadLocal<Bank[]>() {
+        @Override
+        protected Bank[] initialValue() {
+            return new Bank[] {
+                nPrecise > 0 ? new Bank(nPrecise) : null,
+                nApprox > 0 ? new Bank(nApprox) : null
+            };
+        }
+    };
+
+    /**
+     * @param nApprox Number of approximate registers; 0 for unlimited
+     * @param nPrecise Number of precise registers; 0 for unlimited
+     * @param runInfo Counters for the register traffic
+     */
+    RegisterFile(int nApprox, int nPrecise, RunInfo runInfo) {
+        if (nApprox < 0 || nPrecise < 0) {
+            System.err.println("Unallowed number of registers");
+            System.exit(1);
+        }
+        this.nApprox = nApprox;
+        this.nPrecise = nPrecise;
+        this.runInfo = runInfo;
+    }
+
+    /**
+     * Write an evicted local to memory.
+     * @param local The local
+     * @param approx Whether the register was approximate
+     */
+    protected abstract void spill(Reference<?> local, boolean approx);
+
+    /**
+     * Read a local that isn't in a register from memory.
+     * @param local The local
+     * @param approx Whether the register is approximate
+     * @return false if the local has never been spilled, i.e. there was
+     * nothing to read
+     */
+    protected abstract boolean fill(Reference<?> local, boolean approx);
+
+    /**
+     * Access a local from the current thread, bringing it into a register.
+     * @param local The local
+     * @param approx Whether the access is approximate
+     * @param store True for a store; false for a load
+     */
+    void access(Reference<?> local, boolean approx, boolean store) {
+        Bank bank = banks.get()[approx ? 1 : 0];
+        if (bank == null)
+            return; // Unlimited registers
+
+        Reference<?>[] locals = bank.locals;
+        int victim = 0;
+        for (int r = 0; r < locals.length; r++) {
+            if (locals[r] == local) {
+                runInfo.countOperation("RF-Hit", approx, 32);
+                bank.lastUse[r] = ++bank.clock;
+                bank.dirty[r] |= store;
+                return;
+            }
+            if (locals[victim] != null
+                && (locals[r] == null || bank.lastUse[r] < bank.lastUse[victim]))
+                victim = r;
+        }
+
+        runInfo.countOperation("RF-Miss", approx, 32);
+        if (locals[victim] != null && bank.dirty[victim]) {
+            runInfo.countOperation("RF-Spill", approx, 32);
+            spill(locals[victim], approx);
+        }
+        // A store overwrites the whole local; no need to read it first.
+        // A local that isn't read from memory has no up to date copy there,
+        // so it has to be spilled when it's evicted.
+        boolean filled = !store && fill(local, approx);
+        if (filled)
+            runInfo.countOperation("RF-Fill", approx, 32);
+        locals[victim] = local;
+        bank.lastUse[victim] = ++bank.clock;
+        bank.dirty[victim] = !filled;
+    }
+}
@@ -1,5 +1,7 @@
 package enerj.rt;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -459,70 +461,79 @@ class RunInfo {
 	
     @Override
     public String toString() {
-	StringBuffer sb = new StringBuffer();
+	StringWriter sw = new StringWriter();
+	print(new PrintWriter(sw));
+	return sw.toString();
+    }
 
-	sb.append("---Arithmetic operations---\n");
-	sb.append("---Approx0---\n");
+    /**
+     * Write the same report as toString, without building it in memory
+     * first.
+     * @param out Writer to print to
+     */
+    void print(PrintWriter out) {
+	out.print("---Arithmetic operations---\n");
+	out.print("---Approx0---\n");
 	SortedSet<String> keys = new TreeSet<String>(approxOpCounts0.keySet());
 	for (String key : keys) { 
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    key,
-				    ((AtomicInteger)approxOpCounts0.get(key)).get()));	
+				    ((AtomicInteger)approxOpCounts0.get(key)).get());	
 	}
-	sb.append("---Approx8---\n");
+	out.print("---Approx8---\n");
 	keys = new TreeSet<String>(approxOpCounts8.keySet());
 	for (String key : keys) { 
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    key,
-				    ((AtomicInteger)approxOpCounts8.get(key)).get()));	
+				    ((AtomicInteger)approxOpCounts8.get(key)).get());	
 	}
-	sb.append("---Approx16---\n");
+	out.print("---Approx16---\n");
 	keys = new TreeSet<String>(approxOpCounts16.keySet());
 	for (String key : keys) { 
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    key,
-				    ((AtomicInteger)approxOpCounts16.get(key)).get()));	
+				    ((AtomicInteger)approxOpCounts16.get(key)).get());	
 	}
-	sb.append("---Approx24---\n");
+	out.print("---Approx24---\n");
 	keys = new TreeSet<String>(approxOpCounts24.keySet());
 	for (String key : keys) { 
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    key,
-				    ((AtomicInteger)approxOpCounts24.get(key)).get()));	
+				    ((AtomicInteger)approxOpCounts24.get(key)).get());	
 	}
-	sb.append("---Approx32---\n");
+	out.print("---Approx32---\n");
 	keys = new TreeSet<String>(approxOpCounts32.keySet());
 	for (String key : keys) { 
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    key,
-				    ((AtomicInteger)approxOpCounts32.get(key)).get()));	
+				    ((AtomicInteger)approxOpCounts32.get(key)).get());	
 	}
 	float hitRate;
 	if (approxOpCounts32.get("CacheTotal") != null) {
 	    hitRate = (float)(approxOpCounts32.get("Cache-Hit").get())/(float)(approxOpCounts32.get("CacheTotal").get()); // * 100;
-	    sb.append(String.format("%-25s%10f\n",
+	    out.format("%-25s%10f\n",
 				    "HitRate",
-				    hitRate));
+				    hitRate);
 	}
 
-	sb.append("---Precise---\n");
+	out.print("---Precise---\n");
 	keys = new TreeSet<String>(preciseOpCounts.keySet());
 	for (String key : keys) { 
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    key,
-				    ((AtomicInteger)preciseOpCounts.get(key)).get()));	
+				    ((AtomicInteger)preciseOpCounts.get(key)).get());	
 	}
 	if (preciseOpCounts.get("CacheTotal") != null) {
 	    hitRate = (float)(preciseOpCounts.get("Cache-Hit").get())/(float)(preciseOpCounts.get("CacheTotal").get()); // * 100;
-	    sb.append(String.format("%-25s%10f\n",
+	    out.format("%-25s%10f\n",
 				    "HitRate",
-				    hitRate));
+				    hitRate);
 	}
 
 
 
 	
-	sb.append("---Summary---\n");
+	out.print("---Summary---\n");
 	Map<String, Integer> summary  = new HashMap<String, Integer>();
 	Map<String, Integer> approxSummary  = new HashMap<String, Integer>();
 
@@ -558,50 +569,50 @@ class RunInfo {
 		value += preciseOpCounts.get(key).get();
 
 	    summary.put(key, new Integer(value));
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    key,
-				    value));
+				    value);
 	}
 
 	hitRate = (float)summary.get("Cache-Hit")/(float)summary.get("CacheTotal"); // * 100;
-	sb.append(String.format("%-25s%10f\n",
+	out.format("%-25s%10f\n",
 				"HitRate",
-				hitRate));
+				hitRate);
 
 	float opsRate = ((float)summary.get("OpsINT+")+(float)summary.get("OpsINT-")+(float)summary.get("OpsINT*")+(float)summary.get("OpsLONG*"))/(float)summary.get("OpsTotal"); //* 100;
-	sb.append(String.format("%-25s%10f\n",
+	out.format("%-25s%10f\n",
 				"INT+/-/* rate",
-				opsRate));
+				opsRate);
 	
 	float adderOpsRate = (float)approxSummary.get("OpsTotal+/-")/(float)summary.get("OpsTotal+/-");
-	sb.append(String.format("%-25s%10f\n",
+	out.format("%-25s%10f\n",
 				"ApproxAdderOps rate",
-				adderOpsRate));
+				adderOpsRate);
 
 	float multiplierOpsRate = ((float)approxSummary.get("OpsLONG*")+(float)approxSummary.get("OpsINT*"))/((float)summary.get("OpsLONG*")+(float)summary.get("OpsINT*"));
-	sb.append(String.format("%-25s%10f\n",
+	out.format("%-25s%10f\n",
 				"ApproxMultiplierOps rate",
-				multiplierOpsRate));
+				multiplierOpsRate);
 
 	float approxOpsRate = ((float)approxSummary.get("OpsTotal+/-")+(float)approxSummary.get("OpsLONG*")+(float)approxSummary.get("OpsINT*"))/(float)summary.get("OpsTotal"); // * 100;
-	sb.append(String.format("%-25s%10f\n",
+	out.format("%-25s%10f\n",
 				"ApproxOps rate",
-				approxOpsRate));
+				approxOpsRate);
 
 	float approxRFRate = (float)approxSummary.get("RFTotal")/(float)summary.get("RFTotal"); // * 100;
-	sb.append(String.format("%-25s%10f\n",
+	out.format("%-25s%10f\n",
 				"ApproxRF rate",
-				approxRFRate));
+				approxRFRate);
 
 	float approxCacheRate = (float)approxSummary.get("CacheTotal")/(float)summary.get("CacheTotal"); // * 100;
-	sb.append(String.format("%-25s%10f\n",
+	out.format("%-25s%10f\n",
 				"ApproxCache rate",
-				approxCacheRate));
+				approxCacheRate);
 
 
 
 
-	sb.append("---Energy---\n");
+	out.print("---Energy---\n");
 
 	float approxAdderEnergyFactor      = (float) 0.544;
 	float approxMultiplierEnergyFactor = (float) 0.816;
@@ -616,22 +627,22 @@ class RunInfo {
 	float preciseMemoryEnergyOverhead     = (float) 1.0;
 
 	// Print header
-	sb.append(String.format("%-25s%10s %10s %10s\n",
+	out.format("%-25s%10s %10s %10s\n",
 				"Type ",
 				"Approx",
 				"Precise",
-				"Total"));	
+				"Total");	
 	
 	// Accessing half the regsiter file almost reduces the energy
 	// by half according to CACTI
 	float approxRFEnergy = approxRFRate * approxRegisterEnergyFactor; 
 	float preciseRFEnergy = ((float)1.0 - approxRFRate) * preciseRegisterEnergyOverhead;
 	float totalRFEnergy = approxRFEnergy + preciseRFEnergy;
-	sb.append(String.format("%-25s%10f %10f %10f\n",
+	out.format("%-25s%10f %10f %10f\n",
 				"Register File",
 				approxRFEnergy,
 				preciseRFEnergy,
-				totalRFEnergy));	
+				totalRFEnergy);	
 
 	// Since the tag energy is not reduced the benefit is not as high
 	// for caches
@@ -640,11 +651,11 @@ class RunInfo {
 	// becomes slightly less than for a register file
 	float preciseCacheEnergy = ((float)1.0 - approxCacheRate) * preciseCacheEnergyOverhead;
 	float totalCacheEnergy = approxCacheEnergy + preciseCacheEnergy;
-	sb.append(String.format("%-25s%10f %10f %10f\n",
+	out.format("%-25s%10f %10f %10f\n",
 				"Cache",
 				approxCacheEnergy,
 				preciseCacheEnergy,
-				totalCacheEnergy));	
+				totalCacheEnergy);	
 	
 	float approxMiss = 0;
 	if (approxSummary.containsKey("Cache-Miss"))
@@ -663,11 +674,11 @@ class RunInfo {
 	    totalMiss += (float)summary.get("Cache-Miss-Cold");
 	float approxMemEnergy  = approxMiss/2/totalMiss;
 	float preciseMemEnergy = preciseMiss/totalMiss;
-	sb.append(String.format("%-25s%10f %10f %10f\n",
+	out.format("%-25s%10f %10f %10f\n",
 				"Main Memory",
 				approxMemEnergy,
 				preciseMemEnergy,
-				approxMemEnergy + preciseMemEnergy));	
+				approxMemEnergy + preciseMemEnergy);	
 
 	
 	// Kogge-Stone has 62% of the activity of a conventional adder
@@ -676,11 +687,11 @@ class RunInfo {
 	float approxAdderEnergy = adderOpsRate * approxAdderEnergyFactor;
 	float preciseAdderEnergy = ((float)1.0 - adderOpsRate) * preciseAdderEnergyOverhead;
 	float totalAdderEnergy = approxAdderEnergy + preciseAdderEnergy;
-	sb.append(String.format("%-25s%10f %10f %10f\n",
+	out.format("%-25s%10f %10f %10f\n",
 				"Adder",
 				approxAdderEnergy,
 				preciseAdderEnergy,
-				totalAdderEnergy));	
+				totalAdderEnergy);	
 
 	// 32-bit binary multipliers have to do on average 16 additions (50% chance a bit is one)
 	// So the energy of a binary multiplier is 16 times that of a binary adder
@@ -692,78 +703,78 @@ class RunInfo {
 	float approxMultiplierEnergy = multiplierOpsRate * approxMultiplierEnergyFactor;
 	float preciseMultiplierEnergy = ((float)1.0 - multiplierOpsRate) * preciseMultiplierEnergyOverhead;
 	float totalMultiplierEnergy = approxMultiplierEnergy + preciseMultiplierEnergy;
-	sb.append(String.format("%-25s%10f %10f %10f\n",
+	out.format("%-25s%10f %10f %10f\n",
 				"Multiplier",
 				approxMultiplierEnergy,
 				preciseMultiplierEnergy,
-				totalMultiplierEnergy));	
+				totalMultiplierEnergy);	
 
 
 	/*
-	sb.append("---Memory operations---\n");
+	out.print("---Memory operations---\n");
 	keys = new TreeSet<String>(memoryOpCounters.keySet());
 	for (String key : keys) { 
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    key,
-				    ((AtomicInteger)memoryOpCounters.get(key)).get()));	
+				    ((AtomicInteger)memoryOpCounters.get(key)).get());	
 	}
 
         keys = new TreeSet<String>(memoryTimeCounters.keySet());
 	for (String key : keys) { 
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    key,
-				    ((AtomicLong)memoryTimeCounters.get(key)).get()));	
+				    ((AtomicLong)memoryTimeCounters.get(key)).get());	
 	}
 
 
 	keys = new TreeSet<String>(memorySizeCounters.keySet());
 	for (String key : keys) { 
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    key,
-				    ((AtomicLong)memorySizeCounters.get(key)).get()));	
+				    ((AtomicLong)memorySizeCounters.get(key)).get());	
 	}
 
-	sb.append("---Memory Summary---\n");
-	sb.append("Evictions: " + getTotalEvictions() + "\n");
-	//sb.append(String.format(Locale.UK, "Average time in SRAM: %1.2f\n",
-	//            getAverageSramTime()));
-	sb.append(String.format(Locale.UK, "Average time in SRAM (approx): %1.2f\n",
-				getAverageSramTime(true)));
-	sb.append(String.format(Locale.UK, "Average time in SRAM (precise): %1.2f\n",
-				getAverageSramTime(false)));
+	out.print("---Memory Summary---\n");
+	out.print("Evictions: " + getTotalEvictions() + "\n");
+	//out.format(Locale.UK, "Average time in SRAM: %1.2f\n",
+	//            getAverageSramTime());
+	out.format(Locale.UK, "Average time in SRAM (approx): %1.2f\n",
+				getAverageSramTime(true));
+	out.format(Locale.UK, "Average time in SRAM (precise): %1.2f\n",
+				getAverageSramTime(false));
 	*/
-	sb.append("---Errors---\n");
-	sb.append("---Approx0---\n");
+	out.print("---Errors---\n");
+	out.print("---Approx0---\n");
 	for (Map.Entry<String,AtomicInteger> entry : approxErrorCounts0.entrySet()) {
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    (String)entry.getKey(),
-				    ((AtomicInteger)entry.getValue()).get()));
+				    ((AtomicInteger)entry.getValue()).get());
 	}
-	sb.append("---Approx8---\n");
+	out.print("---Approx8---\n");
 	for (Map.Entry<String,AtomicInteger> entry : approxErrorCounts8.entrySet()) {
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    (String)entry.getKey(),
-				    ((AtomicInteger)entry.getValue()).get()));
+				    ((AtomicInteger)entry.getValue()).get());
 	}  
-	sb.append("---Approx16---\n");
+	out.print("---Approx16---\n");
 	for (Map.Entry<String,AtomicInteger> entry : approxErrorCounts16.entrySet()) {
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    (String)entry.getKey(),
-				    ((AtomicInteger)entry.getValue()).get()));
+				    ((AtomicInteger)entry.getValue()).get());
 	}
-	sb.append("---Approx24---\n");
+	out.print("---Approx24---\n");
 	for (Map.Entry<String,AtomicInteger> entry : approxErrorCounts24.entrySet()) {
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    (String)entry.getKey(),
-				    ((AtomicInteger)entry.getValue()).get()));
+				    ((AtomicInteger)entry.getValue()).get());
 	}
-	sb.append("---Approx32---\n");
+	out.print("---Approx32---\n");
 	for (Map.Entry<String,AtomicInteger> entry : approxErrorCounts32.entrySet()) {
-	    sb.append(String.format("%-25s%10d\n",
+	    out.format("%-25s%10d\n",
 				    (String)entry.getKey(),
-				    ((AtomicInteger)entry.getValue()).get()));
+				    ((AtomicInteger)entry.getValue()).get());
 	}
 
-	return sb.toString();
+	out.flush();
     }
 }
@@ -0,0 +1,549 @@
+package enerj.rt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import enerj.AnnotationType;
+import enerj.ClassInfoFile;
+import enerj.FieldInfoContainer;
+
+/**
+ * JUnit tests for the simulated memory of the runtime. They drive a
+ * PrecisionRuntimeTolop directly, the way instrumented code does.
+ */
+public class RuntimeTests {
+    static {
+        // Locals created by the tests are plain boxes, rather than being
+        // registered with the global runtime
+        System.setProperty("TrackLocalLifetimes", "false");
+    }
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore jc = new org.junit.runner.JUnitCore();
+        Result run = jc.run(RuntimeTests.class);
+
+        if( run.wasSuccessful() ) {
+            System.out.println("Run was successful with " + run.getRunCount() + " test(s)!");
+        } else {
+            System.out.println("Run had " + run.getFailureCount() + " failure(s) out of " +
+                    run.getRunCount() + " run(s)!");
+
+            for( Failure f : run.getFailures() ) {
+                System.out.println(f.toString());
+            }
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A runtime with an empty class info file, i.e. for arrays only.
+     */
+    static PrecisionRuntimeTolop runtime(int cacheSize, int cacheLineSize,
+                                         int associativity) throws IOException {
+        File file = File.createTempFile("classinfo", ".json");
+        file.deleteOnExit();
+        FileWriter out = new FileWriter(file);
+        try {
+            out.write("{}");
+        } finally {
+            out.close();
+        }
+        return new PrecisionRuntimeTolop(cacheSize, cacheLineSize, associativity,
+                                         file.getPath(), null, null);
+    }
+
+    /**
+     * Run info that remembers its operation counts, by name and precision,
+     * e.g. "L1-Hit A" and "L1-Hit P", and for approximate operations also
+     * by number of approximate bits, e.g. "L1-Hit A8".
+     */
+    static class CountingRunInfo extends RunInfo {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+        @Override
+        void countOperation(String name, boolean approx, int approximativeBits) {
+            super.countOperation(name, approx, approximativeBits);
+            String key = name + (approx ? " A" : " P");
+            counts.put(key, count(key) + 1);
+            if (approx)
+                counts.put(key + approximativeBits, count(key + approximativeBits) + 1);
+        }
+
+        int count(String key) {
+            Integer n = counts.get(key);
+            return n == null ? 0 : n;
+        }
+    }
+
+    static int[] newApproxInts(PrecisionRuntimeTolop rt, int length) {
+        return rt.newArray(new int[length], 1, true, 0, 4, 32);
+    }
+
+    /**
+     * Wait until an object has been collected.
+     */
+    static void collect(WeakReference<?> ref) throws InterruptedException {
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue("object not collected", ref.get() == null);
+    }
+
+    /**
+     * Lines of collected arrays that are still cached must not be evicted
+     * once their memory has been purged.
+     */
+    @Test
+    public void evictAfterPurge() throws Exception {
+        PrecisionRuntimeTolop rt = runtime(512, 16, 1);
+        int[] live = newApproxInts(rt, 1024);
+        for (int round = 0; round < 5; round++) {
+            int[] dead = newApproxInts(rt, 1024);
+            for (int i = 0; i < dead.length; i++)
+                rt.storeArray(dead, i, true, i);
+            WeakReference<int[]> ref = new WeakReference<int[]>(dead);
+            dead = null;
+            collect(ref);
+
+            newApproxInts(rt, 1); // Purges the collected array
+            for (int i = 0; i < live.length; i++)
+                rt.loadArray(live, i, true); // Evicts its lines
+        }
+    }
+
+    /**
+     * Allocations are sampled independently with probability 1/n, so the
+     * extrapolated total is within a few standard errors of the truth and
+     * the gaps between samples vary.
+     */
+    @Test
+    public void footprintSampling() {
+        Footprint footprint = new Footprint(4);
+        Object o = new Object();
+        int n = 100000;
+        int last = 0;
+        boolean gapsVary = false;
+        for (int i = 1; i <= n; i++) {
+            if (footprint.sample(o)) {
+                footprint.count("heap-objects", false, 1);
+                gapsVary |= last != 0 && i - last != 4;
+                last = i;
+            }
+        }
+        assertTrue("sampling every 4th allocation", gapsVary);
+        long total = footprint.total("heap-objects", false);
+        double error = footprint.error("heap-objects", false);
+        assertTrue("error " + error, error > 0);
+        assertTrue("total " + total + " +- " + error, Math.abs(total - n) < 5 * error);
+    }
+
+    static int xor(PrecisionRuntimeTolop rt, int a, int b) {
+        return rt.binaryOp(a, b, PrecisionRuntime.ArithOperator.BITXOR,
+                           PrecisionRuntime.NumberKind.INT, true, 32).intValue();
+    }
+
+    /**
+     * Timing errors are off unless a probability is given; mode 1 then
+     * flips one bit of every result.
+     */
+    @Test
+    public void timingErrors() throws IOException {
+        PrecisionRuntimeTolop rt = runtime(2048, 16, 4);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i ^ 5, xor(rt, i, 5));
+
+        System.setProperty("TIMING_ERROR_MODE", "1");
+        System.setProperty("TIMING_ERROR_PROB_PERCENT", "100");
+        try {
+            rt = runtime(2048, 16, 4);
+        } finally {
+            System.clearProperty("TIMING_ERROR_MODE");
+            System.clearProperty("TIMING_ERROR_PROB_PERCENT");
+        }
+        for (int i = 0; i < 1000; i++)
+            assertEquals(1, Integer.bitCount(xor(rt, i, 5) ^ (i ^ 5)));
+    }
+
+    /**
+     * Distributions written to a file and mapped back have the same
+     * tables, and sampling the mapped tables flips each bit with its
+     * probability.
+     */
+    @Test
+    public void errorDistributionRoundTrip() throws IOException {
+        long[] counts = new long[32];
+        counts[0] = 500;
+        counts[3] = 100;
+        counts[7] = 250;
+        counts[31] = 10;
+        List<ErrorDistribution> tables = new ArrayList<ErrorDistribution>();
+        tables.add(ErrorDistribution.fromCounts(ErrorDistribution.ADDER, ErrorDistribution.INT,
+                                                8, counts, 1000));
+        tables.add(ErrorDistribution.fromCounts(ErrorDistribution.MULTIPLIER,
+                                                ErrorDistribution.DOUBLE, 32, new long[64], 1));
+        File file = File.createTempFile("errors", ".bin");
+        file.deleteOnExit();
+        ErrorDistribution.write(tables, file.getPath());
+
+        List<ErrorDistribution> mapped = ErrorDistribution.map(file.getPath());
+        assertEquals(2, mapped.size());
+        ErrorDistribution adder = mapped.get(0);
+        assertEquals(ErrorDistribution.ADDER, adder.kind);
+        assertEquals(ErrorDistribution.INT, adder.type);
+        assertEquals(8, adder.approximativeBits);
+        assertEquals(32, adder.bits());
+        assertEquals(0.25, adder.probability(7), 0);
+        assertEquals(0.5 * 0.9 * 0.75 * 0.99, adder.errorFree(), 1e-12);
+        ErrorDistribution multiplier = mapped.get(1);
+        assertEquals(ErrorDistribution.DOUBLE, multiplier.type);
+        assertEquals(64, multiplier.bits());
+        assertEquals(1.0, multiplier.errorFree(), 0);
+        assertEquals(0, multiplier.sample());
+
+        // The flips drawn from the mapped tables follow the probabilities
+        int n = 200000;
+        int[] flips = new int[32];
+        int errorFree = 0;
+        for (int s = 0; s < n; s++) {
+            long mask = adder.sample();
+            if (mask == 0)
+                errorFree++;
+            for (int i = 0; i < 32; i++)
+                if ((mask & (1L << i)) != 0)
+                    flips[i]++;
+        }
+        for (int i = 0; i < 32; i++) {
+            double p = adder.probability(i);
+            double sigma = Math.sqrt(n * p * (1 - p));
+            assertTrue("bit " + i + ": " + flips[i] + " flips",
+                       Math.abs(flips[i] - n * p) <= 5 * sigma);
+        }
+        double q = adder.errorFree();
+        assertTrue(errorFree + " error free",
+                   Math.abs(errorFree - n * q) <= 5 * Math.sqrt(n * q * (1 - q)));
+
+        ErrorDistribution scaled = adder.scaled(10);
+        assertEquals(0.025, scaled.probability(7), 1e-15);
+        assertSame(adder, adder.scaled(1));
+        try {
+            adder.scaled(0);
+            assertTrue("scaled by 0", false);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        // A file cut short in its last table
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(truncated.length() - 8);
+        truncated.close();
+        try {
+            ErrorDistribution.map(file.getPath());
+            assertTrue("truncated file mapped", false);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("is truncated"));
+        }
+    }
+
+    @Test
+    public void sizeClassAllocator() {
+        SizeClassAllocator allocator = new SizeClassAllocator(16, false);
+        // Blocks of a size class are carved from one line
+        long a = allocator.allocate(3, false);
+        long b = allocator.allocate(4, false);
+        assertEquals(a + 4, b);
+        assertEquals(a / 16, b / 16);
+        // Approximate blocks never share a line with precise ones
+        long c = allocator.allocate(3, true);
+        assertTrue("approximate block on a precise line", c / 16 != a / 16);
+        // Freed blocks are reused by their size class, whatever their size
+        allocator.free(a, 3, false);
+        assertEquals(a, allocator.allocate(4, false));
+        allocator.free(b, 4, false);
+        assertTrue("reused by another size class", allocator.allocate(2, false) != b);
+        assertTrue("reused by approximate data", allocator.allocate(4, true) != b);
+        assertEquals(b, allocator.allocate(3, false));
+        // Blocks larger than a line aren't reused
+        long large = allocator.allocate(40, false);
+        allocator.free(large, 40, false);
+        assertTrue("large block reused", allocator.allocate(40, false) != large);
+        // Consecutive memory is reused only in blocks of a class size
+        long array = allocator.allocateConsecutive(16, false);
+        allocator.free(array, 3, false);
+        allocator.free(array + 8, 8, false);
+        assertEquals(array + 8, allocator.allocate(7, false));
+    }
+
+    /**
+     * Runs its tasks on one other thread, i.e. the second simulated core.
+     */
+    static <T> T onOtherCore(ExecutorService core, Callable<T> task) throws Exception {
+        return core.submit(task).get();
+    }
+
+    @Test
+    public void privateCachesMESI() throws Exception {
+        final CountingRunInfo info = new CountingRunInfo();
+        final PrivateCaches caches = new PrivateCaches(2, 4, 2, false, info);
+        final long line = 5;
+        ExecutorService core1 = Executors.newSingleThreadExecutor();
+        try {
+            // Core 0 loads the line (exclusive), core 1 loads it (shared)
+            assertFalse(caches.access(line, false, false, 0));
+            assertFalse(onOtherCore(core1, new Callable<Boolean>() {
+                public Boolean call() {
+                    return caches.access(line, false, false, 0);
+                }
+            }));
+            assertEquals(0, info.count("Coherence-Writeback P"));
+            // A store to a shared line invalidates the other copy
+            assertTrue(onOtherCore(core1, new Callable<Boolean>() {
+                public Boolean call() {
+                    return caches.access(line, true, false, 0);
+                }
+            }));
+            assertEquals(1, info.count("Coherence-Invalidation P"));
+            // Loading it again needs the modified copy to be written back
+            assertFalse(caches.access(line, false, false, 0));
+            assertEquals(1, info.count("Coherence-Writeback P"));
+            assertTrue(caches.access(line, false, false, 0));
+            assertEquals(2, info.count("L1-Hit P"));
+            assertEquals(3, info.count("L1-Miss P"));
+            // A store to an exclusive line needs no traffic
+            final long other = 6;
+            assertFalse(caches.access(other, false, false, 0));
+            assertTrue(caches.access(other, true, false, 0));
+            assertEquals(1, info.count("Coherence-Invalidation P"));
+
+            caches.invalidate(line);
+            assertTrue(caches.holds(other));
+            assertFalse(caches.holds(line));
+        } finally {
+            core1.shutdown();
+        }
+    }
+
+    @Test
+    public void privateCachesRelaxed() throws Exception {
+        final CountingRunInfo info = new CountingRunInfo();
+        final PrivateCaches caches = new PrivateCaches(2, 4, 2, true, info);
+        final long line = 7 | Long.MIN_VALUE; // Approximate
+        ExecutorService core1 = Executors.newSingleThreadExecutor();
+        try {
+            caches.access(line, false, true, 8);
+            onOtherCore(core1, new Callable<Boolean>() {
+                public Boolean call() {
+                    return caches.access(line, true, true, 8);
+                }
+            });
+            // Core 0 keeps its stale copy
+            assertEquals(1, info.count("Coherence-Invalidation-Saved A"));
+            assertEquals(0, info.count("Coherence-Invalidation A"));
+            assertTrue(caches.access(line, false, true, 8));
+        } finally {
+            core1.shutdown();
+        }
+    }
+
+    /**
+     * Writebacks of evicted lines count the approximate bits of the data
+     * they were filled with.
+     */
+    @Test
+    public void privateCachesWriteback() {
+        CountingRunInfo info = new CountingRunInfo();
+        PrivateCaches caches = new PrivateCaches(1, 1, 1, false, info);
+        caches.access(1 | Long.MIN_VALUE, true, true, 8);
+        caches.access(2 | Long.MIN_VALUE, true, true, 16); // Evicts the first
+        caches.access(3, false, false, 0);                 // Evicts the second
+        caches.access(4, false, false, 0);                 // Evicts a clean line
+        assertEquals(1, info.count("L1-Writeback A8"));
+        assertEquals(1, info.count("L1-Writeback A16"));
+        assertEquals(2, info.count("L1-Writeback A"));
+        assertEquals(0, info.count("L1-Writeback P"));
+    }
+
+    @Test
+    public void creationStack() {
+        CreationStack stack = new CreationStack();
+        Object[] creators = new Object[40]; // More than the initial depth
+        for (int i = 0; i < creators.length; i++) {
+            creators[i] = new Object();
+            stack.push(creators[i], i % 2 == 0, i, 2 * i, 8);
+        }
+        assertEquals(creators.length, stack.size());
+        for (int i = creators.length - 1; i >= 0; i--) {
+            assertSame(creators[i], stack.peek().creator);
+            CreationInfo info = stack.pop();
+            assertEquals(i % 2 == 0, info.approx);
+            assertEquals(i, info.preciseSize);
+            assertEquals(2 * i, info.approxSize);
+            assertNull(info.creator); // Not kept alive
+        }
+        assertEquals(0, stack.size());
+        // Popped infos are reused
+        stack.push(creators[0], true, 1, 2, 16);
+        CreationInfo first = stack.pop();
+        stack.push(creators[1], false, 3, 4, 0);
+        assertSame(first, stack.peek());
+    }
+
+    /**
+     * Age buckets of the PCM drift tables are round(log2(seconds)) - 1.
+     */
+    @Test
+    public void pcmDriftBuckets() {
+        ErrorModels.PCMDrift pcm = new ErrorModels.PCMDrift();
+        int last = pcm.bucket(Long.MAX_VALUE);
+        for (long seconds = 0; seconds < 1 << 20; seconds++) {
+            long expected = seconds == 0 ? 0
+                : Math.round(Math.log(seconds) / Math.log(2)) - 1;
+            expected = Math.max(0, Math.min(expected, last));
+            assertEquals("bucket of " + seconds + "s", expected, pcm.bucket(seconds * 1000 + 999));
+        }
+    }
+
+    @Test
+    public void registerFileSpillAndFill() {
+        final List<String> traffic = new ArrayList<String>();
+        final List<Reference<?>> spilled = new ArrayList<Reference<?>>();
+        CountingRunInfo info = new CountingRunInfo();
+        RegisterFile registers = new RegisterFile(0, 2, info) {
+            @Override
+            protected void spill(Reference<?> local, boolean approx) {
+                traffic.add("spill " + local.value);
+                spilled.add(local);
+            }
+
+            @Override
+            protected boolean fill(Reference<?> local, boolean approx) {
+                traffic.add("fill " + local.value);
+                return spilled.contains(local);
+            }
+        };
+        Reference<Integer> a = new Reference<Integer>(1, false, true, 0);
+        Reference<Integer> b = new Reference<Integer>(2, false, true, 0);
+        Reference<Integer> c = new Reference<Integer>(3, false, true, 0);
+
+        registers.access(a, false, true);  // Stored, dirty
+        registers.access(b, false, false); // Never spilled: nothing to fill
+        registers.access(a, false, false);
+        registers.access(c, false, true);  // Evicts b, which is dirty
+        registers.access(b, false, false); // Evicts a, fills b
+        registers.access(a, false, false); // Evicts c, fills a
+        List<String> expected = new ArrayList<String>();
+        expected.add("fill 2");
+        expected.add("spill 2");
+        expected.add("spill 1");
+        expected.add("fill 2");
+        expected.add("spill 3");
+        expected.add("fill 1");
+        assertEquals(expected, traffic);
+        assertEquals(1, info.count("RF-Hit P"));
+        assertEquals(5, info.count("RF-Miss P"));
+        assertEquals(3, info.count("RF-Spill P"));
+        assertEquals(2, info.count("RF-Fill P"));
+
+        // Filled locals are clean: evicting them again doesn't spill
+        registers.access(c, false, false); // Evicts b
+        registers.access(b, false, false); // Evicts a
+        assertEquals(3, info.count("RF-Spill P"));
+        assertEquals(4, info.count("RF-Fill P"));
+
+        // Approximate registers are unlimited here: no traffic at all
+        registers.access(a, true, true);
+        assertEquals(0, info.count("RF-Miss A"));
+        assertEquals(8, traffic.size());
+    }
+
+    static FieldInfoContainer field(AnnotationType annotation, String type,
+                                    boolean isStatic, boolean isFinal) {
+        FieldInfoContainer fic = new FieldInfoContainer();
+        fic.annotation = annotation;
+        fic.fieldType = type;
+        fic.isStatic = isStatic;
+        fic.isFinal = isFinal;
+        return fic;
+    }
+
+    @Test
+    public void classInfoMerge() throws IOException {
+        File json = File.createTempFile("classinfo", ".json");
+        File binary = File.createTempFile("classinfo", ".bin");
+        json.deleteOnExit();
+        binary.deleteOnExit();
+        FileWriter out = new FileWriter(json);
+        try {
+            out.write("{\"a.Old\": {\"x\": {\"annotation\": \"Approx8\", \"static\": true, "
+                      + "\"final\": false, \"type\": \"short\"}}, "
+                      + "\"a.Changed\": {\"gone\": {\"annotation\": \"Precise\", "
+                      + "\"static\": false, \"final\": false, \"type\": \"int\"}}}");
+        } finally {
+            out.close();
+        }
+
+        Map<String, Map<String, FieldInfoContainer>> classes =
+            new HashMap<String, Map<String, FieldInfoContainer>>();
+        Map<String, FieldInfoContainer> changed = new HashMap<String, FieldInfoContainer>();
+        changed.put("y", field(AnnotationType.Context, "double", false, true));
+        classes.put("a.Changed", changed);
+        Map<String, FieldInfoContainer> added = new HashMap<String, FieldInfoContainer>();
+        added.put("z", field(AnnotationType.Approx, "java.lang.String", false, false));
+        added.put("w", field(AnnotationType.Precise, "long[]", false, false));
+        classes.put("a.b.Added", added);
+        ClassInfoFile.merge(json.getPath(), binary.getPath(), classes);
+
+        ClassInfoFile info = ClassInfoFile.open(binary.getPath());
+        assertEquals(3, info.size());
+        assertFalse(info.contains("a.Unknown"));
+        assertNull(info.get("a.Unknown"));
+        // Classes that weren't compiled again are kept
+        FieldInfoContainer x = info.get("a.Old").get("x");
+        assertEquals(AnnotationType.Approx8, x.annotation);
+        assertEquals("short", x.fieldType);
+        assertTrue(x.isStatic);
+        assertFalse(x.isFinal);
+        // Recompiled classes are replaced
+        Map<String, FieldInfoContainer> fields = info.get("a.Changed");
+        assertEquals(1, fields.size());
+        assertEquals(AnnotationType.Context, fields.get("y").annotation);
+        assertTrue(fields.get("y").isFinal);
+        fields = info.get("a.b.Added");
+        assertEquals(2, fields.size());
+        assertEquals("java.lang.String", fields.get("z").fieldType);
+        assertEquals("long[]", fields.get("w").fieldType);
+        List<String> statics = new ArrayList<String>();
+        statics.add("a.Old");
+        assertEquals(statics, info.classesWithStaticFields());
+
+        // The json file got the same merged data
+        File binary2 = File.createTempFile("classinfo", ".bin");
+        binary2.deleteOnExit();
+        ClassInfoFile.merge(json.getPath(), binary2.getPath(),
+                            new HashMap<String, Map<String, FieldInfoContainer>>());
+        ClassInfoFile info2 = ClassInfoFile.open(binary2.getPath());
+        assertEquals(3, info2.size());
+        assertEquals(AnnotationType.Approx, info2.get("a.b.Added").get("z").annotation);
+        assertEquals(AnnotationType.Approx8, info2.get("a.Old").get("x").annotation);
+    }
+}
@@ -0,0 +1,50 @@
+package enerj.rt;
+
+/**
+ * Hands out addresses in the simulated address space. Approximate and
+ * precise data may live in different address spaces (different DRAM); the
+ * approx argument selects which one.
+ *
+ * Implementations are not thread safe; the runtime calls them while holding
+ * its lock.
+ */
+interface SimulatedAllocator {
+    /**
+     * Allocate a small block, e.g. a field. The block never crosses a cache
+     * line if it fits in one.
+     * @param size Size of the block in qytes
+     * @param approx Whether the memory is approximate or not
+     * @return Start address of the block
+     */
+    long allocate(int size, boolean approx);
+
+    /**
+     * Allocate memory directly after the previous consecutive allocation,
+     * e.g. the next element of an array or padding up to a cache line.
+     * @param size Wanted amount of memory
+     * @param approx Whether the memory is approximate or not
+     * @return Start address of the memory
+     */
+    long allocateConsecutive(long size, boolean approx);
+
+    /**
+     * @param approx Which memory space to look at
+     * @return Address of the next consecutive allocation
+     */
+    long peek(boolean approx);
+
+    /**
+     * Return a block of a collected object, so that it can be reused.
+     * @param address Start address of the block
+     * @param size Size of the block in qytes
+     * @param approx Whether the memory is approximate or not
+     */
+    void free(long address, int size, boolean approx);
+
+    /**
+     * Set whether approximate data gets an address space of its own. Only
+     * affects later allocations.
+     * @param differentSpaces If true, use different address spaces
+     */
+    void setDifferentSpaces(boolean differentSpaces);
+}
@@ -0,0 +1,154 @@
+package enerj.rt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Allocator with segregated size classes, modelling a real heap more closely
+ * than the bump pointer: small blocks are rounded up to a power of two and
+ * carved from runs of one cache line per size class, freed blocks are
+ * reused by their size class, and each thread allocates from runs of its own
+ * (like thread local allocation buffers). Approximate and precise blocks
+ * never share a cache line, even if they share an address space.
+ *
+ * Blocks larger than the largest size class and consecutive memory (arrays)
+ * come from a bump pointer region, which is also where the runs are taken
+ * from.
+ */
+class SizeClassAllocator implements SimulatedAllocator {
+    private final int lineSize; // Cache line size in qytes
+    private boolean differentSpaces; // Whether approx/precise lives in different DRAM
+    private final BumpAllocator region;
+
+    /**
+     * Number of size classes; class i holds blocks of 2^i qytes, up to the
+     * largest power of two that fits in a cache line.
+     */
+    private final int nClasses;
+
+    /**
+     * Freed blocks per {precise, approximate} and size class.
+     */
+    private final List<ArrayDeque<Long>> freeLists;
+
+    /**
+     * Current run per thread, {precise, approximate} and size class: next
+     * free address at 2*i and end of the run at 2*i+1.
+     */
+    private final ThreadLocal<long[]> runs;
+
+    /**
+     * Size class slot of every cache line carved into a run, keyed by the
+     * line address (bitwise complemented for approximate lines), so that
+     * freed blocks are returned to the class they were allocated from.
+     */
+    private final Map<Long, Integer> runLines = new HashMap<Long, Integer>();
+
+    /**
+     * Approximation of the latest consecutive allocation, when approximate
+     * and precise data share one address space.
+     */
+    private boolean lastConsecutiveApprox = false;
+
+    /**
+     * @param lineSize Cache line size in qytes
+     * @param differentSpaces Whether approximate data has its own address space
+     */
+    SizeClassAllocator(int lineSize, boolean differentSpaces) {
+        this.lineSize = lineSize;
+        this.differentSpaces = differentSpaces;
+        this.region = new BumpAllocator(lineSize, differentSpaces);
+        nClasses = 32 - Integer.numberOfLeadingZeros(lineSize);
+        freeLists = new ArrayList<ArrayDeque<Long>>(2 * nClasses);
+        for (int i = 0; i < 2 * nClasses; i++)
+            freeLists.add(new ArrayDeque<Long>());
+        runs = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[4 * nClasses]; // Empty runs
+            }
+        };
+    }
+
+    /**
+     * @return Size class of a block size, or -1 if it's too large
+     */
+    private int sizeClass(int size) {
+        int c = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+        return c < nClasses ? c : -1;
+    }
+
+    @Override
+    public long allocate(int size, boolean approx) {
+        int c = sizeClass(size);
+        if (c < 0)
+            return region.allocate(size, approx);
+
+        int slot = (approx ? nClasses : 0) + c;
+        ArrayDeque<Long> free = freeLists.get(slot);
+        if (!free.isEmpty())
+            return free.pop();
+
+        long[] run = runs.get();
+        int classSize = 1 << c;
+        if (run[2 * slot] + classSize > run[2 * slot + 1]) {
+            // Start a new run on a cache line of its own
+            long line = region.peek(approx);
+            if (line % lineSize != 0)
+                region.allocateConsecutive(lineSize - line % lineSize, approx);
+            line = region.allocateConsecutive(lineSize, approx);
+            runLines.put(approx ? ~line : line, slot);
+            run[2 * slot] = line;
+            run[2 * slot + 1] = line + lineSize;
+        }
+        long address = run[2 * slot];
+        run[2 * slot] += classSize;
+        return address;
+    }
+
+    @Override
+    public long allocateConsecutive(long size, boolean approx) {
+        // Keep approximate data on cache lines of its own
+        if (!differentSpaces && approx != lastConsecutiveApprox) {
+            long next = region.peek(approx);
+            if (next % lineSize != 0)
+                region.allocateConsecutive(lineSize - next % lineSize, approx);
+            lastConsecutiveApprox = approx;
+        }
+        return region.allocateConsecutive(size, approx);
+    }
+
+    @Override
+    public long peek(boolean approx) {
+        return region.peek(approx);
+    }
+
+    @Override
+    public void free(long address, int size, boolean approx) {
+        int c = sizeClass(size);
+        if (c < 0)
+            return;
+        int slot = (approx ? nClasses : 0) + c;
+        long line = address - address % lineSize;
+        Integer runSlot = runLines.get(approx ? ~line : line);
+        if (runSlot == null) {
+            // Consecutive memory: only blocks of exactly a class size that
+            // don't cross a cache line can be handed out again
+            if (size != 1 << c || address % lineSize + size > lineSize)
+                return;
+        } else if (runSlot != slot) {
+            return;
+        }
+        // A block of a run takes up its whole size class, whatever its size
+        freeLists.get(slot).push(address);
+    }
+
+    @Override
+    public void setDifferentSpaces(boolean differentSpaces) {
+        this.differentSpaces = differentSpaces;
+        region.setDifferentSpaces(differentSpaces);
+    }
+}
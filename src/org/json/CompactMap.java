@@ -0,0 +1,344 @@
+package org.json;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The map behind a JSONObject. Most objects have only a few members, so up
+ * to MAX_COMPACT members are kept in two arrays of keys and values in
+ * insertion order, and found by a linear search; keys read by a JSONTokener
+ * are shared, so the search usually succeeds on identity. A map that grows
+ * beyond that switches to a HashMap.
+ * <p>
+ * Integer, Long and Double values are kept unboxed as their raw bits while
+ * the map is compact. They are boxed again when they are read as objects;
+ * the numeric getters of JSONObject read them without boxing.
+ * <p>
+ * A compact map iterates in insertion order, while a HashMap (what a
+ * JSONObject used to be) iterates in hash order. The keys of objects with
+ * more than MAX_COMPACT members therefore come in hash order again, and
+ * those of smaller objects in the order they were put; callers that need
+ * a stable order should use sortedKeys. The entries of a compact map are
+ * mutable like those of a HashMap: setValue writes through to the map.
+ */
+final class CompactMap extends AbstractMap<Object, Object> {
+    static final int MAX_COMPACT = 8;
+
+    /* Tags of unboxed values, stored in place of the value */
+    private static final Object INTEGER = new Object();
+    private static final Object LONG = new Object();
+    private static final Object DOUBLE = new Object();
+
+    private Object[] keys;
+    private Object[] values;
+    private long[] numbers; // Raw bits of unboxed values, or null if none
+    private int size;
+
+    private HashMap<Object, Object> hashed; // Once the map is no longer compact
+
+    CompactMap() {
+        this.keys = new Object[2];
+        this.values = new Object[2];
+    }
+
+
+    public int size() {
+        return this.hashed != null ? this.hashed.size() : this.size;
+    }
+
+
+    public boolean containsKey(Object key) {
+        return this.hashed != null ? this.hashed.containsKey(key) : indexOf(key) >= 0;
+    }
+
+
+    public Object get(Object key) {
+        if (this.hashed != null) {
+            return this.hashed.get(key);
+        }
+        int i = indexOf(key);
+        return i < 0 ? null : valueAt(i);
+    }
+
+
+    public Object put(Object key, Object value) {
+        if (this.hashed != null) {
+            return this.hashed.put(key, value);
+        }
+        Class<?> c = value == null ? null : value.getClass();
+        if (c == Integer.class) {
+            return putNumber(key, INTEGER, ((Integer)value).longValue());
+        } else if (c == Long.class) {
+            return putNumber(key, LONG, ((Long)value).longValue());
+        } else if (c == Double.class) {
+            return putNumber(key, DOUBLE,
+                    Double.doubleToRawLongBits(((Double)value).doubleValue()));
+        }
+        int i = slot(key);
+        if (i < 0) {
+            return this.hashed.put(key, value);
+        }
+        Object old = this.keys[i] == null ? null : valueAt(i);
+        this.keys[i] = key;
+        this.values[i] = value;
+        return old;
+    }
+
+
+    /**
+     * Put an int or a long without boxing it.
+     * @param key The key.
+     * @param value The value.
+     * @param isInt Whether the value is an Integer rather than a Long.
+     */
+    void putLong(Object key, long value, boolean isInt) {
+        if (this.hashed != null) {
+            this.hashed.put(key, isInt ? (Object)Integer.valueOf((int)value) :
+                    (Object)Long.valueOf(value));
+        } else {
+            putNumber(key, isInt ? INTEGER : LONG, value);
+        }
+    }
+
+
+    /**
+     * Put a double without boxing it.
+     * @param key The key.
+     * @param value The value.
+     */
+    void putDouble(Object key, double value) {
+        if (this.hashed != null) {
+            this.hashed.put(key, Double.valueOf(value));
+        } else {
+            putNumber(key, DOUBLE, Double.doubleToRawLongBits(value));
+        }
+    }
+
+
+    private Object putNumber(Object key, Object tag, long bits) {
+        int i = slot(key);
+        if (i < 0) {
+            return this.hashed.put(key, box(tag, bits));
+        }
+        Object old = this.keys[i] == null ? null : valueAt(i);
+        if (this.numbers == null) {
+            this.numbers = new long[this.keys.length];
+        }
+        this.keys[i] = key;
+        this.values[i] = tag;
+        this.numbers[i] = bits;
+        return old;
+    }
+
+
+    public Object remove(Object key) {
+        if (this.hashed != null) {
+            return this.hashed.remove(key);
+        }
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        Object old = valueAt(i);
+        removeAt(i);
+        return old;
+    }
+
+
+    public void clear() {
+        this.hashed = null;
+        this.keys = new Object[2];
+        this.values = new Object[2];
+        this.numbers = null;
+        this.size = 0;
+    }
+
+
+    public Set<Map.Entry<Object, Object>> entrySet() {
+        if (this.hashed != null) {
+            return this.hashed.entrySet();
+        }
+        return new AbstractSet<Map.Entry<Object, Object>>() {
+            public int size() {
+                return CompactMap.this.size();
+            }
+
+            public Iterator<Map.Entry<Object, Object>> iterator() {
+                return new Iterator<Map.Entry<Object, Object>>() {
+                    private int next = 0;
+                    private boolean removable = false;
+
+                    public boolean hasNext() {
+                        return this.next < CompactMap.this.size;
+                    }
+
+                    public Map.Entry<Object, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int i = this.next++;
+                        this.removable = true;
+                        return new Entry(CompactMap.this.keys[i], valueAt(i));
+                    }
+
+                    public void remove() {
+                        if (!this.removable) {
+                            throw new IllegalStateException();
+                        }
+                        this.removable = false;
+                        removeAt(--this.next);
+                    }
+                };
+            }
+        };
+    }
+
+
+    /**
+     * An entry of a compact map. Setting its value puts the value into the
+     * map, under the same key, so numbers are unboxed again.
+     */
+    private final class Entry extends AbstractMap.SimpleEntry<Object, Object> {
+        Entry(Object key, Object value) {
+            super(key, value);
+        }
+
+        public Object setValue(Object value) {
+            super.setValue(value);
+            return put(getKey(), value);
+        }
+    }
+
+
+    /**
+     * @return The index of the value of a key if it is an unboxed number,
+     *  or -1.
+     */
+    int numberIndex(Object key) {
+        if (this.hashed != null || this.numbers == null) {
+            return -1;
+        }
+        int i = indexOf(key);
+        return i >= 0 && isNumber(this.values[i]) ? i : -1;
+    }
+
+
+    /**
+     * @return The unboxed number at an index as a double.
+     */
+    double doubleAt(int i) {
+        return this.values[i] == DOUBLE ?
+                Double.longBitsToDouble(this.numbers[i]) : this.numbers[i];
+    }
+
+
+    /**
+     * @return The unboxed number at an index as a long, converted like
+     *  Number.longValue.
+     */
+    long longAt(int i) {
+        return this.values[i] == DOUBLE ?
+                (long)Double.longBitsToDouble(this.numbers[i]) : this.numbers[i];
+    }
+
+
+    /**
+     * @return The unboxed number at an index as an int, converted like
+     *  Number.intValue.
+     */
+    int intAt(int i) {
+        return this.values[i] == DOUBLE ?
+                (int)Double.longBitsToDouble(this.numbers[i]) : (int)this.numbers[i];
+    }
+
+
+    private static boolean isNumber(Object value) {
+        return value == INTEGER || value == LONG || value == DOUBLE;
+    }
+
+
+    private static Object box(Object tag, long bits) {
+        if (tag == INTEGER) {
+            return Integer.valueOf((int)bits);
+        } else if (tag == LONG) {
+            return Long.valueOf(bits);
+        }
+        return Double.valueOf(Double.longBitsToDouble(bits));
+    }
+
+
+    private Object valueAt(int i) {
+        Object value = this.values[i];
+        return isNumber(value) ? box(value, this.numbers[i]) : value;
+    }
+
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < this.size; i += 1) {
+            if (this.keys[i] == key) {
+                return i;
+            }
+        }
+        if (key != null) {
+            for (int i = 0; i < this.size; i += 1) {
+                if (key.equals(this.keys[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Find the slot of a key, making room for a new one if needed. The
+     * slot of a new key has a null key until the caller fills it in.
+     * @return The index, or -1 if the map has switched to hashing.
+     */
+    private int slot(Object key) {
+        int i = indexOf(key);
+        if (i >= 0) {
+            return i;
+        }
+        if (this.size == MAX_COMPACT) {
+            this.hashed = new HashMap<Object, Object>();
+            for (i = 0; i < this.size; i += 1) {
+                this.hashed.put(this.keys[i], valueAt(i));
+            }
+            this.keys = null;
+            this.values = null;
+            this.numbers = null;
+            this.size = 0;
+            return -1;
+        }
+        if (this.size == this.keys.length) {
+            int n = Math.min(this.size * 2, MAX_COMPACT);
+            this.keys = Arrays.copyOf(this.keys, n);
+            this.values = Arrays.copyOf(this.values, n);
+            if (this.numbers != null) {
+                this.numbers = Arrays.copyOf(this.numbers, n);
+            }
+        }
+        this.keys[this.size] = null;
+        return this.size++;
+    }
+
+
+    private void removeAt(int i) {
+        int moved = this.size - i - 1;
+        System.arraycopy(this.keys, i + 1, this.keys, i, moved);
+        System.arraycopy(this.values, i + 1, this.values, i, moved);
+        if (this.numbers != null) {
+            System.arraycopy(this.numbers, i + 1, this.numbers, i, moved);
+        }
+        this.size -= 1;
+        this.keys[this.size] = null;
+        this.values[this.size] = null;
+    }
+}
@@ -30,7 +30,6 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Method;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeSet;
@@ -126,9 +125,10 @@ public class JSONObject {
 
 
     /**
-     * The map where the JSONObject's properties are kept.
+     * The map where the JSONObject's properties are kept. It is compact
+     * while the object is small.
      */
-    private Map map;
+    private CompactMap map;
 
 
     /**
@@ -144,7 +144,7 @@ public class JSONObject {
      * Construct an empty JSONObject.
      */
     public JSONObject() {
-        this.map = new HashMap();
+        this.map = new CompactMap();
     }
 
 
@@ -191,7 +191,7 @@ public class JSONObject {
                 return;
             default:
                 x.back();
-                key = x.nextValue().toString();
+                key = x.internKey(x.nextValue().toString());
             }
 
             /*
@@ -237,7 +237,7 @@ public class JSONObject {
      * @throws JSONException 
      */
     public JSONObject(Map map) {
-        this.map = new HashMap();
+        this.map = new CompactMap();
         if (map != null) {
             Iterator i = map.entrySet().iterator();
             while (i.hasNext()) {
@@ -441,6 +441,10 @@ public class JSONObject {
      *  if the value is not a Number object and cannot be converted to a number.
      */
     public double getDouble(String key) throws JSONException {
+        int i = this.map.numberIndex(key);
+        if (i >= 0) {
+            return this.map.doubleAt(i);
+        }
         Object o = get(key);
         try {
             return o instanceof Number ?
@@ -462,6 +466,10 @@ public class JSONObject {
      *  be converted to an integer.
      */
     public int getInt(String key) throws JSONException {
+        int i = this.map.numberIndex(key);
+        if (i >= 0) {
+            return this.map.intAt(i);
+        }
         Object o = get(key);
         try {
             return o instanceof Number ?
@@ -519,6 +527,10 @@ public class JSONObject {
      *  be converted to a long.
      */
     public long getLong(String key) throws JSONException {
+        int i = this.map.numberIndex(key);
+        if (i >= 0) {
+            return this.map.longAt(i);
+        }
         Object o = get(key);
         try {
             return o instanceof Number ?
@@ -768,6 +780,10 @@ public class JSONObject {
      * @return      An object which is the value.
      */
     public double optDouble(String key, double defaultValue) {
+        int i = this.map.numberIndex(key);
+        if (i >= 0) {
+            return this.map.doubleAt(i);
+        }
         try {
             Object o = opt(key);
             return o instanceof Number ? ((Number)o).doubleValue() :
@@ -982,7 +998,13 @@ public class JSONObject {
      * @throws JSONException If the key is null or if the number is invalid.
      */
     public JSONObject put(String key, double value) throws JSONException {
-        put(key, new Double(value));
+        if (key == null) {
+            throw new JSONException("Null key.");
+        }
+        if (Double.isInfinite(value) || Double.isNaN(value)) {
+            throw new JSONException("JSON does not allow non-finite numbers.");
+        }
+        this.map.putDouble(key, value);
         return this;
     }
 
@@ -996,7 +1018,10 @@ public class JSONObject {
      * @throws JSONException If the key is null.
      */
     public JSONObject put(String key, int value) throws JSONException {
-        put(key, new Integer(value));
+        if (key == null) {
+            throw new JSONException("Null key.");
+        }
+        this.map.putLong(key, value, true);
         return this;
     }
 
@@ -1010,7 +1035,10 @@ public class JSONObject {
      * @throws JSONException If the key is null.
      */
     public JSONObject put(String key, long value) throws JSONException {
-        put(key, new Long(value));
+        if (key == null) {
+            throw new JSONException("Null key.");
+        }
+        this.map.putLong(key, value, false);
         return this;
     }
 
@@ -1101,60 +1129,80 @@ public class JSONObject {
      * @return  A String correctly formatted for insertion in a JSON text.
      */
     public static String quote(String string) {
+        StringBuilderWriter sw = new StringBuilderWriter(
+                string == null ? 2 : string.length() + 4);
+        try {
+            return quote(string, sw).toString();
+        } catch (IOException ignored) {
+            // StringBuilderWriter does not throw
+            return "";
+        }
+    }
+
+    /**
+     * Write a string in double quotes with backslash sequences in all the
+     * right places, like <code>quote(String)</code>, straight to a writer.
+     * Characters that need no escaping are written in runs.
+     * @param string A String
+     * @param w The writer
+     * @return The writer.
+     * @throws IOException If the writer fails.
+     */
+    public static Writer quote(String string, Writer w) throws IOException {
         if (string == null || string.length() == 0) {
-            return "\"\"";
+            w.write("\"\"");
+            return w;
         }
 
         char         b;
         char         c = 0;
         int          i;
         int          len = string.length();
-        StringBuffer sb = new StringBuffer(len + 4);
+        int          run = 0; // Start of the characters not yet written
         String       t;
 
-        sb.append('"');
+        w.write('"');
         for (i = 0; i < len; i += 1) {
             b = c;
             c = string.charAt(i);
+            // Characters that are written as they are
+            if ((c >= ' ' && c < '\u0080' && c != '\\' && c != '"' && c != '/') ||
+                    (c == '/' && b != '<') ||
+                    (c >= '\u00a0' && (c < '\u2000' || c >= '\u2100'))) {
+                continue;
+            }
+            w.write(string, run, i - run);
+            run = i + 1;
             switch (c) {
             case '\\':
             case '"':
-                sb.append('\\');
-                sb.append(c);
-                break;
             case '/':
-                if (b == '<') {
-                    sb.append('\\');
-                }
-                sb.append(c);
+                w.write('\\');
+                w.write(c);
                 break;
             case '\b':
-                sb.append("\\b");
+                w.write("\\b");
                 break;
             case '\t':
-                sb.append("\\t");
+                w.write("\\t");
                 break;
             case '\n':
-                sb.append("\\n");
+                w.write("\\n");
                 break;
             case '\f':
-                sb.append("\\f");
+                w.write("\\f");
                 break;
             case '\r':
-                sb.append("\\r");
+                w.write("\\r");
                 break;
             default:
-                if (c < ' ' || (c >= '\u0080' && c < '\u00a0') ||
-                               (c >= '\u2000' && c < '\u2100')) {
-                    t = "000" + Integer.toHexString(c);
-                    sb.append("\\u" + t.substring(t.length() - 4));
-                } else {
-                    sb.append(c);
-                }
+                t = "000" + Integer.toHexString(c);
+                w.write("\\u" + t.substring(t.length() - 4));
             }
         }
-        sb.append('"');
-        return sb.toString();
+        w.write(string, run, len - run);
+        w.write('"');
+        return w;
     }
 
     /**
@@ -1211,7 +1259,7 @@ public class JSONObject {
             if (b == '0' && s.length() > 2 &&
                         (s.charAt(1) == 'x' || s.charAt(1) == 'X')) {
                 try {
-                    return new Integer(Integer.parseInt(s.substring(2), 16));
+                    return Integer.valueOf(Integer.parseInt(s.substring(2), 16));
                 } catch (Exception ignore) {
                 }
             }
@@ -1220,9 +1268,9 @@ public class JSONObject {
                 		s.indexOf('e') > -1 || s.indexOf('E') > -1) {
                     return Double.valueOf(s);
                 } else {
-                    Long myLong = new Long(s);
+                    Long myLong = Long.valueOf(s);
                     if (myLong.longValue() == myLong.intValue()) {
-                        return new Integer(myLong.intValue());
+                        return Integer.valueOf(myLong.intValue());
                     } else {
                         return myLong;
                     }
@@ -1289,20 +1337,7 @@ public class JSONObject {
      */
     public String toString() {
         try {
-            Iterator     keys = keys();
-            StringBuffer sb = new StringBuffer("{");
-
-            while (keys.hasNext()) {
-                if (sb.length() > 1) {
-                    sb.append(',');
-                }
-                Object o = keys.next();
-                sb.append(quote(o.toString()));
-                sb.append(':');
-                sb.append(valueToString(this.map.get(o)));
-            }
-            sb.append('}');
-            return sb.toString();
+            return write(new StringBuilderWriter()).toString();
         } catch (Exception e) {
             return null;
         }
@@ -1563,7 +1598,7 @@ public class JSONObject {
                     writer.write(',');
                 }
                 Object k = keys.next();
-                writer.write(quote(k.toString()));
+                quote(k.toString(), writer);
                 writer.write(':');
                 Object v = this.map.get(k);
                 if (v instanceof JSONObject) {
@@ -0,0 +1,638 @@
+package org.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * JSONReader is a pull parser: rather than building a JSONObject tree of a
+ * whole text, it returns one event at a time, so that texts of any size can
+ * be read in constant memory.
+ * <p>
+ * Each call to <code>next</code> returns one of <code>START_OBJECT</code>,
+ * <code>END_OBJECT</code>, <code>START_ARRAY</code>, <code>END_ARRAY</code>,
+ * <code>KEY</code>, <code>VALUE</code> or <code>END_DOCUMENT</code>. The
+ * name of a key and the contents of a value are available through the
+ * <code>get</code> methods until the next event. A typical loop over the
+ * members of an object:
+ * <pre>
+ * reader.require(JSONReader.START_OBJECT);
+ * while (reader.next() == JSONReader.KEY) {
+ *     if (reader.getString().equals("width")) {
+ *         reader.require(JSONReader.VALUE);
+ *         width = reader.getInt();
+ *     } else {
+ *         reader.skipValue();
+ *     }
+ * }
+ * </pre>
+ * The syntax is checked as the text is read. Like JSONTokener, strings may
+ * also be quoted with single quotes. Characters are read from the reader in
+ * blocks into an internal buffer; integers are converted while they are
+ * scanned, other numbers are parsed straight from the buffer.
+ */
+public class JSONReader {
+
+    public static final int START_OBJECT = 1;
+    public static final int END_OBJECT = 2;
+    public static final int START_ARRAY = 3;
+    public static final int END_ARRAY = 4;
+    public static final int KEY = 5;
+    public static final int VALUE = 6;
+    public static final int END_DOCUMENT = 7;
+
+    private static final String[] EVENT_NAMES = {null, "'{'", "'}'", "'['",
+            "']'", "key", "value", "end of document"};
+
+    /* What may follow in the current container */
+    private static final byte EMPTY_DOCUMENT = 0;
+    private static final byte NONEMPTY_DOCUMENT = 1;
+    private static final byte EMPTY_OBJECT = 2;
+    private static final byte DANGLING_KEY = 3;
+    private static final byte NONEMPTY_OBJECT = 4;
+    private static final byte EMPTY_ARRAY = 5;
+    private static final byte NONEMPTY_ARRAY = 6;
+
+    /* Types of values */
+    private static final int STRING = 0;
+    private static final int INTEGER = 1;
+    private static final int DOUBLE = 2;
+    private static final int TRUE = 3;
+    private static final int FALSE = 4;
+    private static final int NULL = 5;
+
+    private final Reader reader;
+    private char[] buffer = new char[8192];
+    private int pos;        // Next character of the buffer to read
+    private int limit;      // End of the characters read into the buffer
+    private int mark = -1;  // Start of characters to keep, or -1
+    private long dropped;   // Number of characters dropped from the buffer
+
+    private byte[] stack = new byte[32];
+    private int depth;
+
+    private int event;
+    private int type;
+    private String string;
+    private long longValue;
+    private double doubleValue;
+    private final StringBuilder sb = new StringBuilder();
+
+
+    /**
+     * Construct a JSONReader from a reader.
+     *
+     * @param reader     A reader.
+     */
+    public JSONReader(Reader reader) {
+        this.reader = reader;
+        this.stack[0] = EMPTY_DOCUMENT;
+    }
+
+
+    /**
+     * Read the next event.
+     *
+     * @return START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, KEY, VALUE
+     *  or END_DOCUMENT.
+     * @throws JSONException If the text is malformed, or if it can't be read.
+     */
+    public int next() throws JSONException {
+        char c = nextClean();
+        switch (this.stack[this.depth]) {
+        case EMPTY_DOCUMENT:
+            this.stack[this.depth] = NONEMPTY_DOCUMENT;
+            return value(c);
+        case NONEMPTY_DOCUMENT:
+            if (c != 0) {
+                throw syntaxError("Text after the end of the document");
+            }
+            return this.event = END_DOCUMENT;
+        case EMPTY_OBJECT:
+            if (c == '}') {
+                return end(END_OBJECT);
+            }
+            return key(c);
+        case NONEMPTY_OBJECT:
+            if (c == '}') {
+                return end(END_OBJECT);
+            }
+            if (c != ',') {
+                throw syntaxError("Expected a ',' or '}'");
+            }
+            return key(nextClean());
+        case DANGLING_KEY:
+            if (c != ':') {
+                throw syntaxError("Expected a ':' after a key");
+            }
+            this.stack[this.depth] = NONEMPTY_OBJECT;
+            return value(nextClean());
+        case EMPTY_ARRAY:
+            if (c == ']') {
+                return end(END_ARRAY);
+            }
+            this.stack[this.depth] = NONEMPTY_ARRAY;
+            return value(c);
+        default:
+            if (c == ']') {
+                return end(END_ARRAY);
+            }
+            if (c != ',') {
+                throw syntaxError("Expected a ',' or ']'");
+            }
+            return value(nextClean());
+        }
+    }
+
+
+    /**
+     * Read the next event, and check that it is the expected one.
+     *
+     * @param expected The expected event.
+     * @throws JSONException If the event is another one.
+     */
+    public void require(int expected) throws JSONException {
+        if (next() != expected) {
+            throw syntaxError("Expected " + EVENT_NAMES[expected] +
+                    " and instead saw " + EVENT_NAMES[this.event]);
+        }
+    }
+
+
+    /**
+     * Skip the next value, including all of its contents if it is an object
+     * or an array. Usually called after a KEY that is of no interest.
+     *
+     * @throws JSONException If there is no next value.
+     */
+    public void skipValue() throws JSONException {
+        int open = 0;
+        do {
+            switch (next()) {
+            case START_OBJECT:
+            case START_ARRAY:
+                open += 1;
+                break;
+            case END_OBJECT:
+            case END_ARRAY:
+                open -= 1;
+                break;
+            case END_DOCUMENT:
+                open = -1;
+                break;
+            }
+            if (open < 0) {
+                throw syntaxError("Missing value");
+            }
+        } while (open > 0);
+    }
+
+
+    /**
+     * Get the name of the current key, or the current value as a string.
+     *
+     * @return A string.
+     * @throws JSONException If the current event is not a KEY or a VALUE.
+     */
+    public String getString() throws JSONException {
+        if (this.event == KEY || (this.event == VALUE && this.type == STRING)) {
+            return this.string;
+        }
+        return getValue().toString();
+    }
+
+
+    /**
+     * Get the current value. The value can be a Boolean, Double, Integer,
+     * Long, or String, or the JSONObject.NULL object.
+     *
+     * @return An object.
+     * @throws JSONException If the current event is not a VALUE.
+     */
+    public Object getValue() throws JSONException {
+        if (this.event != VALUE) {
+            throw new JSONException("JSONReader is not at a value.");
+        }
+        switch (this.type) {
+        case STRING:
+            return this.string;
+        case INTEGER:
+            if (this.longValue == (int)this.longValue) {
+                return Integer.valueOf((int)this.longValue);
+            }
+            return Long.valueOf(this.longValue);
+        case DOUBLE:
+            return Double.valueOf(this.doubleValue);
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        default:
+            return JSONObject.NULL;
+        }
+    }
+
+
+    /**
+     * Get the current value as a boolean.
+     *
+     * @return The truth.
+     * @throws JSONException If the value is not a Boolean or the String
+     *  "true" or "false".
+     */
+    public boolean getBoolean() throws JSONException {
+        Object o = getValue();
+        if (o.equals(Boolean.FALSE) ||
+                (o instanceof String &&
+                ((String)o).equalsIgnoreCase("false"))) {
+            return false;
+        } else if (o.equals(Boolean.TRUE) ||
+                (o instanceof String &&
+                ((String)o).equalsIgnoreCase("true"))) {
+            return true;
+        }
+        throw new JSONException("JSONReader value is not a Boolean.");
+    }
+
+
+    /**
+     * Get the current value as a double.
+     *
+     * @return The numeric value.
+     * @throws JSONException If the value is not a number and cannot be
+     *  converted to one.
+     */
+    public double getDouble() throws JSONException {
+        if (this.event == VALUE) {
+            if (this.type == INTEGER) {
+                return this.longValue;
+            }
+            if (this.type == DOUBLE) {
+                return this.doubleValue;
+            }
+        }
+        Object o = getValue();
+        try {
+            return Double.valueOf((String)o).doubleValue();
+        } catch (Exception e) {
+            throw new JSONException("JSONReader value is not a number.");
+        }
+    }
+
+
+    /**
+     * Get the current value as an int.
+     *
+     * @return The integer value.
+     * @throws JSONException If the value is not a number and cannot be
+     *  converted to one.
+     */
+    public int getInt() throws JSONException {
+        if (this.event == VALUE && this.type == INTEGER) {
+            return (int)this.longValue;
+        }
+        return (int)getDouble();
+    }
+
+
+    /**
+     * Get the current value as a long.
+     *
+     * @return The long value.
+     * @throws JSONException If the value is not a number and cannot be
+     *  converted to one.
+     */
+    public long getLong() throws JSONException {
+        if (this.event == VALUE && this.type == INTEGER) {
+            return this.longValue;
+        }
+        if (this.event == VALUE && this.type == DOUBLE) {
+            return (long)this.doubleValue;
+        }
+        Object o = getValue();
+        try {
+            return Long.parseLong((String)o);
+        } catch (Exception e) {
+            throw new JSONException("JSONReader value is not a long.");
+        }
+    }
+
+
+    /**
+     * Close the underlying reader.
+     */
+    public void close() throws JSONException {
+        try {
+            this.reader.close();
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+    }
+
+
+    /**
+     * Make a JSONException to signal a syntax error.
+     *
+     * @param message The error message.
+     * @return  A JSONException object, suitable for throwing
+     */
+    public JSONException syntaxError(String message) {
+        return new JSONException(message + toString());
+    }
+
+
+    /**
+     * Make a printable string of this JSONReader.
+     *
+     * @return " at {index}"
+     */
+    public String toString() {
+        return " at " + (this.dropped + this.pos);
+    }
+
+
+    private int key(char c) throws JSONException {
+        if (c != '"' && c != '\'') {
+            throw syntaxError("A JSONObject text must have a string key");
+        }
+        this.string = nextString(c);
+        this.stack[this.depth] = DANGLING_KEY;
+        return this.event = KEY;
+    }
+
+
+    private int value(char c) throws JSONException {
+        switch (c) {
+        case '{':
+            push(EMPTY_OBJECT);
+            return this.event = START_OBJECT;
+        case '[':
+            push(EMPTY_ARRAY);
+            return this.event = START_ARRAY;
+        case '"':
+        case '\'':
+            this.string = nextString(c);
+            this.type = STRING;
+            return this.event = VALUE;
+        case 0:
+            throw syntaxError("Missing value");
+        }
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            nextNumber(c);
+        } else {
+            nextLiteral(c);
+        }
+        return this.event = VALUE;
+    }
+
+
+    private int end(int event) {
+        this.depth -= 1;
+        return this.event = event;
+    }
+
+
+    private void push(byte state) {
+        this.depth += 1;
+        if (this.depth == this.stack.length) {
+            this.stack = Arrays.copyOf(this.stack, this.stack.length * 2);
+        }
+        this.stack[this.depth] = state;
+    }
+
+
+    /**
+     * Read more characters into the buffer. Characters before the mark (or
+     * all of them, if there is no mark) are dropped to make room first.
+     * @return false if there are no more characters.
+     */
+    private boolean fill() throws JSONException {
+        int keep = this.mark < 0 ? this.limit : this.mark;
+        if (keep > 0) {
+            System.arraycopy(this.buffer, keep, this.buffer, 0, this.limit - keep);
+            this.dropped += keep;
+            this.pos -= keep;
+            this.limit -= keep;
+            if (this.mark >= 0) {
+                this.mark = 0;
+            }
+        }
+        if (this.limit == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+        int n;
+        try {
+            n = this.reader.read(this.buffer, this.limit, this.buffer.length - this.limit);
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+        if (n <= 0) {
+            return false;
+        }
+        this.limit += n;
+        return true;
+    }
+
+
+    /**
+     * @return The next character without consuming it, or 0 at the end.
+     */
+    private char peek() throws JSONException {
+        if (this.pos < this.limit || fill()) {
+            return this.buffer[this.pos];
+        }
+        return 0;
+    }
+
+
+    private char next1() throws JSONException {
+        if (this.pos < this.limit || fill()) {
+            return this.buffer[this.pos++];
+        }
+        return 0;
+    }
+
+
+    private char nextClean() throws JSONException {
+        for (;;) {
+            char c = next1();
+            if (c == 0 || c > ' ') {
+                return c;
+            }
+        }
+    }
+
+
+    private String nextString(char quote) throws JSONException {
+        // Strings without escapes that are already in the buffer are the
+        // common case; they are copied in one go
+        int end = this.pos;
+        while (end < this.limit) {
+            char c = this.buffer[end];
+            if (c == quote) {
+                String s = new String(this.buffer, this.pos, end - this.pos);
+                this.pos = end + 1;
+                return s;
+            }
+            if (c == '\\' || c == '\n' || c == '\r' || c == 0) {
+                break;
+            }
+            end += 1;
+        }
+
+        this.sb.setLength(0);
+        for (;;) {
+            char c = next1();
+            switch (c) {
+            case 0:
+            case '\n':
+            case '\r':
+                throw syntaxError("Unterminated string");
+            case '\\':
+                c = next1();
+                switch (c) {
+                case 'b':
+                    this.sb.append('\b');
+                    break;
+                case 't':
+                    this.sb.append('\t');
+                    break;
+                case 'n':
+                    this.sb.append('\n');
+                    break;
+                case 'f':
+                    this.sb.append('\f');
+                    break;
+                case 'r':
+                    this.sb.append('\r');
+                    break;
+                case 'u':
+                    int u = 0;
+                    for (int i = 0; i < 4; i += 1) {
+                        int h = JSONTokener.dehexchar(next1());
+                        if (h < 0) {
+                            throw syntaxError("Illegal escape.");
+                        }
+                        u = (u << 4) | h;
+                    }
+                    this.sb.append((char)u);
+                    break;
+                case '"':
+                case '\'':
+                case '\\':
+                case '/':
+                    this.sb.append(c);
+                    break;
+                default:
+                    throw syntaxError("Illegal escape.");
+                }
+                break;
+            default:
+                if (c == quote) {
+                    return this.sb.toString();
+                }
+                this.sb.append(c);
+            }
+        }
+    }
+
+
+    /**
+     * Scan a number. The digits of an integer are accumulated as they are
+     * read (as a negative number, so that Long.MIN_VALUE fits); fractions,
+     * exponents and integers that don't fit a long are parsed as doubles
+     * from the characters in the buffer. Numbers must have the syntax of
+     * JSON: no leading zeros, and digits after a '.' and in an exponent.
+     */
+    private void nextNumber(char first) throws JSONException {
+        this.mark = this.pos - 1;
+        boolean negative = first == '-';
+        boolean exact = true;
+        int digits = 0;
+        long value = 0;
+        char c = first;
+        if (negative) {
+            c = peek();
+            if (c >= '0' && c <= '9') {
+                this.pos += 1;
+            }
+        }
+        boolean leadingZero = c == '0';
+        while (c >= '0' && c <= '9') {
+            int d = c - '0';
+            if (value < (Long.MIN_VALUE + d) / 10) {
+                exact = false;
+            } else {
+                value = value * 10 - d;
+            }
+            digits += 1;
+            c = peek();
+            if (c >= '0' && c <= '9') {
+                this.pos += 1;
+            }
+        }
+        boolean malformed = digits == 0 || (leadingZero && digits > 1);
+        if (!malformed && c == '.') {
+            exact = false;
+            this.pos += 1;
+            malformed = skipDigits() == 0;
+            c = peek();
+        }
+        if (!malformed && (c == 'e' || c == 'E')) {
+            exact = false;
+            this.pos += 1;
+            c = peek();
+            if (c == '+' || c == '-') {
+                this.pos += 1;
+            }
+            malformed = skipDigits() == 0;
+        }
+        if (malformed) {
+            String s = new String(this.buffer, this.mark, this.pos - this.mark);
+            this.mark = -1;
+            throw syntaxError("Malformed number " + s);
+        }
+        if (exact && (negative || value != Long.MIN_VALUE)) {
+            this.longValue = negative ? value : -value;
+            this.type = INTEGER;
+        } else {
+            String s = new String(this.buffer, this.mark, this.pos - this.mark);
+            this.doubleValue = Double.parseDouble(s);
+            this.type = DOUBLE;
+        }
+        this.mark = -1;
+    }
+
+
+    /**
+     * @return The number of digits skipped.
+     */
+    private int skipDigits() throws JSONException {
+        int n = 0;
+        for (char c = peek(); c >= '0' && c <= '9'; c = peek()) {
+            this.pos += 1;
+            n += 1;
+        }
+        return n;
+    }
+
+
+    private void nextLiteral(char first) throws JSONException {
+        this.sb.setLength(0);
+        this.sb.append(first);
+        for (char c = peek(); c > ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0; c = peek()) {
+            this.sb.append(c);
+            this.pos += 1;
+        }
+        String s = this.sb.toString();
+        if (s.equalsIgnoreCase("true")) {
+            this.type = TRUE;
+        } else if (s.equalsIgnoreCase("false")) {
+            this.type = FALSE;
+        } else if (s.equalsIgnoreCase("null")) {
+            this.type = NULL;
+        } else {
+            throw syntaxError("Unexpected '" + s + "'");
+        }
+    }
+}
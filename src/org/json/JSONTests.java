@@ -0,0 +1,579 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+/**
+ * JUnit tests for the parts of org.json the runtime reads and writes its
+ * files with.
+ */
+public class JSONTests {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore jc = new org.junit.runner.JUnitCore();
+        Result run = jc.run(JSONTests.class);
+
+        if( run.wasSuccessful() ) {
+            System.out.println("Run was successful with " + run.getRunCount() + " test(s)!");
+        } else {
+            System.out.println("Run had " + run.getFailureCount() + " failure(s) out of " +
+                    run.getRunCount() + " run(s)!");
+
+            for( Failure f : run.getFailures() ) {
+                System.out.println(f.toString());
+            }
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A reader returning at most chunk characters per read, so that tokens
+     * straddle the blocks a parser reads.
+     */
+    static Reader chunked(final String text, final int chunk) {
+        return new Reader() {
+            private int pos;
+
+            @Override
+            public int read(char[] cbuf, int off, int len) {
+                if (this.pos == text.length()) {
+                    return -1;
+                }
+                int n = Math.min(Math.min(len, chunk), text.length() - this.pos);
+                text.getChars(this.pos, this.pos + n, cbuf, off);
+                this.pos += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * All events of a text, e.g. "{", "key:a", "Integer:1", "}", "end".
+     */
+    static List<String> events(Reader text) throws JSONException {
+        JSONReader reader = new JSONReader(text);
+        List<String> events = new ArrayList<String>();
+        for (;;) {
+            switch (reader.next()) {
+            case JSONReader.START_OBJECT:
+                events.add("{");
+                break;
+            case JSONReader.END_OBJECT:
+                events.add("}");
+                break;
+            case JSONReader.START_ARRAY:
+                events.add("[");
+                break;
+            case JSONReader.END_ARRAY:
+                events.add("]");
+                break;
+            case JSONReader.KEY:
+                events.add("key:" + reader.getString());
+                break;
+            case JSONReader.VALUE:
+                Object value = reader.getValue();
+                events.add(value.getClass().getSimpleName() + ":" + value);
+                break;
+            default:
+                events.add("end");
+                return events;
+            }
+        }
+    }
+
+    private static final int[] CHUNKS = {1, 2, 3, 7, 8192};
+
+    @Test
+    public void readerEvents() throws JSONException {
+        String text = "{\"a\": [1, -2, 3.5e2, \"s\", true, false, null],\n"
+            + " \"b\" : {}, 'c':[[]], \"n\": [3000000000, -9223372036854775808,"
+            + " 9223372036854775808, 0, -0, 0.25, 1E+2, -1.5e-3]}";
+        List<String> expected = Arrays.asList(
+            "{", "key:a", "[", "Integer:1", "Integer:-2", "Double:350.0", "String:s",
+            "Boolean:true", "Boolean:false", "Null:null", "]",
+            "key:b", "{", "}", "key:c", "[", "[", "]", "]",
+            "key:n", "[", "Long:3000000000", "Long:-9223372036854775808",
+            "Double:9.223372036854776E18", "Integer:0", "Integer:0", "Double:0.25",
+            "Double:100.0", "Double:-0.0015", "]", "}", "end");
+        for (int chunk : CHUNKS) {
+            assertEquals("chunks of " + chunk, expected, events(chunked(text, chunk)));
+        }
+        assertEquals(Arrays.asList("Integer:7", "end"), events(new StringReader(" 7 ")));
+    }
+
+    @Test
+    public void readerStrings() throws JSONException {
+        String text = "[\"a\\n\\t\\u00e9\\/\\\\\\\"b\", 'it\\'s', \"\", \"plain\"]";
+        List<String> expected = Arrays.asList(
+            "[", "String:a\n\t\u00e9/\\\"b", "String:it's", "String:", "String:plain", "]", "end");
+        for (int chunk : CHUNKS) {
+            assertEquals("chunks of " + chunk, expected, events(chunked(text, chunk)));
+        }
+
+        // Strings and numbers longer than the buffer, and ones ending
+        // right at and after its end
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            longString.append((char)('a' + i % 26));
+        }
+        StringBuilder digits = new StringBuilder("1");
+        for (int i = 0; i < 10000; i++) {
+            digits.append('0');
+        }
+        for (int pad = 8185; pad < 8195; pad++) {
+            char[] spaces = new char[pad];
+            Arrays.fill(spaces, ' ');
+            text = "[" + new String(spaces) + "\"" + longString + "\", \"x\\ty\", "
+                + digits + ".5]";
+            List<String> events = events(chunked(text, 4096));
+            assertEquals(6, events.size());
+            assertEquals("String:" + longString, events.get(1));
+            assertEquals("String:x\ty", events.get(2));
+            assertEquals("Double:Infinity", events.get(3));
+        }
+    }
+
+    /**
+     * Malformed texts are rejected rather than read some other way.
+     */
+    @Test
+    public void readerErrors() {
+        String[] malformed = {
+            "01", "-01", "00", "1.", "1.e3", ".5", "1e", "1e+", "-", "+1", "1x",
+            "[1,]", "[1 2]", "{\"a\" 1}", "{1: 2}", "{\"a\": 1,}", "[1] 2",
+            "\"abc", "\"a\nb\"", "\"\\x\"", "\"\\u12g4\"", "", "[", "{\"a\":", "tru", "[nul]"
+        };
+        for (String text : malformed) {
+            try {
+                events(new StringReader(text));
+                assertTrue("accepted " + text, false);
+            } catch (JSONException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void readerSkipValue() throws JSONException {
+        JSONReader reader = new JSONReader(new StringReader(
+            "{\"skip\": {\"a\": [1, {\"b\": [2, \"]}\"]}], \"c\": {}}, \"s\": 'x',"
+            + " \"keep\": 7, \"last\": [[], [[]]]}"));
+        reader.require(JSONReader.START_OBJECT);
+        reader.require(JSONReader.KEY);
+        reader.skipValue();
+        reader.require(JSONReader.KEY);
+        assertEquals("s", reader.getString());
+        reader.skipValue();
+        reader.require(JSONReader.KEY);
+        assertEquals("keep", reader.getString());
+        reader.require(JSONReader.VALUE);
+        assertEquals(7, reader.getInt());
+        assertEquals(7L, reader.getLong());
+        reader.require(JSONReader.KEY);
+        reader.skipValue();
+        reader.require(JSONReader.END_OBJECT);
+        reader.require(JSONReader.END_DOCUMENT);
+
+        // There is no value to skip at the end of a container
+        reader = new JSONReader(new StringReader("[1]"));
+        reader.require(JSONReader.START_ARRAY);
+        reader.skipValue();
+        try {
+            reader.skipValue();
+            assertTrue("skipped ']'", false);
+        } catch (JSONException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * The value of a key, along with its class.
+     */
+    static String typed(Map<Object, Object> map, Object key) {
+        Object value = map.get(key);
+        return value == null ? "null" : value.getClass().getSimpleName() + ":" + value;
+    }
+
+    /**
+     * A value of a different kind for every key: unboxed numbers, and
+     * objects.
+     */
+    static Object value(int i) {
+        switch (i % 4) {
+        case 0:
+            return Integer.valueOf(i);
+        case 1:
+            return "s" + i;
+        case 2:
+            return Long.valueOf(1L << 40 | i);
+        default:
+            return Double.valueOf(i + 0.5);
+        }
+    }
+
+    /**
+     * Puts, overwrites and removes give the same results as with a HashMap,
+     * before and after the map switches to hashing, and whether a slot
+     * holds a number or not.
+     */
+    @Test
+    public void compactMapPutRemove() {
+        for (int n = 1; n <= CompactMap.MAX_COMPACT + 2; n++) {
+            CompactMap map = new CompactMap();
+            Map<Object, Object> expected = new HashMap<Object, Object>();
+            for (int i = 0; i < n; i++) {
+                assertNull(map.put("k" + i, value(i)));
+                expected.put("k" + i, value(i));
+            }
+            // Numbers replaced by objects and the other way around
+            for (int i = 0; i < n; i++) {
+                Object replacement = value(i + 1);
+                assertEquals("k" + i, expected.put("k" + i, replacement),
+                             map.put("k" + i, replacement));
+            }
+            map.putLong("k0", 7, true);
+            expected.put("k0", Integer.valueOf(7));
+            map.putDouble("k" + (n - 1), -1.25);
+            expected.put("k" + (n - 1), Double.valueOf(-1.25));
+            assertNull(map.remove("missing"));
+            if (n > 2) {
+                assertEquals(expected.remove("k1"), map.remove("k1"));
+            }
+            assertEquals(expected.size(), map.size());
+            for (int i = 0; i < n; i++) {
+                assertEquals("k" + i, typed(expected, "k" + i), typed(map, "k" + i));
+                assertEquals(expected.containsKey("k" + i), map.containsKey("k" + i));
+            }
+            assertEquals(expected, map);
+
+            // Growing after a removal
+            for (int i = n; i < n + 3; i++) {
+                map.put("k" + i, value(i));
+                expected.put("k" + i, value(i));
+            }
+            assertEquals(expected, map);
+            map.clear();
+            assertEquals(0, map.size());
+            assertNull(map.get("k0"));
+        }
+    }
+
+    /**
+     * Objects small enough to be compact keep their insertion order; their
+     * entries can be removed and set while iterating.
+     */
+    @Test
+    public void compactMapEntries() {
+        CompactMap map = new CompactMap();
+        for (int i = 0; i < 6; i++) {
+            map.put("k" + i, value(i));
+        }
+        List<Object> keys = new ArrayList<Object>(map.keySet());
+        assertEquals(Arrays.asList("k0", "k1", "k2", "k3", "k4", "k5"), keys);
+
+        Iterator<Map.Entry<Object, Object>> entries = map.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Object, Object> entry = entries.next();
+            if (entry.getKey().equals("k1")) {
+                entries.remove();
+            } else if (entry.getKey().equals("k2")) {
+                // A number replaced by a string, through the entry
+                assertEquals(value(2), entry.setValue("two"));
+                assertEquals("two", entry.getValue());
+            } else if (entry.getKey().equals("k3")) {
+                assertEquals(value(3), entry.setValue(Integer.valueOf(3)));
+            }
+        }
+        assertEquals(Arrays.asList("k0", "k2", "k3", "k4", "k5"),
+                     new ArrayList<Object>(map.keySet()));
+        assertEquals("String:two", typed(map, "k2"));
+        assertEquals("Integer:3", typed(map, "k3"));
+        assertEquals("Integer:4", typed(map, "k4"));
+        assertEquals("String:s5", typed(map, "k5"));
+    }
+
+    /**
+     * The numeric getters of JSONObject read unboxed numbers, and objects
+     * that took a number's slot.
+     */
+    @Test
+    public void jsonObjectNumbers() throws JSONException {
+        JSONObject o = new JSONObject();
+        o.put("a", 1);
+        o.put("b", 1L << 40);
+        o.put("c", 2.75);
+        assertEquals(1, o.getInt("a"));
+        assertEquals(1L << 40, o.getLong("b"));
+        assertEquals(2, o.getInt("c"));
+        assertEquals(2.75, o.getDouble("c"), 0);
+        o.put("a", "12");
+        assertEquals(12, o.getInt("a"));
+        o.put("c", "x");
+        assertEquals(-1, o.optDouble("c", -1), 0);
+        o.put("a", 3.5);
+        assertEquals(3, o.getInt("a"));
+        assertEquals(Double.valueOf(3.5), o.get("a"));
+        o.put("b", true);
+        assertTrue(o.getBoolean("b"));
+        for (int i = 0; i < CompactMap.MAX_COMPACT; i++) {
+            o.put("more" + i, i);
+        }
+        assertEquals(3.5, o.getDouble("a"), 0);
+        assertEquals(CompactMap.MAX_COMPACT - 1, o.getInt("more" + (CompactMap.MAX_COMPACT - 1)));
+        assertFalse(o.has("gone"));
+    }
+
+    static final String XML_TEXT = "<?xml version=\"1.0\"?>\n"
+        + "<!-- Characterization of one adder -->\n"
+        + "<stats unit=\"add\">\n"
+        + "  <run id=\"1\" width=\"8\"><bits>8</bits><name>first &amp; last</name></run>\n"
+        + "  <total>100</total>\n"
+        + "  <run id=\"2\">text <![CDATA[<raw>]]><bits>16</bits></run>\n"
+        + "  <group><run id=\"3\"/><run>nested</run></group>\n"
+        + "  <empty/>\n"
+        + "  <run><bits>24</bits><bits>32</bits></run>\n"
+        + "</stats>\n";
+
+    /**
+     * Everything a stream hands to its handler, as "path=value".
+     */
+    static List<String> streamed(Reader reader, String path) throws JSONException {
+        final List<String> elements = new ArrayList<String>();
+        XML.stream(reader, path, new XML.Handler() {
+            public void element(String p, Object value) {
+                elements.add(p + "=" + value);
+            }
+        });
+        return elements;
+    }
+
+    /**
+     * The members of a converted element named name, as "path=value": the
+     * elements of an array, or the single value.
+     */
+    static List<String> members(JSONObject o, String name, String path) throws JSONException {
+        List<String> members = new ArrayList<String>();
+        Object value = o.opt(name);
+        if (value instanceof JSONArray) {
+            JSONArray a = (JSONArray)value;
+            for (int i = 0; i < a.length(); i++) {
+                members.add(path + "=" + a.get(i));
+            }
+        } else if (value != null) {
+            members.add(path + "=" + value);
+        }
+        return members;
+    }
+
+    /**
+     * A stream hands over the elements on its path converted exactly like
+     * toJSONObject converts them, at any depth.
+     */
+    @Test
+    public void xmlStreamMatchesToJSONObject() throws JSONException {
+        JSONObject all = XML.toJSONObject(XML_TEXT);
+        JSONObject stats = all.getJSONObject("stats");
+        for (int chunk : CHUNKS) {
+            assertEquals("chunks of " + chunk, members(stats, "run", "stats/run"),
+                         streamed(chunked(XML_TEXT, chunk), "stats/run"));
+        }
+        assertEquals(3, streamed(new StringReader(XML_TEXT), "stats/run").size());
+        assertEquals(members(stats.getJSONObject("group"), "run", "stats/group/run"),
+                     streamed(new StringReader(XML_TEXT), "/stats/group/run"));
+        assertEquals(members(all, "stats", "stats"),
+                     streamed(new StringReader(XML_TEXT), "stats"));
+
+        // Wildcards, in document order
+        JSONArray runs = stats.getJSONArray("run");
+        assertEquals(Arrays.asList("stats/run=" + runs.get(0), "stats/total=100",
+                                   "stats/run=" + runs.get(1), "stats/group=" + stats.get("group"),
+                                   "stats/empty=", "stats/run=" + runs.get(2)),
+                     streamed(new StringReader(XML_TEXT), "*/*"));
+        assertEquals(Arrays.asList("stats/run/bits=8", "stats/run/bits=16",
+                                   "stats/run/bits=24", "stats/run/bits=32"),
+                     streamed(new StringReader(XML_TEXT), "stats/*/bits"));
+        assertTrue(streamed(new StringReader(XML_TEXT), "stats/none").isEmpty());
+        assertTrue(streamed(new StringReader(XML_TEXT), "other/run").isEmpty());
+    }
+
+    /**
+     * A handler can stop a stream, which then has read little more than
+     * the elements it handed over.
+     */
+    @Test
+    public void xmlStreamStops() {
+        StringBuilder text = new StringBuilder("<stats>");
+        for (int i = 0; i < 100000; i++) {
+            text.append("<run id=\"").append(i).append("\"><bits>8</bits></run>");
+        }
+        text.append("</stats>");
+        final String xml = text.toString();
+        final int[] read = new int[1];
+        Reader reader = new Reader() {
+            private final Reader in = chunked(xml, 1024);
+
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                int n = this.in.read(cbuf, off, len);
+                if (n > 0) {
+                    read[0] += n;
+                }
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final List<Object> ids = new ArrayList<Object>();
+        try {
+            XML.stream(reader, "stats/run", new XML.Handler() {
+                public void element(String path, Object value) throws JSONException {
+                    ids.add(((JSONObject)value).get("id"));
+                    if (ids.size() == 3) {
+                        throw new JSONException("enough");
+                    }
+                }
+            });
+            assertTrue("not stopped", false);
+        } catch (JSONException e) {
+            assertEquals("enough", e.getMessage());
+        }
+        assertEquals(Arrays.asList((Object)Integer.valueOf(0), 1, 2), ids);
+        assertTrue(read[0] + " characters read", read[0] <= 2 * 1024);
+    }
+
+    /**
+     * toJSONArray(Reader) writes the elements on its path as an array.
+     */
+    @Test
+    public void xmlToJSONArray() throws JSONException {
+        StringWriter out = new StringWriter();
+        JSONWriter writer = new JSONWriter(out);
+        writer.object().key("runs");
+        XML.toJSONArray(chunked(XML_TEXT, 5), "stats/run", writer);
+        writer.endObject();
+        JSONObject stats = XML.toJSONObject(XML_TEXT).getJSONObject("stats");
+        assertEquals(stats.getJSONArray("run").toString(),
+                     new JSONObject(out.toString()).getJSONArray("runs").toString());
+
+        out = new StringWriter();
+        XML.toJSONArray(new StringReader(XML_TEXT), "stats/none", new JSONWriter(out));
+        assertEquals("[]", out.toString());
+    }
+
+    /**
+     * The tokens of an XML text, as toJSONObject reads them: content and
+     * '<', and the tokens of each tag.
+     */
+    static List<String> xmlTokens(XMLTokener x) throws JSONException {
+        List<String> tokens = new ArrayList<String>();
+        for (Object t = x.nextContent(); t != null; t = x.nextContent()) {
+            tokens.add(t.toString());
+            if (t == XML.LT) {
+                do {
+                    t = x.nextToken();
+                    tokens.add(t.toString());
+                } while (t != XML.GT);
+            }
+        }
+        return tokens;
+    }
+
+    @Test
+    public void xmlTokenerReader() throws JSONException {
+        String text = "<a x=\"1\" y='two words'>some &lt;text&gt; <b/>more</a>";
+        List<String> expected = xmlTokens(new XMLTokener(text));
+        assertEquals(Arrays.asList("<", "a", "x", "=", "1", "y", "=", "two words", ">",
+                                   "some <text>", "<", "b", "/", ">", "more",
+                                   "<", "/", "a", ">"),
+                     expected);
+        for (int chunk : CHUNKS) {
+            assertEquals("chunks of " + chunk, expected, xmlTokens(new XMLTokener(chunked(text, chunk))));
+        }
+    }
+
+    /**
+     * Numbers, escapes and nesting as a stats dump writes them.
+     */
+    static void writeSample(JSONWriter w) throws JSONException {
+        w.object();
+        w.key("longs").array().value(0).value(-1).value(Long.MIN_VALUE).value(Long.MAX_VALUE)
+            .value(1234567890123L).endArray();
+        w.key("doubles").array().value(1.0).value(0.5).value(-0.0).value(100.0).value(1e-7)
+            .value(1.5e300).value(123456.789).value(Double.MIN_VALUE).value(-2.5e-5).endArray();
+        w.key("objects").array().value(Integer.valueOf(7)).value(Double.valueOf(2.50))
+            .value(Long.valueOf(-3)).value(Boolean.TRUE).value(false).value((Object)null)
+            .value(new JSONObject().put("a", 1)).value(new JSONArray().put("x").put(0.25)).endArray();
+        w.key("escapes \"\\/</").value("tab\t nl\n cr\r bs\b ff\f \u0001 \u001f </script> \u0080 \u009f \u2028 \u00e9 \u4e2d \\ \" '");
+        w.key("nested").object().key("empty").object().endObject().key("arrays").array()
+            .array().endArray().array().value(1).array().value("deep").endArray().endArray()
+            .endArray().endObject();
+        w.endObject();
+    }
+
+    /**
+     * What JSONStringer made of writeSample before JSONWriter streamed its
+     * output; bin/enerjstats and analyze/readstats.py read the dumps.
+     */
+    static final String SAMPLE =
+        "{\"longs\":[0,-1,-9223372036854775808,9223372036854775807,1234567890123],"
+        + "\"doubles\":[1,0.5,-0,100,1.0E-7,1.5E300,123456.789,4.9E-324,-2.5E-5],"
+        + "\"objects\":[7,2.5,-3,true,false,null,{\"a\":1},[\"x\",0.25]],"
+        + "\"escapes \\\"\\\\/<\\/\":\"tab\\t nl\\n cr\\r bs\\b ff\\f \\u0001 \\u001f "
+        + "<\\/script> \\u0080 \\u009f \\u2028 \u00e9 \u4e2d \\\\ \\\" '\","
+        + "\"nested\":{\"empty\":{},\"arrays\":[[],[1,[\"deep\"]]]}}";
+
+    /**
+     * The streamed dump is the text the stats files had when they were
+     * built as strings, whatever the writer writes to.
+     */
+    @Test
+    public void jsonWriterOutput() throws JSONException, IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JSONWriter stream = new JSONWriter(bytes, false);
+        writeSample(stream);
+        stream.close();
+        assertEquals(SAMPLE, new String(bytes.toByteArray(), "UTF-8"));
+
+        StringWriter out = new StringWriter();
+        writeSample(new JSONWriter(out));
+        assertEquals(SAMPLE, out.toString());
+
+        JSONStringer stringer = new JSONStringer();
+        writeSample(stringer);
+        assertEquals(SAMPLE, stringer.toString());
+
+        // Only a checking writer rejects duplicate keys
+        try {
+            new JSONStringer().object().key("a").value(1).key("a");
+            assertTrue("duplicate key", false);
+        } catch (JSONException e) {
+            // Expected
+        }
+        out = new StringWriter();
+        new JSONWriter(out, false).object().key("a").value(1).key("a").value(2).endObject();
+        assertEquals("{\"a\":1,\"a\":2}", out.toString());
+    }
+}
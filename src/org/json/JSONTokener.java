@@ -1,9 +1,9 @@
 package org.json;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -33,6 +33,9 @@ SOFTWARE.
  * A JSONTokener takes a source string and extracts characters and tokens from
  * it. It is used by the JSONObject and JSONArray constructors to parse
  * JSON source strings.
+ * <p>
+ * Characters are read from the reader in blocks into an internal buffer,
+ * rather than one call to the reader per character.
  * @author JSON.org
  * @version 2010-02-02
  */
@@ -46,6 +49,13 @@ public class JSONTokener {
     private Reader 	reader;
     private boolean usePrevious;
 
+    private char[]  buffer;
+    private int     pos;   // Next character of the buffer to read
+    private int     limit; // End of the characters read into the buffer
+    private int     mark = -1; // Start of characters to keep, or -1
+
+    private HashMap<String, String> keys; // Keys read so far, for sharing
+
 
     /**
      * Construct a JSONTokener from a reader.
@@ -53,8 +63,10 @@ public class JSONTokener {
      * @param reader     A reader.
      */
     public JSONTokener(Reader reader) {
-        this.reader = reader.markSupported() ? 
-        		reader : new BufferedReader(reader);
+        this.reader = reader;
+        this.buffer = new char[8192];
+        this.pos = 0;
+        this.limit = 0;
         this.eof = false;
         this.usePrevious = false;
         this.previous = 0;
@@ -70,7 +82,44 @@ public class JSONTokener {
      * @param s     A source string.
      */
     public JSONTokener(String s) {
-        this(new StringReader(s));
+        this((Reader)null);
+        this.buffer = s.toCharArray();
+        this.limit = this.buffer.length;
+    }
+
+
+    /**
+     * Read more characters into the buffer. Characters before the mark (or
+     * all of them, if there is no mark) are dropped to make room first.
+     * @return false if there are no more characters.
+     */
+    private boolean fill() throws JSONException {
+        if (this.reader == null) {
+            return false;
+        }
+        int keep = this.mark < 0 ? this.limit : this.mark;
+        if (keep > 0) {
+            System.arraycopy(this.buffer, keep, this.buffer, 0, this.limit - keep);
+            this.pos -= keep;
+            this.limit -= keep;
+            if (this.mark >= 0) {
+                this.mark = 0;
+            }
+        }
+        if (this.limit == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+        int n;
+        try {
+            n = this.reader.read(this.buffer, this.limit, this.buffer.length - this.limit);
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+        if (n <= 0) {
+            return false;
+        }
+        this.limit += n;
+        return true;
     }
 
 
@@ -140,12 +189,12 @@ public class JSONTokener {
         	this.usePrevious = false;
             c = this.previous;
         } else {
-	        try {
-	            c = this.reader.read();
-	        } catch (IOException exception) {
-	            throw new JSONException(exception);
+	        if (this.pos < this.limit || fill()) {
+	            c = this.buffer[this.pos++];
+	        } else {
+	            c = 0;
 	        }
-	
+
 	        if (c <= 0) { // End of stream
 	        	this.eof = true;
 	        	c = 0;
@@ -239,8 +288,27 @@ public class JSONTokener {
      */
     public String nextString(char quote) throws JSONException {
         char c;
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
         for (;;) {
+            // Copy a run of plain characters straight from the buffer
+            if (!this.usePrevious && this.previous != '\r') {
+                int end = this.pos;
+                while (end < this.limit) {
+                    c = this.buffer[end];
+                    if (c == quote || c == '\\' || c == '\n' || c == '\r' || c == 0) {
+                        break;
+                    }
+                    end += 1;
+                }
+                int n = end - this.pos;
+                if (n > 0) {
+                    sb.append(this.buffer, this.pos, n);
+                    this.index += n;
+                    this.character += n;
+                    this.previous = this.buffer[end - 1];
+                    this.pos = end;
+                }
+            }
             c = next();
             switch (c) {
             case 0:
@@ -365,7 +433,7 @@ public class JSONTokener {
          * formatting character.
          */
 
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
         while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
             sb.append(c);
             c = next();
@@ -389,30 +457,53 @@ public class JSONTokener {
      */
     public char skipTo(char to) throws JSONException {
         char c;
-        try {
-            int startIndex = this.index;
-            int startCharacter = this.character;
-            int startLine = this.line;
-            reader.mark(Integer.MAX_VALUE);
-            do {
-                c = next();
-                if (c == 0) {
-                    reader.reset();
-                    this.index = startIndex;
-                    this.character = startCharacter;
-                    this.line = startLine;
-                    return c;
-                }
-            } while (c != to);
-        } catch (IOException exc) {
-            throw new JSONException(exc);
-        }
+        int startIndex = this.index;
+        int startCharacter = this.character;
+        int startLine = this.line;
+        char startPrevious = this.previous;
+        boolean startUsePrevious = this.usePrevious;
+        this.mark = this.pos;
+        do {
+            c = next();
+            if (c == 0) {
+                this.pos = this.mark;
+                this.mark = -1;
+                this.index = startIndex;
+                this.character = startCharacter;
+                this.line = startLine;
+                this.previous = startPrevious;
+                this.usePrevious = startUsePrevious;
+                this.eof = false;
+                return c;
+            }
+        } while (c != to);
+        this.mark = -1;
 
         back();
         return c;
     }
     
 
+    /**
+     * Get a String equal to a key that is shared by all equal keys read by
+     * this tokener, so that objects with the same keys don't each keep
+     * their own copies.
+     * @param key A key.
+     * @return An equal key.
+     */
+    String internKey(String key) {
+        if (this.keys == null) {
+            this.keys = new HashMap<String, String>();
+        }
+        String shared = this.keys.get(key);
+        if (shared == null) {
+            this.keys.put(key, key);
+            return key;
+        }
+        return shared;
+    }
+
+
     /**
      * Make a JSONException to signal a syntax error.
      *
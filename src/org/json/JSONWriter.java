@@ -1,6 +1,10 @@
 package org.json;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 
 /*
@@ -53,12 +57,20 @@ SOFTWARE.
  * you. Objects and arrays can be nested up to 20 levels deep.
  * <p>
  * This can sometimes be easier than using a JSONObject to build a string.
+ * The text is written to the writer as it is produced, so a JSONWriter on a
+ * stream can produce texts of any size in constant memory, provided that
+ * it does not check the keys of objects for duplicates.
  * @author JSON.org
  * @version 2010-03-11
  */
 public class JSONWriter {
     private static final int maxdepth = 20;
 
+    /**
+     * Stack entry of an object whose keys are not checked.
+     */
+    private static final JSONObject UNCHECKED = new JSONObject();
+
     /**
      * The comma flag determines if a comma should be output before the next
      * value.
@@ -90,15 +102,85 @@ public class JSONWriter {
      */
     protected Writer writer;
 
+    /**
+     * Whether keys are checked for duplicates.
+     */
+    private final boolean checkKeys;
+
+    /**
+     * Scratch space for the digits of numbers.
+     */
+    private final char[] digits = new char[20];
+
     /**
      * Make a fresh JSONWriter. It can be used to build one JSON text.
      */
     public JSONWriter(Writer w) {
+        this(w, true);
+    }
+
+    /**
+     * Make a fresh JSONWriter. It can be used to build one JSON text.
+     * @param w The writer that will receive the output.
+     * @param checkKeys Whether to reject duplicate keys. Checking remembers
+     *  every key of the open objects.
+     */
+    public JSONWriter(Writer w, boolean checkKeys) {
         this.comma = false;
         this.mode = 'i';
         this.stack = new JSONObject[maxdepth];
         this.top = 0;
         this.writer = w;
+        this.checkKeys = checkKeys;
+    }
+
+    /**
+     * Make a fresh JSONWriter that writes UTF-8 encoded text to a stream,
+     * through a buffer. Call <code>flush</code> or <code>close</code> when
+     * done.
+     * @param out The stream that will receive the output.
+     * @param checkKeys Whether to reject duplicate keys.
+     */
+    public JSONWriter(OutputStream out, boolean checkKeys) {
+        this(new BufferedWriter(utf8(out)), checkKeys);
+    }
+
+    private static Writer utf8(OutputStream out) {
+        try {
+            return new OutputStreamWriter(out, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // UTF-8 is always supported
+        }
+    }
+
+    /**
+     * Check that a value may be appended here, and write a comma first if
+     * one is needed.
+     * @throws JSONException If the value is out of sequence.
+     */
+    private void beforeValue() throws JSONException {
+        if (this.mode != 'o' && this.mode != 'a') {
+            throw new JSONException("Value out of sequence.");
+        }
+        if (this.comma && this.mode == 'a') {
+            try {
+                this.writer.write(',');
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+        }
+    }
+
+    /**
+     * Update the state after a value has been written.
+     * @return this
+     */
+    private JSONWriter afterValue() {
+        if (this.mode == 'o') {
+            this.mode = 'k';
+        }
+        this.comma = true;
+        return this;
     }
 
     /**
@@ -111,22 +193,34 @@ public class JSONWriter {
         if (s == null) {
             throw new JSONException("Null pointer");
         }
-        if (this.mode == 'o' || this.mode == 'a') {
-            try {
-                if (this.comma && this.mode == 'a') {
-                    this.writer.write(',');
-                }
-                this.writer.write(s);
-            } catch (IOException e) {
-                throw new JSONException(e);
-            }
-            if (this.mode == 'o') {
-                this.mode = 'k';
-            }
-            this.comma = true;
-            return this;
+        beforeValue();
+        try {
+            this.writer.write(s);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return afterValue();
+    }
+
+    /**
+     * Write the digits of a long without making a string of it.
+     * @param l A long.
+     */
+    private void writeLong(long l) throws IOException {
+        if (l == Long.MIN_VALUE) {
+            this.writer.write("-9223372036854775808");
+            return;
         }
-        throw new JSONException("Value out of sequence.");
+        int pos = this.digits.length;
+        long rest = l < 0 ? -l : l;
+        do {
+            this.digits[--pos] = (char)('0' + rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        if (l < 0) {
+            this.digits[--pos] = '-';
+        }
+        this.writer.write(this.digits, pos, this.digits.length - pos);
     }
 
     /**
@@ -204,11 +298,13 @@ public class JSONWriter {
         }
         if (this.mode == 'k') {
             try {
-                stack[top - 1].putOnce(s, Boolean.TRUE);
+                if (stack[top - 1] != UNCHECKED) {
+                    stack[top - 1].putOnce(s, Boolean.TRUE);
+                }
                 if (this.comma) {
                     this.writer.write(',');
                 }
-                this.writer.write(JSONObject.quote(s));
+                JSONObject.quote(s, this.writer);
                 this.writer.write(':');
                 this.comma = false;
                 this.mode = 'o';
@@ -236,7 +332,7 @@ public class JSONWriter {
         }
         if (this.mode == 'o' || this.mode == 'a') {
             this.append("{");
-            this.push(new JSONObject());
+            this.push(this.checkKeys ? new JSONObject() : UNCHECKED);
             this.comma = false;
             return this;
         }
@@ -289,13 +385,39 @@ public class JSONWriter {
     }
 
     /**
-     * Append a double value.
+     * Append a double value. It is written the same way as by
+     * <code>JSONObject.numberToString</code>, without boxing it.
      * @param d A double.
      * @return this
      * @throws JSONException If the number is not finite.
      */
     public JSONWriter value(double d) throws JSONException {
-        return this.value(new Double(d));
+        if (Double.isInfinite(d) || Double.isNaN(d)) {
+            throw new JSONException("JSON does not allow non-finite numbers.");
+        }
+        beforeValue();
+        try {
+            // Whole numbers that Double.toString writes as "n.0"
+            if (d == (long)d && Math.abs(d) < 1e7 &&
+                    (d != 0 || Double.doubleToRawLongBits(d) == 0)) {
+                writeLong((long)d);
+            } else {
+                String s = Double.toString(d);
+                int end = s.length();
+                if (s.indexOf('E') < 0) {
+                    while (s.charAt(end - 1) == '0') {
+                        end -= 1;
+                    }
+                    if (s.charAt(end - 1) == '.') {
+                        end -= 1;
+                    }
+                }
+                this.writer.write(s, 0, end);
+            }
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return afterValue();
     }
 
     /**
@@ -305,7 +427,13 @@ public class JSONWriter {
      * @throws JSONException
      */
     public JSONWriter value(long l) throws JSONException {
-        return this.append(Long.toString(l));
+        beforeValue();
+        try {
+            writeLong(l);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return afterValue();
     }
 
 
@@ -320,4 +448,29 @@ public class JSONWriter {
     public JSONWriter value(Object o) throws JSONException {
         return this.append(JSONObject.valueToString(o));
     }
+
+
+    /**
+     * Flush the writer.
+     * @throws JSONException If the writer fails.
+     */
+    public void flush() throws JSONException {
+        try {
+            this.writer.flush();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * Close the writer.
+     * @throws JSONException If the writer fails.
+     */
+    public void close() throws JSONException {
+        try {
+            this.writer.close();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
 }
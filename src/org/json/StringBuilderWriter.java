@@ -0,0 +1,51 @@
+package org.json;
+
+import java.io.Writer;
+
+/**
+ * A Writer that collects its output in a StringBuilder. Unlike StringWriter,
+ * whose StringBuffer synchronizes every call, it's meant to be used by a
+ * single thread.
+ */
+final class StringBuilderWriter extends Writer {
+    private final StringBuilder sb;
+
+    StringBuilderWriter() {
+        this.sb = new StringBuilder();
+    }
+
+    StringBuilderWriter(int capacity) {
+        this.sb = new StringBuilder(capacity);
+    }
+
+    public void write(int c) {
+        this.sb.append((char)c);
+    }
+
+    public void write(char[] cbuf, int off, int len) {
+        this.sb.append(cbuf, off, len);
+    }
+
+    public void write(String str) {
+        this.sb.append(str);
+    }
+
+    public void write(String str, int off, int len) {
+        this.sb.append(str, off, off + len);
+    }
+
+    public Writer append(CharSequence csq) {
+        this.sb.append(csq);
+        return this;
+    }
+
+    public void flush() {
+    }
+
+    public void close() {
+    }
+
+    public String toString() {
+        return this.sb.toString();
+    }
+}
@@ -24,12 +24,14 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
+import java.io.Reader;
 import java.util.Iterator;
 
 
 /**
  * This provides static methods to convert an XML text into a JSONObject,
- * and to covert a JSONObject into an XML text.
+ * and to covert a JSONObject into an XML text. Large XML texts can also be
+ * converted while they are read, keeping only the elements on a path.
  * @author JSON.org
  * @version 2010-04-08
  */
@@ -62,6 +64,22 @@ public class XML {
     /** The Character '/'. */
     public static final Character SLASH = new Character('/');
 
+    /**
+     * Receives the elements of a streaming conversion, one at a time.
+     */
+    public interface Handler {
+        /**
+         * Handle a converted element.
+         * @param path  The names of the element and its ancestors,
+         *  separated by '/', starting with the root element.
+         * @param value The element as <code>toJSONObject</code> would have
+         *  converted it: a JSONObject, its content if it has nothing else,
+         *  or "" if it is empty.
+         * @throws JSONException To stop the conversion.
+         */
+        void element(String path, Object value) throws JSONException;
+    }
+
     /**
      * Replace special characters with XML escapes:
      * <pre>
@@ -117,19 +135,20 @@ public class XML {
     }
 
     /**
-     * Scan the content following the named tag, attaching it to the context.
+     * Scan what follows a '<' up to the name of an open tag.
      * @param x       The XMLTokener containing the source string.
-     * @param context The JSONObject that will include the new material.
+     * @param context The JSONObject that will include CDATA content, or
+     *  null to drop it.
      * @param name    The tag name.
-     * @return true if the close tag is processed.
+     * @return The name of an open tag, Boolean.TRUE if the close tag is
+     *  processed, or null if a comment, CDATA section, declaration or
+     *  processing instruction was skipped.
      * @throws JSONException
      */
-    private static boolean parse(XMLTokener x, JSONObject context,
-                                 String name) throws JSONException {
+    private static Object tag(XMLTokener x, JSONObject context,
+                              String name) throws JSONException {
         char       c;
         int        i;
-        String     n;
-        JSONObject o = null;
         String     s;
         Object     t;
 
@@ -152,7 +171,7 @@ public class XML {
             if (c == '-') {
                 if (x.next() == '-') {
                     x.skipPast("-->");
-                    return false;
+                    return null;
                 }
                 x.back();
             } else if (c == '[') {
@@ -160,10 +179,10 @@ public class XML {
                 if (t.equals("CDATA")) {
                     if (x.next() == '[') {
                         s = x.nextCDATA();
-                        if (s.length() > 0) {
+                        if (s.length() > 0 && context != null) {
                             context.accumulate("content", s);
                         }
-                        return false;
+                        return null;
                     }
                 }
                 throw x.syntaxError("Expected 'CDATA['");
@@ -179,13 +198,13 @@ public class XML {
                     i -= 1;
                 }
             } while (i > 0);
-            return false;
+            return null;
         } else if (t == QUEST) {
 
 // <?
 
             x.skipPast("?>");
-            return false;
+            return null;
         } else if (t == SLASH) {
 
 // Close tag </
@@ -200,86 +219,122 @@ public class XML {
             if (x.nextToken() != GT) {
                 throw x.syntaxError("Misshaped close tag");
             }
-            return true;
+            return Boolean.TRUE;
 
         } else if (t instanceof Character) {
             throw x.syntaxError("Misshaped tag");
+        }
+        return t;
+    }
 
-// Open tag <
 
-        } else {
-            n = (String)t;
-            t = null;
-            o = new JSONObject();
-            for (;;) {
-                if (t == null) {
-                    t = x.nextToken();
-                }
+    /**
+     * Scan the content following the named tag, attaching it to the context.
+     * @param x       The XMLTokener containing the source string.
+     * @param context The JSONObject that will include the new material.
+     * @param name    The tag name.
+     * @return true if the close tag is processed.
+     * @throws JSONException
+     */
+    private static boolean parse(XMLTokener x, JSONObject context,
+                                 String name) throws JSONException {
+        Object     t;
+
+        t = tag(x, context, name);
+        if (t == null) {
+            return false;
+        } else if (t == Boolean.TRUE) {
+            return true;
+        }
+        element(x, context, (String)t);
+        return false;
+    }
+
+
+    /**
+     * Scan the attributes and content of an element whose open tag name has
+     * been read, attaching it to the context.
+     * @param x       The XMLTokener containing the source string.
+     * @param context The JSONObject that will include the new material.
+     * @param n       The tag name.
+     * @throws JSONException
+     */
+    private static void element(XMLTokener x, JSONObject context,
+                                String n) throws JSONException {
+        JSONObject o;
+        String     s;
+        Object     t;
+
+        t = null;
+        o = new JSONObject();
+        for (;;) {
+            if (t == null) {
+                t = x.nextToken();
+            }
 
 // attribute = value
 
-                if (t instanceof String) {
-                    s = (String)t;
+            if (t instanceof String) {
+                s = (String)t;
+                t = x.nextToken();
+                if (t == EQ) {
                     t = x.nextToken();
-                    if (t == EQ) {
-                        t = x.nextToken();
-                        if (!(t instanceof String)) {
-                            throw x.syntaxError("Missing value");
-                        }
-                        o.accumulate(s, JSONObject.stringToValue((String)t));
-                        t = null;
-                    } else {
-                        o.accumulate(s, "");
+                    if (!(t instanceof String)) {
+                        throw x.syntaxError("Missing value");
                     }
+                    o.accumulate(s, JSONObject.stringToValue((String)t));
+                    t = null;
+                } else {
+                    o.accumulate(s, "");
+                }
 
 // Empty tag <.../>
 
-                } else if (t == SLASH) {
-                    if (x.nextToken() != GT) {
-                        throw x.syntaxError("Misshaped tag");
-                    }
-                    if (o.length() > 0) {
-                        context.accumulate(n, o);
-                    } else {
-                    	context.accumulate(n, "");
-                    }
-                    return false;
+            } else if (t == SLASH) {
+                if (x.nextToken() != GT) {
+                    throw x.syntaxError("Misshaped tag");
+                }
+                if (o.length() > 0) {
+                    context.accumulate(n, o);
+                } else {
+                	context.accumulate(n, "");
+                }
+                return;
 
 // Content, between <...> and </...>
 
-                } else if (t == GT) {
-                    for (;;) {
-                        t = x.nextContent();
-                        if (t == null) {
-                            if (n != null) {
-                                throw x.syntaxError("Unclosed tag " + n);
-                            }
-                            return false;
-                        } else if (t instanceof String) {
-                            s = (String)t;
-                            if (s.length() > 0) {
-                                o.accumulate("content", JSONObject.stringToValue(s));
-                            }
+            } else if (t == GT) {
+                for (;;) {
+                    t = x.nextContent();
+                    if (t == null) {
+                        if (n != null) {
+                            throw x.syntaxError("Unclosed tag " + n);
+                        }
+                        return;
+                    } else if (t instanceof String) {
+                        s = (String)t;
+                        if (s.length() > 0) {
+                            o.accumulate("content", JSONObject.stringToValue(s));
+                        }
 
 // Nested element
 
-                        } else if (t == LT) {
-                            if (parse(x, o, n)) {
-                                if (o.length() == 0) {
-                                    context.accumulate(n, "");
-                                } else if (o.length() == 1 &&
-                                       o.opt("content") != null) {
-                                    context.accumulate(n, o.opt("content"));
-                                } else {
-                                    context.accumulate(n, o);
-                                }
-                                return false;
+                    } else if (t == LT) {
+                        if (parse(x, o, n)) {
+                            if (o.length() == 0) {
+                                context.accumulate(n, "");
+                            } else if (o.length() == 1 &&
+                                   o.opt("content") != null) {
+                                context.accumulate(n, o.opt("content"));
+                            } else {
+                                context.accumulate(n, o);
                             }
+                            return;
                         }
                     }
-                } else {
-                    throw x.syntaxError("Misshaped tag");
                 }
+            } else {
+                throw x.syntaxError("Misshaped tag");
             }
         }
     }
@@ -309,6 +364,118 @@ public class XML {
     }
 
 
+    /**
+     * Scan what follows a '<' like parse, but only convert the elements on
+     * a path; everything else is skipped without being kept.
+     * @param x       The XMLTokener containing the source.
+     * @param name    The enclosing tag name.
+     * @param path    The names of the path.
+     * @param depth   The number of enclosing elements.
+     * @param prefix  The path of the enclosing element followed by '/', ""
+     *  at the top, or null if the enclosing element is not on the path.
+     * @param handler Receives the elements at the end of the path.
+     * @return true if the close tag is processed.
+     * @throws JSONException
+     */
+    private static boolean scan(XMLTokener x, String name, String[] path,
+                                int depth, String prefix,
+                                Handler handler) throws JSONException {
+        String     n;
+        Object     t;
+
+        t = tag(x, null, name);
+        if (t == null) {
+            return false;
+        } else if (t == Boolean.TRUE) {
+            return true;
+        }
+        n = (String)t;
+        boolean match = prefix != null && depth < path.length &&
+                (path[depth].equals("*") || path[depth].equals(n));
+        if (match && depth == path.length - 1) {
+            JSONObject o = new JSONObject();
+            element(x, o, n);
+            handler.element(prefix + n, o.opt(n));
+            return false;
+        }
+
+// Skip the attributes
+
+        for (t = x.nextToken(); t != GT; t = x.nextToken()) {
+            if (t == SLASH) {
+                if (x.nextToken() != GT) {
+                    throw x.syntaxError("Misshaped tag");
+                }
+                return false;
+            } else if (t == EQ) {
+                if (!(x.nextToken() instanceof String)) {
+                    throw x.syntaxError("Missing value");
+                }
+            } else if (!(t instanceof String)) {
+                throw x.syntaxError("Misshaped tag");
+            }
+        }
+
+// Skip the content, scanning nested elements
+
+        String inner = match ? prefix + n + "/" : null;
+        for (;;) {
+            t = x.nextContent();
+            if (t == null) {
+                throw x.syntaxError("Unclosed tag " + n);
+            } else if (t == LT && scan(x, n, path, depth + 1, inner, handler)) {
+                return false;
+            }
+        }
+    }
+
+
+    /**
+     * Convert a well-formed XML text while it is read, like
+     * <code>toJSONObject</code>, but only the elements on a path. Each
+     * element at the end of the path is converted on its own and handed to
+     * the handler; the rest of the text is skipped. Only one element is
+     * held in memory at a time, so texts of any size can be converted.
+     * @param reader  The source.
+     * @param path    The names of the elements from the root element down,
+     *  separated by '/'. A name of "*" matches any element.
+     * @param handler Receives the elements at the end of the path, in
+     *  document order.
+     * @throws JSONException
+     */
+    public static void stream(Reader reader, String path, Handler handler)
+            throws JSONException {
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        String[] names = path.split("/");
+        XMLTokener x = new XMLTokener(reader);
+        while (x.more() && x.skipPast("<")) {
+            scan(x, null, names, 0, "", handler);
+        }
+    }
+
+
+    /**
+     * Convert a well-formed XML text while it is read into a JSON array of
+     * the elements on a path, written as they are found.
+     * @param reader The source.
+     * @param path   The path of the elements, as for <code>stream</code>.
+     * @param writer A JSONWriter at the place of a value.
+     * @throws JSONException
+     */
+    public static void toJSONArray(Reader reader, String path,
+                                   final JSONWriter writer) throws JSONException {
+        writer.array();
+        stream(reader, path, new Handler() {
+            public void element(String p, Object value) throws JSONException {
+                writer.value(value);
+            }
+        });
+        writer.endArray();
+    }
+
+
     /**
      * Convert a JSONObject into a well-formed, element-normal XML string.
      * @param o A JSONObject.